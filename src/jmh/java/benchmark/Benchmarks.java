@@ -0,0 +1,35 @@
+package benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of the parser and the evaluator with allocation profiling.
+ * <p>
+ * Run with {@code mvn -P benchmark verify}, or directly with the usual JMH options, e.g. a benchmark pattern and
+ * {@code -p workload=range}.
+ *
+ * @author sedoe
+ */
+public class Benchmarks {
+
+    /**
+     * The entry point of the benchmarks.
+     *
+     * @param args the JMH command line options
+     * @throws Exception if the options are invalid or a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include("benchmark\\.");
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,142 @@
+package benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import evaluation.CompiledExpression;
+import evaluation.Evaluator;
+import evaluation.IFunction;
+import evaluation.PreparedExpression;
+import parser.Expression;
+import parser.Parser;
+
+/**
+ * Measures the evaluation of typical workloads by the interpreting {@link Evaluator}, by prepared and by compiled
+ * expressions.
+ *
+ * @author sedoe
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EvaluatorBenchmarks {
+    /**
+     * The formulas of the workloads.
+     */
+    private static final Map<String, String> WORKLOADS = new HashMap<>();
+
+    static {
+        WORKLOADS.put("arithmetic", "=a*2+b/3-(c-1)^2");
+        WORKLOADS.put("comparison", "=a*2>=b+1");
+        WORKLOADS.put("function", "=sqrt(a*a+b*b)");
+        WORKLOADS.put("range", "=sum(r1:r4)");
+        WORKLOADS.put("formula", "=5*when(text1=text2;=f1;=f2)");
+    }
+
+    /**
+     * The workload.
+     */
+    @Param({"arithmetic", "comparison", "function", "range", "formula"})
+    private String workload;
+
+    /**
+     * The Evaluator.
+     */
+    private Evaluator evaluator;
+    /**
+     * The parsed formula.
+     */
+    private Expression expression;
+    /**
+     * The prepared formula.
+     */
+    private PreparedExpression prepared;
+    /**
+     * The compiled formula.
+     */
+    private CompiledExpression compiled;
+
+    /**
+     * Creates the evaluator and the formula of the workload.
+     */
+    @Setup
+    public void setUp() {
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        functions.put("sqrt", value -> Math.sqrt((Double) value[0]));
+        functions.put("sum", value -> {
+            double result = 0;
+            for (Object o : (Object[]) value[0]) {
+                result += ((Number) o).doubleValue();
+            }
+            return result;
+        });
+        functions.put("when", value -> ((Boolean) value[0]) ? value[1] : value[2]);
+
+        Map<String, Object> values = new TreeMap<>();
+        values.put("a", 1.0);
+        values.put("b", 2.0);
+        values.put("c", 3.0);
+        values.put("r1", 1.0);
+        values.put("r2", 2.0);
+        values.put("r3", 3.0);
+        values.put("r4", 4.0);
+        values.put("text1", "TEXT1");
+        values.put("text2", "TEXT2");
+
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f1", new Parser().parse("=a*2"));
+        expressions.put("f2", new Parser().parse("=a*3"));
+
+        evaluator = new Evaluator(functions, values, expressions);
+        expression = new Parser().parse(WORKLOADS.get(workload));
+        prepared = evaluator.prepare(expression);
+        compiled = evaluator.compile(expression);
+    }
+
+    /**
+     * Evaluates the parsed formula.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Object interpreted() {
+        return evaluator.evaluate(expression);
+    }
+
+    /**
+     * Evaluates the prepared formula.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Object prepared() {
+        return prepared.evaluate();
+    }
+
+    /**
+     * Evaluates the compiled formula.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Object compiled() {
+        return compiled.evaluate();
+    }
+}
@@ -0,0 +1,114 @@
+package benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import parser.Expression;
+import parser.Parser;
+
+/**
+ * Measures {@link Parser#parse(String)} on short, long and deeply nested formulas in both parser modes.
+ *
+ * @author sedoe
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParserBenchmarks {
+    /**
+     * The kind of the formula.
+     */
+    @Param({"short", "long", "deep"})
+    private String formula;
+
+    /**
+     * The mode of the parser.
+     */
+    @Param({"REWRITE", "PRECEDENCE_CLIMBING"})
+    private Parser.Mode mode;
+
+    /**
+     * The text of the formula.
+     */
+    private String text;
+
+    /**
+     * The Parser.
+     */
+    private Parser parser;
+
+    /**
+     * Creates the parser and the formula.
+     */
+    @Setup
+    public void setUp() {
+        parser = new Parser(mode);
+        switch (formula) {
+            case "short":
+                text = "=a*2+b/3-(c-1)^2";
+                break;
+            case "long":
+                text = generate(new Random(42), 1000);
+                break;
+            default:
+                StringBuilder sb = new StringBuilder("=");
+                for (int i = 0; i < 100; i++) {
+                    sb.append(i % 2 == 0 ? "(" : "sqrt(");
+                }
+                sb.append('a');
+                for (int i = 0; i < 100; i++) {
+                    sb.append(i % 2 == 0 ? ")*2" : ")+1");
+                }
+                text = sb.toString();
+                break;
+        }
+    }
+
+    /**
+     * Parses the formula.
+     *
+     * @return the expression
+     */
+    @Benchmark
+    public Expression parse() {
+        return parser.parse(text);
+    }
+
+    /**
+     * Generates a formula of variables, numbers and the operators {@code + - * /}.
+     *
+     * @param random the random
+     * @param terms the number of terms
+     * @return the formula
+     */
+    private static String generate(Random random, int terms) {
+        String operators = "+-*/";
+        StringBuilder sb = new StringBuilder("=");
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                sb.append(operators.charAt(random.nextInt(operators.length())));
+            }
+            if (random.nextBoolean()) {
+                sb.append('a').append(random.nextInt(100));
+            } else {
+                sb.append(random.nextInt(1000)).append('.').append(random.nextInt(100));
+            }
+        }
+        return sb.toString();
+    }
+}
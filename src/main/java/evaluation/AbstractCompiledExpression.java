@@ -0,0 +1,257 @@
+package evaluation;
+
+import java.util.Map;
+
+import parser.BoolExpression;
+
+/**
+ * The base class of all classes generated by the {@link ExpressionCompiler}.
+ * <p>
+ * The generated code does the arithmetic itself and calls the methods of this class only for variables, functions
+ * and non-numeric comparisons. The arguments of lazy functions are read back through
+ * {@link #argument(int, EvaluationContext)}. The results of the referenced formulas are kept per pass through
+ * {@link #formula(EvaluationContext, int)}, so every formula is evaluated once per pass.
+ *
+ * @author sedoe
+ */
+public abstract class AbstractCompiledExpression implements CompiledExpression {
+    /**
+     * The marker of a formula not evaluated in the current pass.
+     */
+    protected static final Object PENDING = new Object();
+
+    /**
+     * The values used if no context is given.
+     */
+    protected final Map<String, Object> values;
+    /**
+     * The Functions, in order of their first occurrence in the compiled expression.
+     */
+    protected final IFunction<?, ?>[] functions;
+    /**
+     * The number of referenced formulas.
+     */
+    private final int formulas;
+
+    /**
+     * Instantiates a new Abstract compiled expression.
+     *
+     * @param values the values
+     * @param functions the functions
+     * @param formulas the number of referenced formulas
+     */
+    protected AbstractCompiledExpression(Map<String, Object> values, IFunction<?, ?>[] functions, int formulas) {
+        this.values = values;
+        this.functions = functions;
+        this.formulas = formulas;
+    }
+
+    @Override
+    public final <T> T evaluate() {
+        return evaluate(new EvaluationContext(values));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public final <T> T evaluate(EvaluationContext context) {
+        if (formulas == 0) {
+            return (T) expression(context);
+        }
+        context.enter(this, formulas);
+        try {
+            return (T) expression(context);
+        } finally {
+            context.leave();
+        }
+    }
+
+    /**
+     * Evaluates the compiled expression, generated.
+     *
+     * @param context the context
+     * @return the result
+     */
+    protected abstract Object expression(EvaluationContext context);
+
+    /**
+     * Gets the result of a referenced formula in the current pass.
+     *
+     * @param context the context
+     * @param index the index of the formula
+     * @return the result or {@link #PENDING} if it is still to evaluate
+     */
+    protected final Object formula(EvaluationContext context, int index) {
+        return context.hasFormula(this, index) ? context.formulaValues[index] : PENDING;
+    }
+
+    /**
+     * Keeps the result of a referenced formula for the current pass.
+     *
+     * @param context the context
+     * @param index the index of the formula
+     * @param value the result
+     * @return the result
+     */
+    protected final Object formula(EvaluationContext context, int index, Object value) {
+        context.setFormula(this, index, value);
+        return value;
+    }
+
+    /**
+     * Gets the value of a variable.
+     *
+     * @param context the context
+     * @param name the name
+     * @return the value
+     */
+    protected static Object variable(EvaluationContext context, String name) {
+        return context.get(name);
+    }
+
+    /**
+     * Gets the values of a range of variables.
+     *
+     * @param context the context
+     * @param firstName the first name
+     * @param lastName the last name
+     * @return the values
+     */
+    protected static Object range(EvaluationContext context, String firstName, String lastName) {
+        return Evaluator.range(context.getValues(), firstName, lastName);
+    }
+
+    /**
+     * Calls a function.
+     *
+     * @param index the index of the function
+     * @param params the params
+     * @return the result
+     */
+    protected final Object call(int index, Object[] params) {
+        return PrimitiveFunctions.boxed(functions[index]).calculate(params);
+    }
+
+    /**
+     * Calls an {@link IDoubleFunction}.
+     *
+     * @param index the index of the function
+     * @param value the value
+     * @return the result
+     */
+    protected final double callDouble(int index, double value) {
+        return ((IDoubleFunction) functions[index]).calculateDouble(value);
+    }
+
+    /**
+     * Calls an {@link IDoubleBinaryFunction}.
+     *
+     * @param index the index of the function
+     * @param left the first value
+     * @param right the second value
+     * @return the result
+     */
+    protected final double callDouble(int index, double left, double right) {
+        return ((IDoubleBinaryFunction) functions[index]).calculateDouble(left, right);
+    }
+
+    /**
+     * Calls an {@link IDoubleArrayFunction}.
+     *
+     * @param index the index of the function
+     * @param values the values
+     * @return the result
+     */
+    protected final double callDouble(int index, double[] values) {
+        return ((IDoubleArrayFunction) functions[index]).calculateDouble(values);
+    }
+
+    /**
+     * Calls an {@link IDoubleArrayFunction} with params containing ranges of variables.
+     *
+     * @param index the index of the function
+     * @param params the params, the values of ranges are passed one by one
+     * @return the result
+     */
+    protected final double callDouble(int index, Object[] params) {
+        return ((IDoubleArrayFunction) functions[index]).calculateDouble(PrimitiveFunctions.toDoubles(params));
+    }
+
+    /**
+     * Calls an {@link IDoublePredicate}.
+     *
+     * @param index the index of the function
+     * @param value the value
+     * @return the result
+     */
+    protected final boolean test(int index, double value) {
+        return ((IDoublePredicate) functions[index]).test(value);
+    }
+
+    /**
+     * Calls an {@link IDoubleBinaryPredicate}.
+     *
+     * @param index the index of the function
+     * @param left the first value
+     * @param right the second value
+     * @return the result
+     */
+    protected final boolean test(int index, double left, double right) {
+        return ((IDoubleBinaryPredicate) functions[index]).test(left, right);
+    }
+
+    /**
+     * Converts a value to a primitive double.
+     *
+     * @param value the value
+     * @return the double value or {@link Double#NaN} if it is no number
+     */
+    protected static double doubleValue(Object value) {
+        return PrimitiveFunctions.toDouble(value);
+    }
+
+    /**
+     * Calls a lazy function.
+     *
+     * @param index the index of the function
+     * @param firstArgument the index of the first argument, see {@link #argument(int, EvaluationContext)}
+     * @param size the number of arguments
+     * @param context the context
+     * @return the result
+     */
+    protected final Object lazy(int index, int firstArgument, int size, EvaluationContext context) {
+        return ((ILazyFunction<?>) functions[index]).calculate(new LazyArguments() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            Object evaluate(int argument) {
+                return argument(firstArgument + argument, context);
+            }
+        });
+    }
+
+    /**
+     * Evaluates an argument of a lazy function, overridden by the generated classes which have lazy functions.
+     *
+     * @param index the index of the argument, counted over all lazy functions of the class
+     * @param context the context
+     * @return the value
+     */
+    protected Object argument(int index, EvaluationContext context) {
+        throw new IndexOutOfBoundsException("Argument " + index);
+    }
+
+    /**
+     * Compares two values.
+     *
+     * @param left the left
+     * @param operator the operator
+     * @param right the right
+     * @return the result
+     */
+    protected static Object compare(Object left, BoolExpression.Operator operator, Object right) {
+        return Evaluator.compare(left, operator, right);
+    }
+}
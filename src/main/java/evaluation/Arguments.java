@@ -0,0 +1,68 @@
+package evaluation;
+
+/**
+ * The arguments of a call of an {@link ILazyFunction}, evaluated on demand.
+ * <p>
+ * An argument is evaluated when it is read the first time; reading it again returns the same result. Arguments which
+ * are never read are never evaluated. The arguments are valid during the call only.
+ *
+ * @author sedoe
+ */
+public interface Arguments {
+
+    /**
+     * Creates arguments of values which are already evaluated.
+     *
+     * @param values the values
+     * @return the arguments
+     */
+    static Arguments of(Object... values) {
+        return new Arguments() {
+            @Override
+            public int size() {
+                return values.length;
+            }
+
+            @Override
+            public Object get(int index) {
+                return values[index];
+            }
+        };
+    }
+
+    /**
+     * Gets the number of arguments.
+     *
+     * @return the size
+     */
+    int size();
+
+    /**
+     * Gets an argument, evaluating it if it was not read before.
+     *
+     * @param index the index
+     * @return the value
+     */
+    Object get(int index);
+
+    /**
+     * Gets an argument as primitive double.
+     *
+     * @param index the index
+     * @return the value or {@link Double#NaN} if it is no number
+     */
+    default double getDouble(int index) {
+        Object value = get(index);
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    /**
+     * Gets an argument as primitive boolean.
+     *
+     * @param index the index
+     * @return {@code true} if the value is {@link Boolean#TRUE}
+     */
+    default boolean getBoolean(int index) {
+        return Boolean.TRUE.equals(get(index));
+    }
+}
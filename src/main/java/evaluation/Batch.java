@@ -0,0 +1,313 @@
+package evaluation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The state of the column-at-a-time evaluation of a prepared expression over many rows.
+ * <p>
+ * The rows are evaluated in blocks of {@link #BLOCK_SIZE} rows. Each node computes its result for the whole block at
+ * once, so the dispatch cost of a node is paid once per block instead of once per row. Nodes without a column-wise
+ * implementation evaluate the block row by row with a slot context holding the values of the current row.
+ *
+ * @author sedoe
+ * @see PreparedExpression#evaluateBatch(Map, int, double[])
+ */
+final class Batch {
+    /**
+     * The number of rows evaluated at once.
+     */
+    static final int BLOCK_SIZE = 1024;
+
+    /**
+     * The columns by slot, {@code null} for variables without a column.
+     */
+    private final double[][] columns;
+    /**
+     * The slots having a column.
+     */
+    private final int[] columnSlots;
+    /**
+     * The context holding the values of the current row, for the row-wise evaluation.
+     */
+    private final EvaluationContext row;
+    /**
+     * The preparation numbering the referenced formulas.
+     */
+    private final Object formulaOwner;
+    /**
+     * The number of referenced formulas.
+     */
+    private final int formulaCount;
+    /**
+     * The results of the formulas for the current block by formula index, allocated when first needed.
+     */
+    private double[][] formulaBlocks;
+    /**
+     * The offset of the block of the results of a formula plus 1, 0 if there are none, by formula index.
+     */
+    private int[] formulaOffsets;
+    /**
+     * The buffers for intermediate results.
+     */
+    private double[][] buffers = new double[4][];
+    /**
+     * The number of buffers in use.
+     */
+    private int used;
+
+    /**
+     * Instantiates a new Batch.
+     *
+     * @param slots the slots of the variables
+     * @param columns the columns by variable name
+     * @param values the values of the variables without column
+     * @param rows the number of rows
+     * @param formulaOwner the preparation numbering the referenced formulas
+     * @param formulaCount the number of referenced formulas
+     */
+    Batch(VariableSlots slots, Map<String, double[]> columns, Map<String, Object> values, int rows,
+            Object formulaOwner, int formulaCount) {
+        this.formulaOwner = formulaOwner;
+        this.formulaCount = formulaCount;
+        this.columns = new double[slots.size()][];
+        this.row = new EvaluationContext(slots, values == null ? Collections.<String, Object>emptyMap() : values);
+        int[] withColumn = new int[slots.size()];
+        int count = 0;
+        for (int slot = 0; slot < slots.size(); slot++) {
+            String name = slots.getName(slot);
+            double[] column = columns.get(name);
+            if (column != null) {
+                if (column.length < rows) {
+                    throw new IllegalArgumentException("The column " + name + " has less than " + rows + " rows");
+                }
+                this.columns[slot] = column;
+                withColumn[count++] = slot;
+            } else if (values != null) {
+                row.set(slot, values.get(name));
+            }
+        }
+        this.columnSlots = Arrays.copyOf(withColumn, count);
+    }
+
+    /**
+     * Evaluates a node for a range of rows.
+     *
+     * @param root the node
+     * @param from the first row
+     * @param to the row after the last one
+     * @param result the result by row
+     */
+    void evaluate(Node root, int from, int to, double[] result) {
+        double[] block = acquire();
+        for (int offset = from; offset < to; offset += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, to - offset);
+            root.evaluateDoubles(this, offset, length, block);
+            System.arraycopy(block, 0, result, offset, length);
+        }
+        release();
+    }
+
+    /**
+     * Gets the column of a variable.
+     *
+     * @param slot the slot
+     * @return the column or {@code null} if the variable has no column
+     */
+    double[] column(int slot) {
+        return slot < columns.length ? columns[slot] : null;
+    }
+
+    /**
+     * Gets the context holding the values of a row.
+     *
+     * @param index the index of the row
+     * @return the context
+     */
+    EvaluationContext row(int index) {
+        for (int slot : columnSlots) {
+            row.setDouble(slot, columns[slot][index]);
+        }
+        if (formulaCount > 0) {
+            row.beginFormulaPass(formulaOwner, formulaCount);
+        }
+        return row;
+    }
+
+    /**
+     * Gets the results of a formula for a block, if they were computed already.
+     *
+     * @param owner the preparation numbering the formulas
+     * @param index the index of the formula
+     * @param offset the first row of the block
+     * @return the results or {@code null}
+     */
+    double[] formulaBlock(Object owner, int index, int offset) {
+        if (owner != formulaOwner || formulaOffsets == null || formulaOffsets[index] != offset + 1) {
+            return null;
+        }
+        return formulaBlocks[index];
+    }
+
+    /**
+     * Keeps the results of a formula for a block.
+     *
+     * @param owner the preparation numbering the formulas
+     * @param index the index of the formula
+     * @param offset the first row of the block
+     * @param results the results
+     * @param length the number of rows of the block
+     */
+    void setFormulaBlock(Object owner, int index, int offset, double[] results, int length) {
+        if (owner != formulaOwner) {
+            return;
+        }
+        if (formulaOffsets == null) {
+            formulaBlocks = new double[formulaCount][];
+            formulaOffsets = new int[formulaCount];
+        }
+        if (formulaBlocks[index] == null) {
+            formulaBlocks[index] = new double[BLOCK_SIZE];
+        }
+        System.arraycopy(results, 0, formulaBlocks[index], 0, length);
+        formulaOffsets[index] = offset + 1;
+    }
+
+    /**
+     * Gets the context for the values of the variables without column.
+     *
+     * @return the context
+     */
+    EvaluationContext context() {
+        return row;
+    }
+
+    /**
+     * Acquires a buffer for intermediate results of one block. The buffers are released in reverse order.
+     *
+     * @return the buffer
+     */
+    double[] acquire() {
+        if (used == buffers.length) {
+            buffers = Arrays.copyOf(buffers, used * 2);
+        }
+        if (buffers[used] == null) {
+            buffers[used] = new double[BLOCK_SIZE];
+        }
+        return buffers[used++];
+    }
+
+    /**
+     * Releases the last acquired buffer.
+     */
+    void release() {
+        used--;
+    }
+
+    /**
+     * Evaluates a range of rows in parallel.
+     * <p>
+     * The range is split at block boundaries until it is not larger than the leaf size. Every leaf is evaluated with
+     * its own batch, so the workers share nothing but the read-only columns and the result array, into which they
+     * write disjoint ranges.
+     */
+    static final class Task extends RecursiveAction {
+        /**
+         * The constant serialVersionUID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The Root.
+         */
+        private final Node root;
+        /**
+         * The Slots.
+         */
+        private final VariableSlots slots;
+        /**
+         * The Columns.
+         */
+        private final Map<String, double[]> columns;
+        /**
+         * The Values.
+         */
+        private final Map<String, Object> values;
+        /**
+         * The number of rows of all columns.
+         */
+        private final int rows;
+        /**
+         * The preparation numbering the referenced formulas.
+         */
+        private final Object formulaOwner;
+        /**
+         * The number of referenced formulas.
+         */
+        private final int formulaCount;
+        /**
+         * The first row.
+         */
+        private final int from;
+        /**
+         * The row after the last one.
+         */
+        private final int to;
+        /**
+         * The maximum number of rows evaluated without further splitting.
+         */
+        private final int leafSize;
+        /**
+         * The Result.
+         */
+        private final double[] result;
+
+        /**
+         * Instantiates a new Task.
+         *
+         * @param root the root
+         * @param slots the slots
+         * @param columns the columns
+         * @param values the values
+         * @param rows the number of rows of all columns
+         * @param formulaOwner the preparation numbering the referenced formulas
+         * @param formulaCount the number of referenced formulas
+         * @param from the first row
+         * @param to the row after the last one
+         * @param leafSize the maximum number of rows evaluated without further splitting
+         * @param result the result
+         */
+        Task(Node root, VariableSlots slots, Map<String, double[]> columns, Map<String, Object> values, int rows,
+                Object formulaOwner, int formulaCount, int from, int to, int leafSize, double[] result) {
+            this.root = root;
+            this.slots = slots;
+            this.columns = columns;
+            this.values = values;
+            this.rows = rows;
+            this.formulaOwner = formulaOwner;
+            this.formulaCount = formulaCount;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= leafSize) {
+                new Batch(slots, columns, values, rows, formulaOwner, formulaCount).evaluate(root, from, to, result);
+                return;
+            }
+            int middle = from + (to - from) / 2 / BLOCK_SIZE * BLOCK_SIZE;
+            if (middle == from) {
+                middle += BLOCK_SIZE;
+            }
+            invokeAll(new Task(root, slots, columns, values, rows, formulaOwner, formulaCount, from, middle, leafSize,
+                            result),
+                    new Task(root, slots, columns, values, rows, formulaOwner, formulaCount, middle, to, leafSize,
+                            result));
+        }
+    }
+}
@@ -0,0 +1,712 @@
+package evaluation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer for JVM class files, used by the {@link ExpressionCompiler}.
+ * <p>
+ * The classes are written in the version 49 format, so the verifier infers the types itself and no stack map frames
+ * have to be computed. All names are internal names ({@code java/lang/Object}).
+ *
+ * @author sedoe
+ */
+final class ClassFileWriter {
+    /**
+     * The maximum length of the code of one method.
+     */
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    /**
+     * The constant pool.
+     */
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    /**
+     * The constant pool as data stream.
+     */
+    private final DataOutputStream poolData = new DataOutputStream(pool);
+    /**
+     * The indices of the already written constants.
+     */
+    private final Map<String, Integer> constants = new HashMap<>();
+    /**
+     * The next constant pool index.
+     */
+    private int poolCount = 1;
+    /**
+     * The written methods.
+     */
+    private final List<byte[]> methods = new ArrayList<>();
+    /**
+     * The This class.
+     */
+    private final int thisClass;
+    /**
+     * The Super class.
+     */
+    private final int superClass;
+
+    /**
+     * Instantiates a new Class file writer.
+     *
+     * @param name the name of the class
+     * @param superName the name of the super class
+     */
+    ClassFileWriter(String name, String superName) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+    }
+
+    /**
+     * Starts a new method.
+     *
+     * @param name the name
+     * @param descriptor the descriptor
+     * @param locals the number of local variable slots used by this and the parameters
+     * @return the code of the method
+     */
+    Code method(String name, String descriptor, int locals) {
+        return new Code(utf8(name), utf8(descriptor), locals);
+    }
+
+    /**
+     * Gets the class file.
+     *
+     * @return the bytes of the class file
+     */
+    byte[] toByteArray() {
+        if (poolCount > 0xFFFF) {
+            throw new TooLargeException("Constant pool too large");
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            // public final super
+            out.writeShort(0x0031);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            // interfaces
+            out.writeShort(0);
+            // fields
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            // attributes
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets the index of an utf8 constant.
+     *
+     * @param value the value
+     * @return the index
+     */
+    int utf8(String value) {
+        Integer index = constants.get("U" + value);
+        if (index == null) {
+            index = constant("U" + value, 1);
+            write(() -> {
+                poolData.writeByte(1);
+                poolData.writeUTF(value);
+            });
+        }
+        return index;
+    }
+
+    /**
+     * Gets the index of a class constant.
+     *
+     * @param name the name
+     * @return the index
+     */
+    int classRef(String name) {
+        Integer index = constants.get("C" + name);
+        if (index == null) {
+            int nameIndex = utf8(name);
+            index = constant("C" + name, 1);
+            write(() -> {
+                poolData.writeByte(7);
+                poolData.writeShort(nameIndex);
+            });
+        }
+        return index;
+    }
+
+    /**
+     * Gets the index of a string constant.
+     *
+     * @param value the value
+     * @return the index
+     */
+    int string(String value) {
+        Integer index = constants.get("S" + value);
+        if (index == null) {
+            int valueIndex = utf8(value);
+            index = constant("S" + value, 1);
+            write(() -> {
+                poolData.writeByte(8);
+                poolData.writeShort(valueIndex);
+            });
+        }
+        return index;
+    }
+
+    /**
+     * Gets the index of a double constant.
+     *
+     * @param value the value
+     * @return the index
+     */
+    int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        Integer index = constants.get("D" + bits);
+        if (index == null) {
+            // double constants occupy two entries
+            index = constant("D" + bits, 2);
+            write(() -> {
+                poolData.writeByte(6);
+                poolData.writeLong(bits);
+            });
+        }
+        return index;
+    }
+
+    /**
+     * Gets the index of a method or field reference constant.
+     *
+     * @param tag the tag
+     * @param owner the owner class
+     * @param name the name
+     * @param descriptor the descriptor
+     * @return the index
+     */
+    int memberRef(int tag, String owner, String name, String descriptor) {
+        String key = "M" + tag + owner + '.' + name + descriptor;
+        Integer index = constants.get(key);
+        if (index == null) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            Integer nameAndType = constants.get("N" + name + descriptor);
+            if (nameAndType == null) {
+                nameAndType = constant("N" + name + descriptor, 1);
+                write(() -> {
+                    poolData.writeByte(12);
+                    poolData.writeShort(nameIndex);
+                    poolData.writeShort(descriptorIndex);
+                });
+            }
+            int nameAndTypeIndex = nameAndType;
+            index = constant(key, 1);
+            write(() -> {
+                poolData.writeByte(tag);
+                poolData.writeShort(ownerIndex);
+                poolData.writeShort(nameAndTypeIndex);
+            });
+        }
+        return index;
+    }
+
+    /**
+     * Registers a new constant.
+     *
+     * @param key the key
+     * @param size the number of occupied entries
+     * @return the index
+     */
+    private int constant(String key, int size) {
+        int index = poolCount;
+        constants.put(key, index);
+        poolCount += size;
+        return index;
+    }
+
+    /**
+     * Writes to the constant pool.
+     *
+     * @param writer the writer
+     */
+    private void write(PoolWriter writer) {
+        try {
+            writer.write();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes a constant pool entry.
+     */
+    private interface PoolWriter {
+        /**
+         * Write.
+         *
+         * @throws IOException the io exception
+         */
+        void write() throws IOException;
+    }
+
+    /**
+     * A jump target.
+     */
+    static final class Label {
+        /**
+         * The position in the code or -1 if not yet known.
+         */
+        private int position = -1;
+        /**
+         * The stack size at the target.
+         */
+        private int stack;
+        /**
+         * The positions of the jump instructions to patch.
+         */
+        private final List<Integer> jumps = new ArrayList<>();
+        /**
+         * The positions of the switch instructions and of their offsets to this target to patch.
+         */
+        private final List<int[]> switches = new ArrayList<>();
+    }
+
+    /**
+     * Thrown if the code exceeds a limit of the class file format, like the length of a method.
+     */
+    static final class TooLargeException extends RuntimeException {
+        /**
+         * The constant serialVersionUID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Instantiates a new Too large exception.
+         *
+         * @param message the message
+         */
+        TooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The code of a method.
+     * <p>
+     * The maximum stack size and the number of local variables are tracked while the instructions are written.
+     */
+    final class Code {
+        /**
+         * The Name index.
+         */
+        private final int name;
+        /**
+         * The Descriptor index.
+         */
+        private final int descriptor;
+        /**
+         * The Bytes.
+         */
+        private byte[] bytes = new byte[64];
+        /**
+         * The Length.
+         */
+        private int length;
+        /**
+         * The current stack size.
+         */
+        private int stack;
+        /**
+         * The Max stack.
+         */
+        private int maxStack;
+        /**
+         * The next free local variable slot.
+         */
+        private int locals;
+        /**
+         * The Max locals.
+         */
+        private int maxLocals;
+
+        /**
+         * Instantiates a new Code.
+         *
+         * @param name the name index
+         * @param descriptor the descriptor index
+         * @param locals the locals
+         */
+        private Code(int name, int descriptor, int locals) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.locals = locals;
+            this.maxLocals = locals;
+        }
+
+        /**
+         * Writes an instruction without operands.
+         *
+         * @param opcode the opcode
+         * @param delta the change of the stack size
+         */
+        void op(int opcode, int delta) {
+            u1(opcode);
+            stack(delta);
+        }
+
+        /**
+         * Writes an instruction with a constant pool index as operand.
+         *
+         * @param opcode the opcode
+         * @param index the index
+         * @param delta the change of the stack size
+         */
+        void op(int opcode, int index, int delta) {
+            u1(opcode);
+            u2(index);
+            stack(delta);
+        }
+
+        /**
+         * Writes an instruction with a local variable slot as operand.
+         *
+         * @param opcode the opcode
+         * @param slot the slot
+         * @param delta the change of the stack size
+         */
+        void local(int opcode, int slot, int delta) {
+            if (slot > 0xFF) {
+                // wide
+                u1(0xC4);
+                u1(opcode);
+                u2(slot);
+            } else {
+                u1(opcode);
+                u1(slot);
+            }
+            stack(delta);
+        }
+
+        /**
+         * Pushes a string constant.
+         *
+         * @param value the value
+         */
+        void ldc(String value) {
+            int index = string(value);
+            if (index > 0xFF) {
+                // ldc_w
+                op(0x13, index, 1);
+            } else {
+                u1(0x12);
+                u1(index);
+                stack(1);
+            }
+        }
+
+        /**
+         * Pushes a double constant.
+         *
+         * @param value the value
+         */
+        void ldc(double value) {
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                // dconst_0
+                op(0x0E, 2);
+            } else if (value == 1.0) {
+                // dconst_1
+                op(0x0F, 2);
+            } else {
+                // ldc2_w
+                op(0x14, doubleConstant(value), 2);
+            }
+        }
+
+        /**
+         * Pushes an int constant.
+         *
+         * @param value the value
+         */
+        void push(int value) {
+            if (value >= -1 && value <= 5) {
+                // iconst_<n>
+                op(0x03 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                // bipush
+                u1(0x10);
+                u1(value);
+                stack(1);
+            } else {
+                // sipush
+                op(0x11, value, 1);
+            }
+        }
+
+        /**
+         * Invokes a method.
+         *
+         * @param opcode the opcode
+         * @param owner the owner
+         * @param name the name
+         * @param descriptor the descriptor
+         */
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            // invokestatic has no receiver
+            int delta = size(descriptor) - (opcode == 0xB8 ? 0 : 1);
+            op(opcode, memberRef(10, owner, name, descriptor), delta);
+        }
+
+        /**
+         * Reads a static field.
+         *
+         * @param owner the owner
+         * @param name the name
+         * @param descriptor the descriptor
+         */
+        void getStatic(String owner, String name, String descriptor) {
+            op(0xB2, memberRef(9, owner, name, descriptor), 1);
+        }
+
+        /**
+         * Writes an instruction with a class as operand.
+         *
+         * @param opcode the opcode
+         * @param type the type
+         */
+        void type(int opcode, String type) {
+            op(opcode, classRef(type), 0);
+        }
+
+        /**
+         * Creates an array of a primitive type, its size is on the stack.
+         *
+         * @param type the array type code, e.g. 7 for double
+         */
+        void newArray(int type) {
+            // newarray
+            u1(0xBC);
+            u1(type);
+        }
+
+        /**
+         * Allocates local variable slots.
+         *
+         * @param size the number of slots
+         * @return the first slot
+         */
+        int allocate(int size) {
+            int slot = locals;
+            locals += size;
+            maxLocals = Math.max(maxLocals, locals);
+            return slot;
+        }
+
+        /**
+         * Releases all local variable slots allocated after the given one.
+         *
+         * @param slot the first slot to release
+         */
+        void release(int slot) {
+            locals = slot;
+        }
+
+        /**
+         * Writes a jump instruction.
+         *
+         * @param opcode the opcode
+         * @param label the target
+         * @param delta the change of the stack size
+         */
+        void jump(int opcode, Label label, int delta) {
+            stack(delta);
+            label.stack = stack;
+            label.jumps.add(length);
+            u1(opcode);
+            u2(0);
+        }
+
+        /**
+         * Writes a tableswitch instruction, jumping to the target of the int on the stack.
+         *
+         * @param labels the targets of the values from 0 to {@code labels.length - 1}
+         * @param otherwise the target of all other values
+         */
+        void tableswitch(Label[] labels, Label otherwise) {
+            stack(-1);
+            int opcode = length;
+            u1(0xAA);
+            // the operands are aligned to 4 bytes from the start of the code
+            while (length % 4 != 0) {
+                u1(0);
+            }
+            target(otherwise, opcode);
+            u4(0);
+            u4(labels.length - 1);
+            for (Label label : labels) {
+                target(label, opcode);
+            }
+        }
+
+        /**
+         * Writes the offset of a target of a switch instruction, patched when the target is marked.
+         *
+         * @param label the target
+         * @param opcode the position of the switch instruction
+         */
+        private void target(Label label, int opcode) {
+            label.stack = stack;
+            label.switches.add(new int[]{opcode, length});
+            u4(0);
+        }
+
+        /**
+         * Marks the position of a jump target.
+         *
+         * @param label the label
+         */
+        void mark(Label label) {
+            label.position = length;
+            stack = label.stack;
+            for (int jump : label.jumps) {
+                int offset = length - jump;
+                if (offset > Short.MAX_VALUE) {
+                    throw new TooLargeException("Jump too far");
+                }
+                bytes[jump + 1] = (byte) (offset >> 8);
+                bytes[jump + 2] = (byte) offset;
+            }
+            for (int[] target : label.switches) {
+                int offset = length - target[0];
+                for (int i = 0; i < 4; i++) {
+                    bytes[target[1] + i] = (byte) (offset >> (24 - 8 * i));
+                }
+            }
+        }
+
+        /**
+         * Finishes the method and adds it to the class.
+         */
+        void end() {
+            if (length > MAX_CODE_LENGTH || maxStack > 0xFFFF) {
+                throw new TooLargeException("Method too large");
+            }
+            try {
+                ByteArrayOutputStream method = new ByteArrayOutputStream(length + 32);
+                DataOutputStream out = new DataOutputStream(method);
+                // public
+                out.writeShort(0x0001);
+                out.writeShort(name);
+                out.writeShort(descriptor);
+                out.writeShort(1);
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(length);
+                out.write(bytes, 0, length);
+                // exception table
+                out.writeShort(0);
+                // attributes
+                out.writeShort(0);
+                methods.add(method.toByteArray());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Changes the stack size.
+         *
+         * @param delta the delta
+         */
+        private void stack(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        /**
+         * Writes one byte.
+         *
+         * @param value the value
+         */
+        private void u1(int value) {
+            if (length == bytes.length) {
+                bytes = java.util.Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        /**
+         * Writes two bytes.
+         *
+         * @param value the value
+         */
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        /**
+         * Writes four bytes.
+         *
+         * @param value the value
+         */
+        private void u4(int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+    }
+
+    /**
+     * Computes the change of the stack size caused by a method call, without the receiver.
+     *
+     * @param descriptor the method descriptor
+     * @return the delta
+     */
+    private static int size(String descriptor) {
+        int delta = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            delta -= c == 'D' || c == 'J' ? 2 : 1;
+            i = skip(descriptor, i);
+        }
+        char result = descriptor.charAt(i + 1);
+        if (result == 'D' || result == 'J') {
+            delta += 2;
+        } else if (result != 'V') {
+            delta += 1;
+        }
+        return delta;
+    }
+
+    /**
+     * Skips one type in a descriptor.
+     *
+     * @param descriptor the descriptor
+     * @param i the start of the type
+     * @return the start of the next type
+     */
+    private static int skip(String descriptor, int i) {
+        while (descriptor.charAt(i) == '[') {
+            i++;
+        }
+        if (descriptor.charAt(i) == 'L') {
+            i = descriptor.indexOf(';', i);
+        }
+        return i + 1;
+    }
+}
@@ -0,0 +1,30 @@
+package evaluation;
+
+/**
+ * An expression compiled by the {@link ExpressionCompiler} to a JVM class.
+ * <p>
+ * The functions, values and formulas are bound at compile time, so a compiled expression is evaluated without any
+ * arguments. Other values may be given per evaluation with an {@link EvaluationContext}. Compiled expressions keep no
+ * state of an evaluation and may be used by many threads at the same time.
+ *
+ * @author sedoe
+ */
+public interface CompiledExpression {
+
+    /**
+     * Evaluate the compiled expression.
+     *
+     * @param <T> the type of the result object
+     * @return the result
+     */
+    <T> T evaluate();
+
+    /**
+     * Evaluate the compiled expression with the values of the given context.
+     *
+     * @param <T> the type of the result object
+     * @param context the context of this evaluation
+     * @return the result
+     */
+    <T> T evaluate(EvaluationContext context);
+}
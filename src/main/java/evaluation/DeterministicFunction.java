@@ -0,0 +1,305 @@
+package evaluation;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Declares a function as deterministic: its result depends on the values of its params only and it has no side
+ * effects, e.g. a tax table or a curve interpolation.
+ * <p>
+ * Calls of a deterministic function whose params are all constant are folded: the {@link ExpressionPreparer} and the
+ * {@link ExpressionCompiler} call the function once and use the result as constant. All other calls are memoized in a
+ * bounded cache keyed by the values of the params. The cache is split into segments by the hash of the params, each
+ * evicting its least recently used results, so threads calling with different params rarely contend. Concurrent calls
+ * with the same new params may both call the function. The hits, misses and evictions of the cache are counted.
+ * <p>
+ * The params and results are compared with {@code equals}, ranges of variables element by element. A call which
+ * throws is not cached, nor folded: it throws when it is evaluated, which the argument of a lazy function may never
+ * be. The function is called with boxed params, also if it is e.g. an {@link IDoubleFunction}.
+ *
+ * @param <P> the type of the params
+ * @param <R> the type of the result
+ * @author sedoe
+ */
+public final class DeterministicFunction<P, R> implements IFunction<P, R> {
+    /**
+     * The default maximum number of cached results.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+    /**
+     * The maximum number of segments of the cache.
+     */
+    private static final int MAX_SEGMENTS = 16;
+    /**
+     * The cached value of the result {@code null}.
+     */
+    private static final Object NULL = new Object();
+
+    /**
+     * The Function.
+     */
+    private final IFunction<P, R> function;
+    /**
+     * The maximum number of cached results.
+     */
+    private final int cacheSize;
+    /**
+     * The segments of the cache, {@code null} if nothing is cached.
+     */
+    private final Segment[] segments;
+    /**
+     * The number of calls answered from the cache.
+     */
+    private final LongAdder hits = new LongAdder();
+    /**
+     * The number of calls of the function.
+     */
+    private final LongAdder misses = new LongAdder();
+    /**
+     * The number of evicted results.
+     */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Instantiates a new Deterministic function caching up to {@link #DEFAULT_CACHE_SIZE} results.
+     *
+     * @param function the function
+     */
+    public DeterministicFunction(IFunction<P, R> function) {
+        this(function, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Instantiates a new Deterministic function.
+     *
+     * @param function the function
+     * @param cacheSize the maximum number of cached results, 0 to fold constant calls only
+     */
+    public DeterministicFunction(IFunction<P, R> function, int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize must not be negative: " + cacheSize);
+        }
+        this.function = function;
+        this.cacheSize = cacheSize;
+        if (cacheSize == 0) {
+            segments = null;
+        } else {
+            // a power of two, each segment holding 8 results at least
+            int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, cacheSize / 8)));
+            segments = new Segment[count];
+            for (int i = 0; i < count; i++) {
+                // distribute the remainder, so the segments hold cacheSize results in total
+                segments[i] = new Segment(cacheSize / count + (i < cacheSize % count ? 1 : 0), evictions);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public R calculate(P... params) {
+        if (segments == null) {
+            misses.increment();
+            return function.calculate(params);
+        }
+        Key key = new Key(params);
+        Segment segment = segments[(key.hash ^ (key.hash >>> 16)) & (segments.length - 1)];
+        Object value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value != null) {
+            hits.increment();
+            return value == NULL ? null : (R) value;
+        }
+
+        misses.increment();
+        R result = function.calculate(params);
+        // the caller may reuse the array of the params
+        Key copy = new Key(params.clone(), key.hash);
+        synchronized (segment) {
+            segment.put(copy, result == null ? NULL : result);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the function.
+     *
+     * @return function value
+     */
+    public IFunction<P, R> getFunction() {
+        return function;
+    }
+
+    /**
+     * Gets the maximum number of cached results.
+     *
+     * @return cache size value
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Gets the number of cached results.
+     *
+     * @return size value
+     */
+    public int size() {
+        int size = 0;
+        if (segments != null) {
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    size += segment.size();
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Gets the number of calls answered from the cache.
+     *
+     * @return hits value
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of calls of the function, including the folded ones.
+     *
+     * @return misses value
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of results evicted from the cache.
+     *
+     * @return evictions value
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the share of the calls answered from the cache.
+     *
+     * @return hit rate value, 0 if there was no call
+     */
+    public double getHitRate() {
+        long hits = this.hits.sum();
+        long calls = hits + misses.sum();
+        return calls == 0 ? 0 : (double) hits / calls;
+    }
+
+    /**
+     * Removes all cached results and resets the statistics.
+     */
+    public void clear() {
+        if (segments != null) {
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    segment.clear();
+                }
+            }
+        }
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "DeterministicFunction " + size() + "/" + cacheSize + " results, hit rate "
+                + Math.round(100 * getHitRate()) + "%, " + getEvictions() + " evictions";
+    }
+
+    /**
+     * The values of the params of a call.
+     */
+    private static final class Key {
+        /**
+         * The Values.
+         */
+        private final Object[] values;
+        /**
+         * The Hash.
+         */
+        private final int hash;
+
+        /**
+         * Instantiates a new Key.
+         *
+         * @param values the values
+         */
+        Key(Object[] values) {
+            this(values, Arrays.deepHashCode(values));
+        }
+
+        /**
+         * Instantiates a new Key.
+         *
+         * @param values the values
+         * @param hash the hash of the values
+         */
+        Key(Object[] values, int hash) {
+            this.values = values;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && hash == ((Key) o).hash && Arrays.deepEquals(values, ((Key) o).values);
+        }
+    }
+
+    /**
+     * A segment of the cache, evicting its least recently used result when it is full. Guarded by itself.
+     */
+    private static final class Segment extends LinkedHashMap<Key, Object> {
+        /**
+         * The constant serialVersionUID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The maximum number of results.
+         */
+        private final int capacity;
+        /**
+         * The number of evicted results of all segments.
+         */
+        private final LongAdder evictions;
+
+        /**
+         * Instantiates a new Segment.
+         *
+         * @param capacity the maximum number of results
+         * @param evictions the number of evicted results of all segments
+         */
+        Segment(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
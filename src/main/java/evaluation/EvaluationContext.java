@@ -0,0 +1,338 @@
+package evaluation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The state of one evaluation: the values of the variables, the results of the formulas and the trace of the pass.
+ * <p>
+ * Evaluators, prepared and compiled expressions keep no per-evaluation state, so one instance may be used by many
+ * threads at the same time, each with its own context. A context is not thread safe, but it may be reused for
+ * consecutive evaluations.
+ * <p>
+ * The values of the variables are held either in a map or, for a context created for {@link VariableSlots}, in arrays
+ * indexed by slot. A slot context is reused by overwriting the slots; ranges of variables are still looked up in its
+ * map.
+ *
+ * @author sedoe
+ */
+public final class EvaluationContext {
+    /**
+     * The Values.
+     */
+    private final Map<String, Object> values;
+    /**
+     * The Slots or {@code null} if the variables are held in the map.
+     */
+    private final VariableSlots slots;
+    /**
+     * The object values by slot.
+     */
+    private Object[] objects;
+    /**
+     * The double values by slot.
+     */
+    private double[] doubles;
+    /**
+     * Whether the value of a slot is held in {@link #doubles}.
+     */
+    private boolean[] numeric;
+
+    /**
+     * The nesting depth of the running evaluator calls; the pass ends when it drops to 0.
+     */
+    int depth;
+    /**
+     * The results of the formulas evaluated in the current pass by name, {@code null} before the first one.
+     */
+    Map<String, Object> formulaResults;
+    /**
+     * The prepared or compiled expression whose formula results are held in {@link #formulaValues} in the current
+     * pass, {@code null} if none.
+     */
+    Object formulaOwner;
+    /**
+     * The results of the formulas of prepared and compiled expressions by formula index.
+     */
+    Object[] formulaValues;
+    /**
+     * The pass in which the result of a formula was computed, by formula index.
+     */
+    int[] formulaPasses;
+    /**
+     * The number of the current pass of the formula results, starting at 1.
+     */
+    int formulaPass;
+    /**
+     * The number of nodes evaluated in the current pass.
+     */
+    int nodes;
+    /**
+     * The listener tracing the current pass or {@code null} if it is not traced.
+     */
+    TraceListener trace;
+    /**
+     * The nesting depth of the currently traced node.
+     */
+    int traceDepth;
+    /**
+     * The buffer of the traced nodes, reused by the passes traced with a latency threshold.
+     */
+    TraceSampler.Buffer traceBuffer;
+
+    /**
+     * Instantiates a new Evaluation context.
+     *
+     * @param values the values
+     */
+    public EvaluationContext(Map<String, Object> values) {
+        this.values = values;
+        this.slots = null;
+    }
+
+    /**
+     * Instantiates a new Evaluation context holding the variables in slots.
+     *
+     * @param slots the slots
+     */
+    public EvaluationContext(VariableSlots slots) {
+        this(slots, Collections.emptyMap());
+    }
+
+    /**
+     * Instantiates a new Evaluation context holding the variables in slots.
+     *
+     * @param slots the slots
+     * @param values the values used for ranges of variables
+     */
+    public EvaluationContext(VariableSlots slots, Map<String, Object> values) {
+        this.values = values;
+        this.slots = slots;
+        this.objects = new Object[slots.size()];
+        this.doubles = new double[slots.size()];
+        this.numeric = new boolean[slots.size()];
+    }
+
+    /**
+     * Gets the values.
+     *
+     * @return values value
+     */
+    public Map<String, Object> getValues() {
+        return values;
+    }
+
+    /**
+     * Gets the slots.
+     *
+     * @return slots value or {@code null} if the variables are held in the map
+     */
+    public VariableSlots getSlots() {
+        return slots;
+    }
+
+    /**
+     * Sets the value of a slot.
+     *
+     * @param slot the slot
+     * @param value the value
+     */
+    public void set(int slot, Object value) {
+        ensureCapacity(slot);
+        objects[slot] = value;
+        numeric[slot] = false;
+    }
+
+    /**
+     * Sets the value of a slot without boxing.
+     *
+     * @param slot the slot
+     * @param value the value
+     */
+    public void setDouble(int slot, double value) {
+        ensureCapacity(slot);
+        doubles[slot] = value;
+        objects[slot] = null;
+        numeric[slot] = true;
+    }
+
+    /**
+     * Sets the value of a variable, in its slot or in the map.
+     *
+     * @param name the name
+     * @param value the value
+     */
+    public void set(String name, Object value) {
+        if (slots == null) {
+            values.put(name, value);
+        } else {
+            int slot = slots.slot(name);
+            if (slot >= 0) {
+                set(slot, value);
+            }
+        }
+    }
+
+    /**
+     * Gets the value of a variable.
+     *
+     * @param name the name
+     * @return the value
+     */
+    public Object get(String name) {
+        if (slots == null) {
+            return values.get(name);
+        }
+        int slot = slots.slot(name);
+        return slot < 0 ? null : get(slot, name);
+    }
+
+    /**
+     * Sets all slots to {@code null}.
+     */
+    public void clear() {
+        if (slots != null) {
+            Arrays.fill(objects, null);
+            Arrays.fill(numeric, false);
+        }
+    }
+
+    /**
+     * Gets the value of a variable from its slot or, if this context has no slots, from the map.
+     *
+     * @param slot the slot
+     * @param name the name
+     * @return the value
+     */
+    Object get(int slot, String name) {
+        if (slots == null) {
+            return values.get(name);
+        } else if (slot >= objects.length) {
+            return null;
+        }
+        return numeric[slot] ? (Object) doubles[slot] : objects[slot];
+    }
+
+    /**
+     * Gets the value of a variable as primitive double from its slot or, if this context has no slots, from the map.
+     *
+     * @param slot the slot
+     * @param name the name
+     * @return the value or {@link Double#NaN} if it is no number
+     */
+    double getDouble(int slot, String name) {
+        Object value;
+        if (slots == null) {
+            value = values.get(name);
+        } else if (slot >= objects.length) {
+            return Double.NaN;
+        } else if (numeric[slot]) {
+            return doubles[slot];
+        } else {
+            value = objects[slot];
+        }
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    /**
+     * Grows the slot arrays, if further names were bound after this context was created.
+     *
+     * @param slot the slot
+     */
+    private void ensureCapacity(int slot) {
+        if (slots == null) {
+            throw new IllegalStateException("The context has no slots");
+        }
+        if (slot >= objects.length) {
+            int size = Math.max(slot + 1, slots.size());
+            objects = Arrays.copyOf(objects, size);
+            doubles = Arrays.copyOf(doubles, size);
+            numeric = Arrays.copyOf(numeric, size);
+        }
+    }
+
+    /**
+     * Starts an evaluator call.
+     *
+     * @return {@code true} if it is the outermost call, which starts a pass
+     */
+    boolean enter() {
+        if (depth++ == 0) {
+            nodes = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Starts the evaluation of a prepared or compiled expression referencing formulas. The outermost call starts a
+     * pass, in which the results of the formulas are held by index.
+     *
+     * @param owner the expression numbering the formulas
+     * @param formulas the number of formulas
+     */
+    void enter(Object owner, int formulas) {
+        if (depth++ == 0) {
+            nodes = 0;
+            beginFormulaPass(owner, formulas);
+        }
+    }
+
+    /**
+     * Starts a new pass of formula results, forgetting the results of the previous one.
+     *
+     * @param owner the expression numbering the formulas
+     * @param formulas the number of formulas
+     */
+    void beginFormulaPass(Object owner, int formulas) {
+        formulaOwner = owner;
+        if (formulaPasses == null || formulaPasses.length < formulas) {
+            formulaValues = new Object[formulas];
+            formulaPasses = new int[formulas];
+            formulaPass = 0;
+        }
+        if (++formulaPass == Integer.MAX_VALUE) {
+            Arrays.fill(formulaPasses, 0);
+            formulaPass = 1;
+        }
+    }
+
+    /**
+     * Checks whether the result of a formula was computed in the current pass.
+     *
+     * @param owner the expression numbering the formulas
+     * @param index the index of the formula
+     * @return {@code true} if so
+     */
+    boolean hasFormula(Object owner, int index) {
+        return formulaOwner == owner && formulaPasses[index] == formulaPass;
+    }
+
+    /**
+     * Stores the result of a formula for the current pass, if the formulas of the owner are held.
+     *
+     * @param owner the expression numbering the formulas
+     * @param index the index of the formula
+     * @param value the result
+     */
+    void setFormula(Object owner, int index, Object value) {
+        if (formulaOwner == owner) {
+            formulaValues[index] = value;
+            formulaPasses[index] = formulaPass;
+        }
+    }
+
+    /**
+     * Ends an evaluator call and forgets the results of the formulas, if it was the outermost call of the pass.
+     */
+    void leave() {
+        if (--depth == 0) {
+            if (formulaResults != null) {
+                formulaResults.clear();
+            }
+            // the indexed results are not cleared but outdated by the next pass
+            formulaOwner = null;
+        }
+    }
+}
@@ -0,0 +1,482 @@
+package evaluation;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Thread safe metrics of the evaluations of an {@link Evaluator}, cheap enough to stay enabled under load.
+ * <p>
+ * The metrics count the evaluations with their latency and number of evaluated nodes, the evaluations of every
+ * referenced formula with their latency, including the formulas referenced by it, the calls of every function with
+ * their latency and the references to formulas answered from the results of the current pass. The counters are
+ * {@link LongAdder}s, which do not contend between threads. Latencies are recorded in histograms with power of two
+ * buckets, each held in one {@link AtomicLongArray}, so the metrics stay small with many formulas and functions. The
+ * metrics are read with {@link #snapshot()} or via JMX after {@link #register(String)}.
+ * <p>
+ * Enable the metrics with {@link Evaluator#setMetrics(EvaluationMetrics)}; one instance may be shared by evaluators.
+ *
+ * @author sedoe
+ */
+public class EvaluationMetrics implements EvaluationMetricsMXBean {
+    /**
+     * The latencies of the evaluations.
+     */
+    private final Histogram evaluations = new Histogram();
+    /**
+     * The number of evaluated nodes.
+     */
+    private final LongAdder nodes = new LongAdder();
+    /**
+     * The number of formula references answered from the results of the current pass.
+     */
+    private final LongAdder formulaHits = new LongAdder();
+    /**
+     * The number of formula evaluations.
+     */
+    private final LongAdder formulaMisses = new LongAdder();
+    /**
+     * The latencies of the formulas by name.
+     */
+    private final ConcurrentHashMap<String, Histogram> formulas = new ConcurrentHashMap<>();
+    /**
+     * The latencies of the functions by name.
+     */
+    private final ConcurrentHashMap<String, Histogram> functions = new ConcurrentHashMap<>();
+
+    /**
+     * Records an evaluation.
+     *
+     * @param nanos the latency
+     * @param nodeCount the number of evaluated nodes
+     */
+    void evaluation(long nanos, int nodeCount) {
+        evaluations.record(nanos);
+        nodes.add(nodeCount);
+    }
+
+    /**
+     * Records the evaluation of a formula.
+     *
+     * @param name the name of the formula
+     * @param nanos the latency
+     */
+    void formula(String name, long nanos) {
+        histogram(formulas, name).record(nanos);
+        formulaMisses.increment();
+    }
+
+    /**
+     * Records a formula reference answered from the results of the current pass.
+     */
+    void formulaHit() {
+        formulaHits.increment();
+    }
+
+    /**
+     * Records the call of a function.
+     *
+     * @param name the name of the function
+     * @param nanos the latency
+     */
+    void function(String name, long nanos) {
+        histogram(functions, name).record(nanos);
+    }
+
+    /**
+     * Takes a snapshot of the metrics. Counters updated concurrently may or may not be included.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(evaluations.statistics(), nodes.sum(), formulaHits.sum(), formulaMisses.sum(),
+                statistics(formulas), statistics(functions));
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     *
+     * @param name the object name, e.g. {@code formula:type=EvaluationMetrics}
+     * @return the object name
+     * @throws JMException if the name is invalid or already registered
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public void reset() {
+        evaluations.reset();
+        nodes.reset();
+        formulaHits.reset();
+        formulaMisses.reset();
+        formulas.clear();
+        functions.clear();
+    }
+
+    @Override
+    public long getEvaluationCount() {
+        return evaluations.count();
+    }
+
+    @Override
+    public double getMeanEvaluationNanos() {
+        return evaluations.statistics().getMeanNanos();
+    }
+
+    @Override
+    public long getEvaluationNanos99thPercentile() {
+        return evaluations.statistics().getPercentileNanos(0.99);
+    }
+
+    @Override
+    public double getMeanNodeCount() {
+        long count = evaluations.count();
+        return count == 0 ? 0 : (double) nodes.sum() / count;
+    }
+
+    @Override
+    public double getFormulaCacheHitRate() {
+        long hits = formulaHits.sum();
+        long references = hits + formulaMisses.sum();
+        return references == 0 ? 0 : (double) hits / references;
+    }
+
+    @Override
+    public Map<String, Long> getFormulaInvocations() {
+        return counts(formulas);
+    }
+
+    @Override
+    public Map<String, Long> getFunctionInvocations() {
+        return counts(functions);
+    }
+
+    /**
+     * Gets the histogram of a name, creating it if missing.
+     *
+     * @param histograms the histograms by name
+     * @param name the name
+     * @return the histogram
+     */
+    private static Histogram histogram(ConcurrentHashMap<String, Histogram> histograms, String name) {
+        Histogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Gets the statistics of histograms.
+     *
+     * @param histograms the histograms by name
+     * @return the statistics sorted by name
+     */
+    private static Map<String, Statistics> statistics(Map<String, Histogram> histograms) {
+        Map<String, Statistics> statistics = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            statistics.put(entry.getKey(), entry.getValue().statistics());
+        }
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    /**
+     * Gets the counts of histograms.
+     *
+     * @param histograms the histograms by name
+     * @return the counts sorted by name
+     */
+    private static Map<String, Long> counts(Map<String, Histogram> histograms) {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().count());
+        }
+        return counts;
+    }
+
+    /**
+     * A latency histogram with power of two buckets: bucket {@code i > 0} counts the latencies from
+     * {@code 2^(i-1)} to {@code 2^i - 1} nanoseconds.
+     */
+    private static final class Histogram {
+        /**
+         * The number of buckets.
+         */
+        private static final int BUCKETS = 64;
+        /**
+         * The index of the sum of the latencies in the values.
+         */
+        private static final int TOTAL_NANOS = BUCKETS;
+
+        /**
+         * The counts of the buckets followed by the sum of the latencies.
+         */
+        private final AtomicLongArray values = new AtomicLongArray(BUCKETS + 1);
+
+        /**
+         * Records a latency.
+         *
+         * @param nanos the latency
+         */
+        void record(long nanos) {
+            long value = Math.max(nanos, 0);
+            values.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1));
+            values.addAndGet(TOTAL_NANOS, value);
+        }
+
+        /**
+         * Gets the number of recorded latencies.
+         *
+         * @return the count
+         */
+        long count() {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += values.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * Resets the histogram.
+         */
+        void reset() {
+            for (int i = 0; i < values.length(); i++) {
+                values.set(i, 0);
+            }
+        }
+
+        /**
+         * Gets the statistics.
+         *
+         * @return the statistics
+         */
+        Statistics statistics() {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = values.get(i);
+                total += counts[i];
+            }
+            return new Statistics(total, values.get(TOTAL_NANOS), counts);
+        }
+    }
+
+    /**
+     * The statistics of a latency histogram.
+     */
+    public static final class Statistics {
+        /**
+         * The Count.
+         */
+        private final long count;
+        /**
+         * The sum of the latencies.
+         */
+        private final long totalNanos;
+        /**
+         * The counts of the power of two buckets.
+         */
+        private final long[] buckets;
+
+        /**
+         * Instantiates new Statistics.
+         *
+         * @param count the count
+         * @param totalNanos the sum of the latencies
+         * @param buckets the counts of the power of two buckets
+         */
+        Statistics(long count, long totalNanos, long[] buckets) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.buckets = buckets;
+        }
+
+        /**
+         * Gets the count.
+         *
+         * @return count value
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Gets the sum of the latencies.
+         *
+         * @return total nanos value
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * Gets the mean latency.
+         *
+         * @return mean nanos value, 0 if nothing was recorded
+         */
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * Gets an upper bound of the latency of a share of the recordings, precise to a power of two.
+         *
+         * @param percentile the share, e.g. 0.99
+         * @return the latency, 0 if nothing was recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : i == buckets.length - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return count + " x " + Math.round(getMeanNanos()) + " ns (p99 < " + getPercentileNanos(0.99) + " ns)";
+        }
+    }
+
+    /**
+     * A snapshot of the metrics.
+     */
+    public static final class Snapshot {
+        /**
+         * The statistics of the evaluations.
+         */
+        private final Statistics evaluations;
+        /**
+         * The number of evaluated nodes.
+         */
+        private final long nodes;
+        /**
+         * The number of formula references answered from the results of the current pass.
+         */
+        private final long formulaHits;
+        /**
+         * The number of formula evaluations.
+         */
+        private final long formulaMisses;
+        /**
+         * The statistics of the formulas by name.
+         */
+        private final Map<String, Statistics> formulas;
+        /**
+         * The statistics of the functions by name.
+         */
+        private final Map<String, Statistics> functions;
+
+        /**
+         * Instantiates a new Snapshot.
+         *
+         * @param evaluations the statistics of the evaluations
+         * @param nodes the number of evaluated nodes
+         * @param formulaHits the number of formula references answered from the results of the current pass
+         * @param formulaMisses the number of formula evaluations
+         * @param formulas the statistics of the formulas by name
+         * @param functions the statistics of the functions by name
+         */
+        Snapshot(Statistics evaluations, long nodes, long formulaHits, long formulaMisses,
+                Map<String, Statistics> formulas, Map<String, Statistics> functions) {
+            this.evaluations = evaluations;
+            this.nodes = nodes;
+            this.formulaHits = formulaHits;
+            this.formulaMisses = formulaMisses;
+            this.formulas = formulas;
+            this.functions = functions;
+        }
+
+        /**
+         * Gets the statistics of the evaluations.
+         *
+         * @return evaluations value
+         */
+        public Statistics getEvaluations() {
+            return evaluations;
+        }
+
+        /**
+         * Gets the number of evaluated nodes.
+         *
+         * @return node count value
+         */
+        public long getNodeCount() {
+            return nodes;
+        }
+
+        /**
+         * Gets the mean number of evaluated nodes per evaluation.
+         *
+         * @return mean node count value, 0 if nothing was evaluated
+         */
+        public double getMeanNodeCount() {
+            return evaluations.getCount() == 0 ? 0 : (double) nodes / evaluations.getCount();
+        }
+
+        /**
+         * Gets the number of formula references answered from the results of the current pass.
+         *
+         * @return formula cache hits value
+         */
+        public long getFormulaCacheHits() {
+            return formulaHits;
+        }
+
+        /**
+         * Gets the number of formula references which evaluated the formula.
+         *
+         * @return formula cache misses value
+         */
+        public long getFormulaCacheMisses() {
+            return formulaMisses;
+        }
+
+        /**
+         * Gets the share of formula references answered from the results of the current pass.
+         *
+         * @return formula cache hit rate value, 0 if no formula was referenced
+         */
+        public double getFormulaCacheHitRate() {
+            long references = formulaHits + formulaMisses;
+            return references == 0 ? 0 : (double) formulaHits / references;
+        }
+
+        /**
+         * Gets the statistics of the formulas by name.
+         *
+         * @return formulas value, not modifiable
+         */
+        public Map<String, Statistics> getFormulas() {
+            return formulas;
+        }
+
+        /**
+         * Gets the statistics of the functions by name.
+         *
+         * @return functions value, not modifiable
+         */
+        public Map<String, Statistics> getFunctions() {
+            return functions;
+        }
+
+        @Override
+        public String toString() {
+            return "evaluations " + evaluations + ", " + Math.round(getMeanNodeCount()) + " nodes, formula hit rate "
+                    + Math.round(100 * getFormulaCacheHitRate()) + "%, formulas " + formulas + ", functions "
+                    + functions;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package evaluation;
+
+import java.util.Map;
+
+/**
+ * The management interface of the {@link EvaluationMetrics}, registered with
+ * {@link EvaluationMetrics#register(String)}.
+ *
+ * @author sedoe
+ */
+public interface EvaluationMetricsMXBean {
+
+    /**
+     * Gets the number of evaluations.
+     *
+     * @return evaluation count value
+     */
+    long getEvaluationCount();
+
+    /**
+     * Gets the mean latency of an evaluation.
+     *
+     * @return mean evaluation nanos value
+     */
+    double getMeanEvaluationNanos();
+
+    /**
+     * Gets the upper bound of the latency of 99 percent of the evaluations.
+     *
+     * @return evaluation nanos 99th percentile value
+     */
+    long getEvaluationNanos99thPercentile();
+
+    /**
+     * Gets the mean number of evaluated nodes per evaluation.
+     *
+     * @return mean node count value
+     */
+    double getMeanNodeCount();
+
+    /**
+     * Gets the share of formula references answered from the results of the current pass.
+     *
+     * @return formula cache hit rate value, 0 if no formula was referenced
+     */
+    double getFormulaCacheHitRate();
+
+    /**
+     * Gets the number of evaluations by formula name.
+     *
+     * @return formula invocations value
+     */
+    Map<String, Long> getFormulaInvocations();
+
+    /**
+     * Gets the number of calls by function name.
+     *
+     * @return function invocations value
+     */
+    Map<String, Long> getFunctionInvocations();
+
+    /**
+     * Resets all metrics.
+     */
+    void reset();
+}
@@ -1,10 +1,14 @@
 package evaluation;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import parser.BoolExpression;
 import parser.BracketExpression;
@@ -19,45 +23,59 @@ import parser.VariableExpression;
 
 /**
  * The type Evaluator.
+ * <p>
+ * The functions, values and formulas are bound at construction. The evaluator keeps no state of an evaluation, which
+ * lives in an {@link EvaluationContext} instead, so one evaluator may be used by many threads at the same time.
+ * <p>
+ * Ranges of variables ({@code r1:r4}) are resolved with a lookup of the range only, if the values are a
+ * {@link NavigableMap} in natural order like a {@link TreeMap}, and with a scan of all values otherwise.
+ * <p>
+ * Every referenced formula is evaluated at most once per pass, i.e. per outermost call of an evaluate method; further
+ * references read its result from the context. Before a formula is evaluated the first time, the formulas reachable
+ * from it are checked for cyclic references.
+ * <p>
+ * With {@link #setMetrics(EvaluationMetrics) metrics} set, the evaluations, formulas and function calls are counted
+ * and timed; without metrics only the evaluated nodes are counted in the context.
  *
  * @author sedoe
  */
 public class Evaluator {
+    /**
+     * The marker of a formula whose evaluation is in progress in the current pass.
+     */
+    private static final Object EVALUATING = new Object();
+
     /**
      * The Functions.
      */
-    private Map<String, IFunction<? extends Object, ? extends Object>> functions;
+    private final Map<String, IFunction<? extends Object, ? extends Object>> functions;
     /**
      * The Values.
      */
-    private Map<String, Object> values;
+    private final Map<String, Object> values;
     /**
      * The Expressions.
      */
-    private Map<String, Expression> expressions;
-
-    /**
-     * The Show evaluation debug info.
-     */
-    private boolean showEvaluationDebugInfo = false;
+    private final Map<String, Expression> expressions;
 
     /**
-     * The Padding.
+     * The sampler of the traced evaluations or {@code null} if tracing is disabled.
      */
-    private int padding = 0;
+    private volatile TraceSampler traceSampler;
     /**
-     * The Lines.
+     * The names of the formulas checked for cyclic references.
      */
-    private List<String> lines = new ArrayList<>();
+    private final Set<String> acyclicFormulas = ConcurrentHashMap.newKeySet();
     /**
-     * The Last.
+     * The Metrics or {@code null} if disabled.
      */
-    private boolean last;
+    private volatile EvaluationMetrics metrics;
 
     /**
      * Instantiates a new Evaluator.
      */
     public Evaluator() {
+        this(null, null, null);
     }
 
     /**
@@ -66,7 +84,7 @@ public class Evaluator {
      * @param functions the functions
      */
     public Evaluator(Map<String, IFunction<? extends Object, ? extends Object>> functions) {
-        this.functions = functions;
+        this(functions, null, null);
     }
 
     /**
@@ -77,8 +95,7 @@ public class Evaluator {
      */
     public Evaluator(Map<String, IFunction<? extends Object, ? extends Object>> functions,
             Map<String, Object> values) {
-        this.functions = functions;
-        this.values = values;
+        this(functions, values, null);
     }
 
     /**
@@ -104,64 +121,356 @@ public class Evaluator {
      * @return the result
      */
     public <T> T evaluate(Expression e) {
+        return evaluate(e, new EvaluationContext(values));
+    }
+
+    /**
+     * Evaluate object with the values of the given context instead of the ones of this evaluator.
+     *
+     * @param <T> the type of the result object
+     * @param e the expression to evaluate
+     * @param context the context of this evaluation
+     * @return the result
+     */
+    public <T> T evaluate(Expression e, EvaluationContext context) {
         Object result = null;
-        String x = null;
-
-        if (showEvaluationDebugInfo) {
-            char[] chars = new char[padding * 3];
-            for (int i = 0; i < padding - 1; i++) {
-                chars[i * 3] = '\u2502';
-                chars[i * 3 + 1] = ' ';
-                chars[i * 3 + 2] = ' ';
-            }
-            if ((padding - 1) >= 0) {
-                chars[(padding - 1) * 3] = '\u2514';
-                chars[(padding - 1) * 3 + 1] = '\u2500';
-                chars[(padding - 1) * 3 + 2] = ' ';
-            }
-            x = new String(chars);
+        boolean outermost = context.enter();
+        EvaluationMetrics metrics = outermost ? this.metrics : null;
+        if (outermost) {
+            beginTrace(context);
         }
-
+        long start = metrics == null ? 0 : System.nanoTime();
+        TraceListener trace = context.trace;
+        long traceStart = 0;
+        if (trace != null) {
+            trace.enter(e, context.traceDepth++);
+            traceStart = System.nanoTime();
+        }
+        context.nodes++;
         try {
-            padding++;
-
             if (e instanceof MathExpression) {
-                result = evaluate((MathExpression) e);
+                result = evaluate((MathExpression) e, context);
             } else if (e instanceof NumberExpression) {
                 result = ((NumberExpression) e).getValue();
             } else if (e instanceof VariableExpression) {
-                result = evaluate((VariableExpression) e);
+                result = evaluate((VariableExpression) e, context);
             } else if (e instanceof BracketExpression) {
-                result = evaluate(((BracketExpression) e).getExpression());
+                result = evaluate(((BracketExpression) e).getExpression(), context);
             } else if (e instanceof TextExpression) {
                 result = ((TextExpression) e).getText();
             } else if (e instanceof MinusExpression) {
-                result = -1 * (Double) evaluate(((MinusExpression) e).getExpression());
+                result = -1 * (Double) evaluate(((MinusExpression) e).getExpression(), context);
             } else if (e instanceof FunctionExpression) {
-                result = evaluate((FunctionExpression) e);
+                result = evaluate((FunctionExpression) e, context);
             } else if (e instanceof FormulaExpression) {
-                result = evaluate(expressions.get(((FormulaExpression) e).getName()));
+                result = formula(((FormulaExpression) e).getName(), context);
             } else if (e instanceof BoolExpression) {
-                result = evaluate((BoolExpression) e);
+                result = evaluate((BoolExpression) e, context);
             }
             return (T) result;
 
         } finally {
+            context.leave();
+            if (trace != null) {
+                trace.exit(e, --context.traceDepth, result, System.nanoTime() - traceStart);
+            }
+            if (outermost) {
+                endPass(context, metrics, start);
+            }
+        }
+    }
+
+    /**
+     * Evaluate an expression to a primitive double.
+     * <p>
+     * Math, minus, bracket and formula expressions and calls of {@link IDoubleFunction primitive double functions} are
+     * evaluated without boxing, all other expressions with {@link #evaluate(Expression)}. Only the latter are traced.
+     *
+     * @param e the expression to evaluate
+     * @return the result or {@link Double#NaN} if the result is no number
+     */
+    public double evaluateDouble(Expression e) {
+        return evaluateDouble(e, new EvaluationContext(values));
+    }
+
+    /**
+     * Evaluate an expression to a primitive double with the values of the given context.
+     *
+     * @param e the expression to evaluate
+     * @param context the context of this evaluation
+     * @return the result or {@link Double#NaN} if the result is no number
+     * @see #evaluateDouble(Expression)
+     */
+    public double evaluateDouble(Expression e, EvaluationContext context) {
+        boolean outermost = context.enter();
+        EvaluationMetrics metrics = outermost ? this.metrics : null;
+        if (outermost) {
+            beginTrace(context);
+        }
+        long start = metrics == null ? 0 : System.nanoTime();
+        try {
+            return doubleValue(e, context);
+        } finally {
+            context.leave();
+            if (outermost) {
+                endPass(context, metrics, start);
+            }
+        }
+    }
+
+    /**
+     * Starts the trace of a pass, if it is sampled.
+     *
+     * @param context the context of this evaluation
+     */
+    private void beginTrace(EvaluationContext context) {
+        TraceSampler sampler = traceSampler;
+        context.trace = sampler == null ? null : sampler.begin(context);
+        context.traceDepth = 0;
+    }
 
-            if (showEvaluationDebugInfo) {
-                padding--;
-                last = false;
+    /**
+     * Ends a pass: records its metrics and ends its trace.
+     *
+     * @param context the context of this evaluation
+     * @param metrics the metrics or {@code null} if disabled
+     * @param start the start time of the pass
+     */
+    private static void endPass(EvaluationContext context, EvaluationMetrics metrics, long start) {
+        if (metrics != null) {
+            metrics.evaluation(System.nanoTime() - start, context.nodes);
+        }
+        if (context.trace != null) {
+            TraceSampler.end(context.trace);
+            context.trace = null;
+        }
+    }
+
+    /**
+     * Evaluate an expression to a primitive double within a pass.
+     *
+     * @param e the expression to evaluate
+     * @param context the context of this evaluation
+     * @return the result or {@link Double#NaN} if the result is no number
+     */
+    private double doubleValue(Expression e, EvaluationContext context) {
+        if (e instanceof MathExpression) {
+            context.nodes++;
+            MathExpression m = (MathExpression) e;
+            if (!(m.getLeft() instanceof MathExpression)) {
+                return calculate(m.getOperator(), doubleValue(m.getLeft(), context), doubleValue(m.getRight(), context));
+            }
 
-                lines.add(x + e.getClass().getSimpleName() + ": " + e + " --> " + result);
+            // evaluate left-recursive chains like a1+a2+...+an without recursion
+            List<MathExpression> chain = chain(m);
+            context.nodes += chain.size() - 1;
+            double result = doubleValue(chain.get(chain.size() - 1).getLeft(), context);
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                MathExpression link = chain.get(i);
+                result = calculate(link.getOperator(), result, doubleValue(link.getRight(), context));
+            }
+            return result;
+        } else if (e instanceof NumberExpression) {
+            context.nodes++;
+            Double value = ((NumberExpression) e).getValue();
+            return value == null ? Double.NaN : value;
+        } else if (e instanceof MinusExpression) {
+            context.nodes++;
+            return -doubleValue(((MinusExpression) e).getExpression(), context);
+        } else if (e instanceof BracketExpression) {
+            context.nodes++;
+            return doubleValue(((BracketExpression) e).getExpression(), context);
+        } else if (e instanceof FormulaExpression) {
+            context.nodes++;
+            Object result = formula(((FormulaExpression) e).getName(), context);
+            return result instanceof Number ? ((Number) result).doubleValue() : Double.NaN;
+        } else if (e instanceof FunctionExpression) {
+            FunctionExpression f = (FunctionExpression) e;
+            IFunction<?, ?> function = functions.get(f.getName());
+            if (PrimitiveFunctions.isDouble(function, f.getParams().size())) {
+                context.nodes++;
+                return calculateDouble(function, f, context);
+            }
+        }
 
-                if (padding == 0) {
-                    Collections.reverse(lines);
-                    for (String line : lines) {
-                        System.out.println(line);
-                    }
-                }
+        Object result = evaluate(e, context);
+        return result instanceof Number ? ((Number) result).doubleValue() : Double.NaN;
+    }
+
+    /**
+     * Evaluate an expression to a primitive boolean.
+     * <p>
+     * Comparisons of math, number and minus expressions are evaluated without boxing, all other expressions with
+     * {@link #evaluate(Expression)}.
+     *
+     * @param e the expression to evaluate
+     * @return {@code true} if the result is {@link Boolean#TRUE}
+     */
+    public boolean evaluateBoolean(Expression e) {
+        return evaluateBoolean(e, new EvaluationContext(values));
+    }
+
+    /**
+     * Evaluate an expression to a primitive boolean with the values of the given context.
+     *
+     * @param e the expression to evaluate
+     * @param context the context of this evaluation
+     * @return {@code true} if the result is {@link Boolean#TRUE}
+     * @see #evaluateBoolean(Expression)
+     */
+    public boolean evaluateBoolean(Expression e, EvaluationContext context) {
+        boolean outermost = context.enter();
+        EvaluationMetrics metrics = outermost ? this.metrics : null;
+        if (outermost) {
+            beginTrace(context);
+        }
+        long start = metrics == null ? 0 : System.nanoTime();
+        try {
+            return booleanValue(e, context);
+        } finally {
+            context.leave();
+            if (outermost) {
+                endPass(context, metrics, start);
+            }
+        }
+    }
+
+    /**
+     * Evaluate an expression to a primitive boolean within a pass.
+     *
+     * @param e the expression to evaluate
+     * @param context the context of this evaluation
+     * @return {@code true} if the result is {@link Boolean#TRUE}
+     */
+    private boolean booleanValue(Expression e, EvaluationContext context) {
+        if (e instanceof BoolExpression) {
+            BoolExpression b = (BoolExpression) e;
+            if (isNumeric(b.getLeft()) && isNumeric(b.getRight())) {
+                context.nodes++;
+                return test(b.getOperator(),
+                        Double.compare(doubleValue(b.getLeft(), context), doubleValue(b.getRight(), context)));
+            }
+        } else if (e instanceof BracketExpression) {
+            context.nodes++;
+            return booleanValue(((BracketExpression) e).getExpression(), context);
+        } else if (e instanceof FormulaExpression) {
+            context.nodes++;
+            return Boolean.TRUE.equals(formula(((FormulaExpression) e).getName(), context));
+        } else if (e instanceof FunctionExpression) {
+            FunctionExpression f = (FunctionExpression) e;
+            IFunction<?, ?> function = functions.get(f.getName());
+            if (PrimitiveFunctions.isBoolean(function, f.getParams().size())) {
+                context.nodes++;
+                return calculateBoolean(function, f, context);
+            }
+        }
+
+        return Boolean.TRUE.equals(evaluate(e, context));
+    }
+
+    /**
+     * Evaluate a referenced formula once per pass.
+     * <p>
+     * The formulas checked for cycles are remembered for the lifetime of the evaluator, but the formulas may be changed.
+     * A cycle created by a later change is found when a formula is referenced again during its own evaluation.
+     *
+     * @param name the name of the formula
+     * @param context the context of this evaluation
+     * @return the result
+     * @throws IllegalArgumentException if formulas reference each other cyclically
+     */
+    private Object formula(String name, EvaluationContext context) {
+        Map<String, Object> results = context.formulaResults;
+        if (results == null) {
+            results = new HashMap<>();
+            context.formulaResults = results;
+        } else if (results.containsKey(name)) {
+            Object result = results.get(name);
+            if (result == EVALUATING) {
+                acyclicFormulas.clear();
+                FormulaReferences.checkCycles(expressions, name, new HashSet<>());
+                throw new IllegalArgumentException("Cyclic reference to the formula " + name);
+            }
+            EvaluationMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.formulaHit();
+            }
+            return result;
+        }
+
+        FormulaReferences.checkCycles(expressions, name, acyclicFormulas);
+        EvaluationMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        results.put(name, EVALUATING);
+        Object result;
+        try {
+            result = evaluate(expressions == null ? null : expressions.get(name), context);
+        } catch (RuntimeException | Error ex) {
+            results.remove(name);
+            throw ex;
+        }
+        if (metrics != null) {
+            metrics.formula(name, System.nanoTime() - start);
+        }
+        results.put(name, result);
+        return result;
+    }
+
+    /**
+     * Checks whether an expression consists of numbers and math operators only, so its result is never {@code null}.
+     *
+     * @param e the expression
+     * @return {@code true} if so
+     */
+    private static boolean isNumeric(Expression e) {
+        while (e instanceof MathExpression) {
+            if (!isNumeric(((MathExpression) e).getRight())) {
+                return false;
             }
+            e = ((MathExpression) e).getLeft();
+        }
+        if (e instanceof NumberExpression) {
+            return ((NumberExpression) e).getValue() != null;
+        } else if (e instanceof MinusExpression) {
+            return isNumeric(((MinusExpression) e).getExpression());
+        } else if (e instanceof BracketExpression) {
+            return isNumeric(((BracketExpression) e).getExpression());
         }
+        return false;
+    }
+
+    /**
+     * Prepare an expression for repeated evaluation using the functions, values and formulas of this evaluator.
+     *
+     * @param e the expression to prepare
+     * @return the prepared expression
+     * @see ExpressionPreparer
+     */
+    public PreparedExpression prepare(Expression e) {
+        return new ExpressionPreparer(functions, values, expressions).prepare(e);
+    }
+
+    /**
+     * Prepare an expression for repeated evaluation and bind its variables to the given slots.
+     *
+     * @param e the expression to prepare
+     * @param slots the slots of the variables
+     * @return the prepared expression
+     * @see ExpressionPreparer#prepare(Expression, VariableSlots)
+     */
+    public PreparedExpression prepare(Expression e, VariableSlots slots) {
+        return new ExpressionPreparer(functions, values, expressions).prepare(e, slots);
+    }
+
+    /**
+     * Compile an expression to a JVM class using the functions, values and formulas of this evaluator.
+     *
+     * @param e the expression to compile
+     * @return the compiled expression
+     * @see ExpressionCompiler
+     */
+    public CompiledExpression compile(Expression e) {
+        return new ExpressionCompiler(functions, values, expressions).compile(e);
     }
 
     /**
@@ -170,29 +479,110 @@ public class Evaluator {
      * @return show evaluation debug info value
      */
     public boolean isShowEvaluationDebugInfo() {
-        return showEvaluationDebugInfo;
+        TraceSampler sampler = traceSampler;
+        return sampler != null && sampler.getListener() instanceof TracePrinter;
     }
 
     /**
-     * Sets the showEvaluationDebugInfo.
+     * Sets the showEvaluationDebugInfo: prints every node of every evaluation to {@link System#out} with a
+     * {@link TracePrinter}, replacing the trace sampler.
      *
      * @param showEvaluationDebugInfo show evaluation debug info
      */
     public void setShowEvaluationDebugInfo(boolean showEvaluationDebugInfo) {
-        this.showEvaluationDebugInfo = showEvaluationDebugInfo;
+        this.traceSampler = showEvaluationDebugInfo ? new TraceSampler(new TracePrinter(System.out)) : null;
+    }
+
+    /**
+     * Gets the trace sampler.
+     *
+     * @return trace sampler value or {@code null} if tracing is disabled
+     */
+    public TraceSampler getTraceSampler() {
+        return traceSampler;
+    }
+
+    /**
+     * Sets the trace sampler selecting the evaluations passed to its listener. Without a sampler nothing is traced.
+     *
+     * @param traceSampler the trace sampler or {@code null} to disable tracing
+     */
+    public void setTraceSampler(TraceSampler traceSampler) {
+        this.traceSampler = traceSampler;
+    }
+
+    /**
+     * Gets the metrics.
+     *
+     * @return metrics value or {@code null} if disabled
+     */
+    public EvaluationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics recording the evaluations of this evaluator.
+     *
+     * @param metrics the metrics or {@code null} to disable them
+     */
+    public void setMetrics(EvaluationMetrics metrics) {
+        this.metrics = metrics;
     }
 
     /**
      * Evaluate object.
      *
      * @param e the e
+     * @param context the context
      * @return the object
      */
-    private Object evaluate(MathExpression e) {
-        Object rawLeft = evaluate(e.getLeft());
-        last = true;
-        Object rawRight = evaluate(e.getRight());
+    private Object evaluate(MathExpression e, EvaluationContext context) {
+        if (!(e.getLeft() instanceof MathExpression)) {
+            return calculate(e.getOperator(), evaluate(e.getLeft(), context), evaluate(e.getRight(), context));
+        }
+
+        // evaluate left-recursive chains like a1+a2+...+an without recursion
+        List<MathExpression> chain = chain(e);
+        context.nodes += chain.size() - 1;
+        // the first expression of the chain is traced by the caller, the others are traced here as if nested
+        TraceListener trace = context.trace;
+        long[] traceStarts = trace == null ? null : new long[chain.size()];
+        int traced = 1;
+        try {
+            if (trace != null) {
+                for (; traced < chain.size(); traced++) {
+                    trace.enter(chain.get(traced), context.traceDepth++);
+                    traceStarts[traced] = System.nanoTime();
+                }
+            }
+            Object result = evaluate(chain.get(chain.size() - 1).getLeft(), context);
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                MathExpression m = chain.get(i);
+                result = calculate(m.getOperator(), result, evaluate(m.getRight(), context));
+                if (trace != null && i > 0) {
+                    traced = i;
+                    trace.exit(m, --context.traceDepth, result, System.nanoTime() - traceStarts[i]);
+                }
+            }
+            return result;
+        } finally {
+            // exit the expressions whose evaluation failed
+            while (traced > 1) {
+                traced--;
+                trace.exit(chain.get(traced), --context.traceDepth, null, System.nanoTime() - traceStarts[traced]);
+            }
+        }
+    }
 
+    /**
+     * Calculate the result of a math operator.
+     *
+     * @param operator the operator
+     * @param rawLeft the left operand
+     * @param rawRight the right operand
+     * @return the result or {@code null} if one of the operands is no number
+     */
+    private static Object calculate(MathExpression.Operator operator, Object rawLeft, Object rawRight) {
         Number left = rawLeft instanceof Number ? (Number) rawLeft : null;
         Number right = rawRight instanceof Number ? (Number) rawRight : null;
 
@@ -200,52 +590,229 @@ public class Evaluator {
             return null;
         }
 
-        switch (e.getOperator()) {
+        return calculate(operator, left.doubleValue(), right.doubleValue());
+    }
+
+    /**
+     * Calculate the result of a math operator.
+     *
+     * @param operator the operator
+     * @param left the left operand
+     * @param right the right operand
+     * @return the result
+     */
+    private static double calculate(MathExpression.Operator operator, double left, double right) {
+        switch (operator) {
             case ADD:
-                return left.doubleValue() + right.doubleValue();
+                return left + right;
             case SUB:
-                return left.doubleValue() - right.doubleValue();
+                return left - right;
             case MUL:
-                return left.doubleValue() * right.doubleValue();
+                return left * right;
             case DIV:
-                return left.doubleValue() / right.doubleValue();
-            case POW:
-                return Math.pow(left.doubleValue(), right.doubleValue());
+                return left / right;
+            default:
+                return Math.pow(left, right);
         }
-        return null;
+    }
+
+    /**
+     * Gets the left-recursive chain of math expressions starting at the given one.
+     *
+     * @param e the expression
+     * @return the expression and its left operands, as long as they are math expressions
+     */
+    static List<MathExpression> chain(MathExpression e) {
+        List<MathExpression> chain = new ArrayList<>();
+        Expression current = e;
+        while (current instanceof MathExpression) {
+            chain.add((MathExpression) current);
+            current = ((MathExpression) current).getLeft();
+        }
+        return chain;
     }
 
     /**
      * Evaluate object.
      *
      * @param e the e
+     * @param context the context
      * @return the object
      */
-    private Object evaluate(FunctionExpression e) {
-        IFunction function = functions.get(e.getName());
+    private Object evaluate(FunctionExpression e, EvaluationContext context) {
+        IFunction<Object, ?> function = PrimitiveFunctions.boxed(functions.get(e.getName()));
+        if (function instanceof ILazyFunction) {
+            return evaluate((ILazyFunction<?>) function, e, context);
+        } else if (PrimitiveFunctions.isDouble(function, e.getParams().size())) {
+            return calculateDouble(function, e, context);
+        } else if (PrimitiveFunctions.isBoolean(function, e.getParams().size())) {
+            return calculateBoolean(function, e, context);
+        }
 
         int size = e.getParams().size();
         Object[] values = new Object[size];
         for (int i = 0; i < size; i++) {
-            if (i == size - 1) {
-                last = true;
+            values[i] = evaluate(e.getParams().get(i), context);
+        }
+
+        EvaluationMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return function.calculate(values);
+        }
+        long start = System.nanoTime();
+        try {
+            return function.calculate(values);
+        } finally {
+            metrics.function(e.getName(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Calls a function with a primitive double result with the primitive values of the params.
+     *
+     * @param function the function, see {@link PrimitiveFunctions#isDouble(IFunction, int)}
+     * @param e the expression
+     * @param context the context
+     * @return the result
+     */
+    private double calculateDouble(IFunction<?, ?> function, FunctionExpression e, EvaluationContext context) {
+        List<Expression> params = e.getParams();
+        double left = 0;
+        double right = 0;
+        double[] values = null;
+        if (function instanceof IDoubleArrayFunction) {
+            values = doubleValues(params, context);
+        } else {
+            left = doubleValue(params.get(0), context);
+            right = params.size() > 1 ? doubleValue(params.get(1), context) : 0;
+        }
+
+        EvaluationMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        double result;
+        if (function instanceof IDoubleFunction) {
+            result = ((IDoubleFunction) function).calculateDouble(left);
+        } else if (function instanceof IDoubleBinaryFunction) {
+            result = ((IDoubleBinaryFunction) function).calculateDouble(left, right);
+        } else {
+            result = ((IDoubleArrayFunction) function).calculateDouble(values);
+        }
+        if (metrics != null) {
+            metrics.function(e.getName(), System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /**
+     * Calls a predicate with the primitive values of the params.
+     *
+     * @param function the function, see {@link PrimitiveFunctions#isBoolean(IFunction, int)}
+     * @param e the expression
+     * @param context the context
+     * @return the result
+     */
+    private boolean calculateBoolean(IFunction<?, ?> function, FunctionExpression e, EvaluationContext context) {
+        List<Expression> params = e.getParams();
+        double left = doubleValue(params.get(0), context);
+        double right = params.size() > 1 ? doubleValue(params.get(1), context) : 0;
+
+        EvaluationMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        boolean result = function instanceof IDoublePredicate ? ((IDoublePredicate) function).test(left)
+                : ((IDoubleBinaryPredicate) function).test(left, right);
+        if (metrics != null) {
+            metrics.function(e.getName(), System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /**
+     * Evaluate the params of a function to primitive doubles, the values of ranges of variables one by one.
+     *
+     * @param params the params
+     * @param context the context
+     * @return the values
+     */
+    private double[] doubleValues(List<Expression> params, EvaluationContext context) {
+        int size = params.size();
+        for (Expression param : params) {
+            if (param instanceof VariableExpression && ((VariableExpression) param).getName().indexOf(':') >= 0) {
+                Object[] values = new Object[size];
+                for (int i = 0; i < size; i++) {
+                    values[i] = evaluate(params.get(i), context);
+                }
+                return PrimitiveFunctions.toDoubles(values);
             }
-            values[i] = evaluate(e.getParams().get(i));
         }
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = doubleValue(params.get(i), context);
+        }
+        return values;
+    }
+
+    /**
+     * Evaluate a lazy function, the arguments are evaluated when the function reads them. The latency recorded in the
+     * metrics includes the evaluation of the arguments read.
+     *
+     * @param function the function
+     * @param e the expression
+     * @param context the context
+     * @return the object
+     */
+    private Object evaluate(ILazyFunction<?> function, FunctionExpression e, EvaluationContext context) {
+        List<Expression> params = e.getParams();
+        Arguments arguments = new LazyArguments() {
+            @Override
+            public int size() {
+                return params.size();
+            }
+
+            @Override
+            Object evaluate(int index) {
+                return Evaluator.this.evaluate(params.get(index), context);
+            }
+        };
 
-        return function.calculate(values);
+        EvaluationMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return function.calculate(arguments);
+        }
+        long start = System.nanoTime();
+        try {
+            return function.calculate(arguments);
+        } finally {
+            metrics.function(e.getName(), System.nanoTime() - start);
+        }
     }
 
     /**
      * Evaluate object.
      *
      * @param e the e
+     * @param context the context
      * @return the object
      */
-    private Object evaluate(BoolExpression e) {
-        Object rawLeft = evaluate(e.getLeft());
-        last = true;
-        Object rawRight = evaluate(e.getRight());
+    private Object evaluate(BoolExpression e, EvaluationContext context) {
+        Object rawLeft = evaluate(e.getLeft(), context);
+        Object rawRight = evaluate(e.getRight(), context);
+
+        return compare(rawLeft, e.getOperator(), rawRight);
+    }
+
+    /**
+     * Compares two evaluated values.
+     *
+     * @param rawLeft the left value
+     * @param operator the operator
+     * @param rawRight the right value
+     * @return the result
+     */
+    static Object compare(Object rawLeft, BoolExpression.Operator operator, Object rawRight) {
+        if (rawLeft instanceof Number && rawRight instanceof Number) {
+            // compare numbers without boxing, Double.compare is consistent with Double.compareTo and Double.equals
+            return test(operator, Double.compare(((Number) rawLeft).doubleValue(), ((Number) rawRight).doubleValue()));
+        }
 
         Comparable left = rawLeft instanceof Number ? ((Number) rawLeft).doubleValue() : (Comparable) rawLeft;
         Comparable right = rawRight instanceof Number ? ((Number) rawRight).doubleValue() : (Comparable) rawRight;
@@ -254,7 +821,7 @@ public class Evaluator {
             return null;
         }
 
-        switch (e.getOperator()) {
+        switch (operator) {
             case G:
                 return left.compareTo(right) > 0;
             case GE:
@@ -272,29 +839,84 @@ public class Evaluator {
         return null;
     }
 
+    /**
+     * Tests the result of a comparison of two numbers.
+     *
+     * @param operator the operator
+     * @param comparison the result of {@link Double#compare(double, double)}
+     * @return the result
+     */
+    private static boolean test(BoolExpression.Operator operator, int comparison) {
+        switch (operator) {
+            case G:
+                return comparison > 0;
+            case GE:
+                return comparison >= 0;
+            case E:
+                return comparison == 0;
+            case L:
+                return comparison < 0;
+            case LE:
+                return comparison <= 0;
+            default:
+                return comparison != 0;
+        }
+    }
+
     /**
      * Evaluate object.
      *
      * @param e the e
+     * @param context the context
      * @return the object
      */
-    private Object evaluate(VariableExpression e) {
+    private Object evaluate(VariableExpression e, EvaluationContext context) {
         String name = e.getName();
+        return name.indexOf(':') >= 0 ? variable(context.getValues(), name) : context.get(name);
+    }
+
+    /**
+     * Gets the value of a variable or, if the name has the form {@code first:last}, the values of all variables
+     * between the two names.
+     *
+     * @param values the values
+     * @param name the name
+     * @return the value
+     */
+    static Object variable(Map<String, Object> values, String name) {
         int colonIndex = name.indexOf(':');
         if (colonIndex >= 0) {
-            String firstName = name.substring(0, colonIndex);
-            String lastName = name.substring(name.lastIndexOf(':') + 1);
-            Map<String, Object> tmp = new TreeMap<>();
-            for (Map.Entry<String, Object> entry : values.entrySet()) {
-                if (firstName.compareTo(entry.getKey()) <= 0 && lastName.compareTo(entry.getKey()) >= 0) {
-                    if (values.containsKey(entry.getKey())) {
-                        tmp.put(entry.getKey(), entry.getValue());
-                    }
-                }
-            }
-            return tmp.values().toArray();
+            return range(values, name.substring(0, colonIndex), name.substring(name.lastIndexOf(':') + 1));
         }
 
         return values.get(name);
     }
+
+    /**
+     * Gets the values of all variables between two names, ordered by name.
+     * <p>
+     * If the values are a {@link NavigableMap} in natural order, like a {@link TreeMap}, only the variables in the range
+     * are visited, otherwise all variables.
+     *
+     * @param values the values
+     * @param firstName the first name
+     * @param lastName the last name
+     * @return the values
+     */
+    static Object[] range(Map<String, Object> values, String firstName, String lastName) {
+        if (values instanceof NavigableMap && ((NavigableMap<String, Object>) values).comparator() == null) {
+            if (firstName.compareTo(lastName) > 0) {
+                return new Object[0];
+            }
+            return ((NavigableMap<String, Object>) values).subMap(firstName, true, lastName, true).values().toArray();
+        }
+
+        Map<String, Object> tmp = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (firstName.compareTo(entry.getKey()) <= 0 && lastName.compareTo(entry.getKey()) >= 0) {
+                tmp.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return tmp.values().toArray();
+    }
 }
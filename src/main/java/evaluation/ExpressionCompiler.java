@@ -0,0 +1,756 @@
+package evaluation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import parser.BoolExpression;
+import parser.BracketExpression;
+import parser.Expression;
+import parser.FormulaExpression;
+import parser.FunctionExpression;
+import parser.MathExpression;
+import parser.MinusExpression;
+import parser.NumberExpression;
+import parser.TextExpression;
+import parser.VariableExpression;
+
+/**
+ * Compiles expressions to JVM classes.
+ * <p>
+ * Each compiled expression is a subclass of {@link AbstractCompiledExpression}. Numeric sub expressions are compiled
+ * to primitive double arithmetic, referenced formulas to methods of the generated class. The results are the same as
+ * the ones of the {@link Evaluator}. Functions and formulas are looked up once at compile time, values on every
+ * evaluation in the {@link EvaluationContext}. Functions with primitive doubles, like {@link IDoubleFunction}, are
+ * called without parameter arrays and boxing. Calls of {@link DeterministicFunction deterministic functions} with
+ * constant params are folded to their result. The arguments of {@link ILazyFunction lazy functions} are compiled to
+ * methods of their own, which are called when the function reads the argument.
+ * <p>
+ * Expressions which are too large for a JVM method are not compiled but evaluated by an {@link Evaluator}.
+ *
+ * @author sedoe
+ */
+public class ExpressionCompiler {
+    /**
+     * The constant BASE.
+     */
+    private static final String BASE = "evaluation/AbstractCompiledExpression";
+    /**
+     * The constant OBJECT.
+     */
+    private static final String OBJECT = "java/lang/Object";
+    /**
+     * The constant NUMBER.
+     */
+    private static final String NUMBER = "java/lang/Number";
+    /**
+     * The constant DOUBLE.
+     */
+    private static final String DOUBLE = "java/lang/Double";
+    /**
+     * The constant EVALUATE.
+     */
+    private static final String EVALUATE = "(Levaluation/EvaluationContext;)Ljava/lang/Object;";
+    /**
+     * The constant INIT.
+     */
+    private static final String INIT = "(Ljava/util/Map;[Levaluation/IFunction;I)V";
+    /**
+     * The constant ARGUMENT.
+     */
+    private static final String ARGUMENT = "(ILevaluation/EvaluationContext;)Ljava/lang/Object;";
+    /**
+     * The constant COUNTER.
+     */
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    /**
+     * The Functions.
+     */
+    private final Map<String, IFunction<? extends Object, ? extends Object>> functions;
+    /**
+     * The Values.
+     */
+    private final Map<String, Object> values;
+    /**
+     * The Expressions.
+     */
+    private final Map<String, Expression> expressions;
+
+    /**
+     * Instantiates a new Expression compiler.
+     *
+     * @param functions the functions
+     * @param values the values
+     * @param expressions the expressions
+     */
+    public ExpressionCompiler(Map<String, IFunction<? extends Object, ? extends Object>> functions,
+            Map<String, Object> values,
+            Map<String, Expression> expressions) {
+        this.functions = functions;
+        this.values = values;
+        this.expressions = expressions;
+    }
+
+    /**
+     * Compile an expression.
+     *
+     * @param e the expression to compile
+     * @return the compiled expression
+     */
+    public CompiledExpression compile(Expression e) {
+        try {
+            return new Generator().generate(e);
+        } catch (ClassFileWriter.TooLargeException tooLarge) {
+            Evaluator evaluator = new Evaluator(functions, values, expressions);
+            return new CompiledExpression() {
+                @Override
+                public <T> T evaluate() {
+                    return evaluator.evaluate(e);
+                }
+
+                @Override
+                public <T> T evaluate(EvaluationContext context) {
+                    return evaluator.evaluate(e, context);
+                }
+            };
+        }
+    }
+
+    /**
+     * Generates the class of one compiled expression.
+     */
+    private class Generator {
+        /**
+         * The Name.
+         */
+        private final String name = "evaluation/GeneratedExpression$" + COUNTER.incrementAndGet();
+        /**
+         * The Writer.
+         */
+        private final ClassFileWriter writer = new ClassFileWriter(name, BASE);
+        /**
+         * The Bound functions.
+         */
+        private final List<IFunction<?, ?>> boundFunctions = new ArrayList<>();
+        /**
+         * The indices of the bound functions.
+         */
+        private final Map<String, Integer> functionIndices = new HashMap<>();
+        /**
+         * The method names of the referenced formulas.
+         */
+        private final Map<String, String> formulaMethods = new HashMap<>();
+        /**
+         * The referenced formulas which are still to compile.
+         */
+        private final List<String> pendingFormulas = new ArrayList<>();
+        /**
+         * The names of the formulas checked for cyclic references.
+         */
+        private final Set<String> acyclicFormulas = new HashSet<>();
+        /**
+         * The arguments of lazy functions, compiled to the methods {@code argument$<index>}.
+         */
+        private final List<Expression> lazyArguments = new ArrayList<>();
+
+        /**
+         * Generates the class and instantiates it.
+         *
+         * @param e the expression
+         * @return the compiled expression
+         */
+        CompiledExpression generate(Expression e) {
+            ClassFileWriter.Code init = writer.method("<init>", INIT, 4);
+            init.local(0x19, 0, 1);
+            init.local(0x19, 1, 1);
+            init.local(0x19, 2, 1);
+            init.local(0x15, 3, 1);
+            init.invoke(0xB7, BASE, "<init>", INIT);
+            init.op(0xB1, 0);
+            init.end();
+
+            method("expression", e);
+            int formulas = 0;
+            int arguments = 0;
+            // formulas and arguments may add more of both
+            while (formulas < pendingFormulas.size() || arguments < lazyArguments.size()) {
+                if (formulas < pendingFormulas.size()) {
+                    String formula = pendingFormulas.get(formulas);
+                    formula(formulas++, formulaMethods.get(formula), expressions.get(formula));
+                } else {
+                    method("argument$" + arguments, lazyArguments.get(arguments++));
+                }
+            }
+            if (!lazyArguments.isEmpty()) {
+                arguments();
+            }
+
+            byte[] bytes = writer.toByteArray();
+            try {
+                Class<?> type = new Loader(ExpressionCompiler.class.getClassLoader())
+                        .define(name.replace('/', '.'), bytes);
+                return (CompiledExpression) type.getConstructor(Map.class, IFunction[].class, int.class)
+                        .newInstance(values, boundFunctions.toArray(new IFunction<?, ?>[0]), formulaMethods.size());
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        /**
+         * Generates a method returning the result of an expression.
+         *
+         * @param methodName the method name
+         * @param e the expression
+         */
+        private void method(String methodName, Expression e) {
+            // this and the context
+            ClassFileWriter.Code code = writer.method(methodName, EVALUATE, 2);
+            emitObject(code, e);
+            // areturn
+            code.op(0xB0, -1);
+            code.end();
+        }
+
+        /**
+         * Generates a method returning the result of a referenced formula, evaluating it once per pass.
+         *
+         * @param index the index of the formula
+         * @param methodName the method name
+         * @param e the expression of the formula
+         */
+        private void formula(int index, String methodName, Expression e) {
+            ClassFileWriter.Code code = writer.method(methodName, EVALUATE, 2);
+            ClassFileWriter.Label evaluate = new ClassFileWriter.Label();
+            code.local(0x19, 0, 1);
+            code.local(0x19, 1, 1);
+            code.push(index);
+            code.invoke(0xB6, BASE, "formula", "(Levaluation/EvaluationContext;I)Ljava/lang/Object;");
+            // dup, if_acmpeq
+            code.op(0x59, 1);
+            code.getStatic(BASE, "PENDING", "Ljava/lang/Object;");
+            code.jump(0xA5, evaluate, -2);
+            code.op(0xB0, -1);
+            code.mark(evaluate);
+            // pop
+            code.op(0x57, -1);
+            code.local(0x19, 0, 1);
+            code.local(0x19, 1, 1);
+            code.push(index);
+            emitObject(code, e);
+            code.invoke(0xB6, BASE, "formula",
+                    "(Levaluation/EvaluationContext;ILjava/lang/Object;)Ljava/lang/Object;");
+            code.op(0xB0, -1);
+            code.end();
+        }
+
+        /**
+         * Generates the method {@code argument(int, EvaluationContext)} calling the method of the argument of a lazy
+         * function with the given index.
+         */
+        private void arguments() {
+            // this, the index and the context
+            ClassFileWriter.Code code = writer.method("argument", ARGUMENT, 3);
+            ClassFileWriter.Label[] labels = new ClassFileWriter.Label[lazyArguments.size()];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = new ClassFileWriter.Label();
+            }
+            ClassFileWriter.Label otherwise = new ClassFileWriter.Label();
+            code.local(0x15, 1, 1);
+            code.tableswitch(labels, otherwise);
+            for (int i = 0; i < labels.length; i++) {
+                code.mark(labels[i]);
+                code.local(0x19, 0, 1);
+                code.local(0x19, 2, 1);
+                code.invoke(0xB6, name, "argument$" + i, EVALUATE);
+                // areturn
+                code.op(0xB0, -1);
+            }
+            code.mark(otherwise);
+            code.local(0x19, 0, 1);
+            code.local(0x15, 1, 1);
+            code.local(0x19, 2, 1);
+            code.invoke(0xB7, BASE, "argument", ARGUMENT);
+            code.op(0xB0, -1);
+            code.end();
+        }
+
+        /**
+         * Emits the code of an expression which leaves an object on the stack.
+         *
+         * @param code the code
+         * @param e the expression
+         */
+        private void emitObject(ClassFileWriter.Code code, Expression e) {
+            if (emit(code, e)) {
+                code.invoke(0xB8, DOUBLE, "valueOf", "(D)Ljava/lang/Double;");
+            }
+        }
+
+        /**
+         * Emits the code of an expression.
+         *
+         * @param code the code
+         * @param e the expression
+         * @return {@code true} if a primitive double is left on the stack, {@code false} for an object
+         */
+        private boolean emit(ClassFileWriter.Code code, Expression e) {
+            if (e instanceof MathExpression) {
+                return emit(code, (MathExpression) e);
+            } else if (e instanceof NumberExpression) {
+                Double value = ((NumberExpression) e).getValue();
+                if (value == null) {
+                    code.op(0x01, 1);
+                    return false;
+                }
+                code.ldc(value);
+                return true;
+            } else if (e instanceof VariableExpression) {
+                String variable = ((VariableExpression) e).getName();
+                code.local(0x19, 1, 1);
+                if (variable.indexOf(':') >= 0) {
+                    code.ldc(variable.substring(0, variable.indexOf(':')));
+                    code.ldc(variable.substring(variable.lastIndexOf(':') + 1));
+                    code.invoke(0xB8, BASE, "range",
+                            "(Levaluation/EvaluationContext;Ljava/lang/String;Ljava/lang/String;)Ljava/lang/Object;");
+                } else {
+                    code.ldc(variable);
+                    code.invoke(0xB8, BASE, "variable",
+                            "(Levaluation/EvaluationContext;Ljava/lang/String;)Ljava/lang/Object;");
+                }
+                return false;
+            } else if (e instanceof BracketExpression) {
+                return emit(code, ((BracketExpression) e).getExpression());
+            } else if (e instanceof TextExpression) {
+                code.ldc(((TextExpression) e).getText());
+                return false;
+            } else if (e instanceof MinusExpression) {
+                if (!emit(code, ((MinusExpression) e).getExpression())) {
+                    code.type(0xC0, DOUBLE);
+                    code.invoke(0xB6, DOUBLE, "doubleValue", "()D");
+                }
+                // dneg
+                code.op(0x77, 0);
+                return true;
+            } else if (e instanceof FunctionExpression) {
+                return emit(code, (FunctionExpression) e);
+            } else if (e instanceof FormulaExpression) {
+                emit(code, (FormulaExpression) e);
+                return false;
+            } else if (e instanceof BoolExpression) {
+                emit(code, (BoolExpression) e);
+                return false;
+            }
+            // aconst_null
+            code.op(0x01, 1);
+            return false;
+        }
+
+        /**
+         * Emits a math expression.
+         *
+         * @param code the code
+         * @param e the expression
+         * @return {@code true} if a primitive double is left on the stack, {@code false} for an object
+         */
+        private boolean emit(ClassFileWriter.Code code, MathExpression e) {
+            // emit left-recursive chains like a1+a2+...+an without recursion
+            List<MathExpression> chain = Evaluator.chain(e);
+            boolean isDouble = emit(code, chain.get(chain.size() - 1).getLeft());
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                isDouble = emit(code, chain.get(i), isDouble);
+            }
+            return isDouble;
+        }
+
+        /**
+         * Emits a math operator whose left operand is already on the stack.
+         *
+         * @param code the code
+         * @param e the expression
+         * @param leftDouble whether the left operand is a primitive double
+         * @return {@code true} if a primitive double is left on the stack, {@code false} for an object
+         */
+        private boolean emit(ClassFileWriter.Code code, MathExpression e, boolean leftDouble) {
+            int mark = code.allocate(0);
+            if (leftDouble && isDouble(e.getRight())) {
+                emit(code, e.getRight());
+                emit(code, e.getOperator());
+                return true;
+            }
+
+            // at least one side may be no number: the result is null then
+            int left = code.allocate(2);
+            code.local(leftDouble ? 0x39 : 0x3A, left, leftDouble ? -2 : -1);
+            int right = code.allocate(2);
+            boolean rightDouble = emit(code, e.getRight());
+            code.local(rightDouble ? 0x39 : 0x3A, right, rightDouble ? -2 : -1);
+
+            ClassFileWriter.Label noNumber = new ClassFileWriter.Label();
+            ClassFileWriter.Label end = new ClassFileWriter.Label();
+            if (!leftDouble) {
+                unbox(code, left, noNumber);
+            }
+            if (!rightDouble) {
+                unbox(code, right, noNumber);
+            }
+            code.local(0x18, left, 2);
+            code.local(0x18, right, 2);
+            emit(code, e.getOperator());
+            code.invoke(0xB8, DOUBLE, "valueOf", "(D)Ljava/lang/Double;");
+            // goto
+            code.jump(0xA7, end, 0);
+            code.mark(noNumber);
+            // aconst_null
+            code.op(0x01, 1);
+            code.mark(end);
+            code.release(mark);
+            return false;
+        }
+
+        /**
+         * Replaces the object in a local variable slot by its double value or jumps if it is no number.
+         *
+         * @param code the code
+         * @param slot the slot
+         * @param noNumber the jump target for no numbers
+         */
+        private void unbox(ClassFileWriter.Code code, int slot, ClassFileWriter.Label noNumber) {
+            code.local(0x19, slot, 1);
+            code.type(0xC1, NUMBER);
+            // ifeq
+            code.jump(0x99, noNumber, -1);
+            code.local(0x19, slot, 1);
+            code.type(0xC0, NUMBER);
+            code.invoke(0xB6, NUMBER, "doubleValue", "()D");
+            code.local(0x39, slot, -2);
+        }
+
+        /**
+         * Emits a math operator working on two doubles.
+         *
+         * @param code the code
+         * @param operator the operator
+         */
+        private void emit(ClassFileWriter.Code code, MathExpression.Operator operator) {
+            switch (operator) {
+                case ADD:
+                    code.op(0x63, -2);
+                    break;
+                case SUB:
+                    code.op(0x67, -2);
+                    break;
+                case MUL:
+                    code.op(0x6B, -2);
+                    break;
+                case DIV:
+                    code.op(0x6F, -2);
+                    break;
+                case POW:
+                    code.invoke(0xB8, "java/lang/Math", "pow", "(DD)D");
+                    break;
+            }
+        }
+
+        /**
+         * Emits a comparison.
+         *
+         * @param code the code
+         * @param e the expression
+         */
+        private void emit(ClassFileWriter.Code code, BoolExpression e) {
+            boolean leftDouble = emit(code, e.getLeft());
+            if (leftDouble && isDouble(e.getRight())) {
+                // Double.compare has the same semantics as Double.compareTo and Double.equals used by the evaluator
+                emit(code, e.getRight());
+                code.invoke(0xB8, DOUBLE, "compare", "(DD)I");
+                ClassFileWriter.Label no = new ClassFileWriter.Label();
+                ClassFileWriter.Label end = new ClassFileWriter.Label();
+                code.jump(negatedJump(e.getOperator()), no, -1);
+                code.op(0x04, 1);
+                code.jump(0xA7, end, 0);
+                code.mark(no);
+                code.op(0x03, 1);
+                code.mark(end);
+                code.invoke(0xB8, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+                return;
+            }
+
+            if (leftDouble) {
+                code.invoke(0xB8, DOUBLE, "valueOf", "(D)Ljava/lang/Double;");
+            }
+            String operator = "parser/BoolExpression$Operator";
+            code.getStatic(operator, e.getOperator().name(), "L" + operator + ";");
+            emitObject(code, e.getRight());
+            code.invoke(0xB8, BASE, "compare", "(Ljava/lang/Object;L" + operator + ";Ljava/lang/Object;)Ljava/lang/Object;");
+        }
+
+        /**
+         * Gets the opcode which jumps if the comparison result on the stack does not satisfy the operator.
+         *
+         * @param operator the operator
+         * @return the opcode
+         */
+        private int negatedJump(BoolExpression.Operator operator) {
+            switch (operator) {
+                case G:
+                    // ifle
+                    return 0x9E;
+                case GE:
+                    // iflt
+                    return 0x9B;
+                case E:
+                    // ifne
+                    return 0x9A;
+                case L:
+                    // ifge
+                    return 0x9C;
+                case LE:
+                    // ifgt
+                    return 0x9D;
+                default:
+                    // ifeq
+                    return 0x99;
+            }
+        }
+
+        /**
+         * Emits a function call.
+         *
+         * @param code the code
+         * @param e the expression
+         * @return {@code true} if a primitive double is left on the stack, {@code false} for an object
+         */
+        private boolean emit(ClassFileWriter.Code code, FunctionExpression e) {
+            if (functions != null && functions.get(e.getName()) instanceof DeterministicFunction
+                    && ExpressionPreparer.isConstant(e, functions)) {
+                try {
+                    Object value = new ExpressionPreparer(functions, values, expressions).prepare(e).evaluate();
+                    if (emitConstant(code, value)) {
+                        return false;
+                    }
+                } catch (RuntimeException ex) {
+                    // the call fails when it is evaluated, which a lazy function may never do, so it is not folded
+                }
+            }
+            Integer index = functionIndices.get(e.getName());
+            if (index == null) {
+                index = boundFunctions.size();
+                boundFunctions.add(functions == null ? null : functions.get(e.getName()));
+                functionIndices.put(e.getName(), index);
+            }
+
+            List<Expression> params = e.getParams();
+            if (boundFunctions.get(index) instanceof ILazyFunction) {
+                code.local(0x19, 0, 1);
+                code.push(index);
+                code.push(lazyArguments.size());
+                code.push(params.size());
+                code.local(0x19, 1, 1);
+                code.invoke(0xB6, BASE, "lazy", "(IIILevaluation/EvaluationContext;)Ljava/lang/Object;");
+                lazyArguments.addAll(params);
+                return false;
+            }
+            if (PrimitiveFunctions.isDouble(boundFunctions.get(index), params.size())
+                    || PrimitiveFunctions.isBoolean(boundFunctions.get(index), params.size())) {
+                return emitPrimitive(code, index, params);
+            }
+
+            code.local(0x19, 0, 1);
+            code.push(index);
+            code.push(params.size());
+            // anewarray
+            code.type(0xBD, OBJECT);
+            for (int i = 0; i < params.size(); i++) {
+                // dup
+                code.op(0x59, 1);
+                code.push(i);
+                emitObject(code, params.get(i));
+                // aastore
+                code.op(0x53, -3);
+            }
+            code.invoke(0xB6, BASE, "call", "(I[Ljava/lang/Object;)Ljava/lang/Object;");
+            return false;
+        }
+
+        /**
+         * Emits a constant object, the folded result of a {@link DeterministicFunction deterministic function}.
+         *
+         * @param code the code
+         * @param value the value
+         * @return {@code false} if a value of its type cannot be a constant of a class file, nothing is emitted then
+         */
+        private boolean emitConstant(ClassFileWriter.Code code, Object value) {
+            if (value == null) {
+                // aconst_null
+                code.op(0x01, 1);
+            } else if (value instanceof Double) {
+                code.ldc((Double) value);
+                code.invoke(0xB8, DOUBLE, "valueOf", "(D)Ljava/lang/Double;");
+            } else if (value instanceof String) {
+                code.ldc((String) value);
+            } else if (value instanceof Boolean) {
+                code.getStatic("java/lang/Boolean", (Boolean) value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Emits the call of a function with primitive doubles.
+         *
+         * @param code the code
+         * @param index the index of the function
+         * @param params the params
+         * @return {@code true} if a primitive double is left on the stack, {@code false} for a boolean object
+         */
+        private boolean emitPrimitive(ClassFileWriter.Code code, int index, List<Expression> params) {
+            IFunction<?, ?> function = boundFunctions.get(index);
+            code.local(0x19, 0, 1);
+            code.push(index);
+            if (function instanceof IDoubleArrayFunction) {
+                boolean ranges = false;
+                for (Expression param : params) {
+                    ranges |= param instanceof VariableExpression
+                            && ((VariableExpression) param).getName().indexOf(':') >= 0;
+                }
+                code.push(params.size());
+                if (ranges) {
+                    // the values of the ranges are passed one by one
+                    code.type(0xBD, OBJECT);
+                } else {
+                    code.newArray(7);
+                }
+                for (int i = 0; i < params.size(); i++) {
+                    // dup
+                    code.op(0x59, 1);
+                    code.push(i);
+                    if (ranges) {
+                        emitObject(code, params.get(i));
+                        // aastore
+                        code.op(0x53, -3);
+                    } else {
+                        emitDouble(code, params.get(i));
+                        // dastore
+                        code.op(0x52, -4);
+                    }
+                }
+                code.invoke(0xB6, BASE, "callDouble", ranges ? "(I[Ljava/lang/Object;)D" : "(I[D)D");
+                return true;
+            }
+
+            for (Expression param : params) {
+                emitDouble(code, param);
+            }
+            String descriptor = params.size() == 1 ? "(ID)" : "(IDD)";
+            if (PrimitiveFunctions.isDouble(function, params.size())) {
+                code.invoke(0xB6, BASE, "callDouble", descriptor + "D");
+                return true;
+            }
+            code.invoke(0xB6, BASE, "test", descriptor + "Z");
+            code.invoke(0xB8, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+            return false;
+        }
+
+        /**
+         * Emits the code of an expression which leaves a primitive double on the stack, {@link Double#NaN} if the
+         * result is no number.
+         *
+         * @param code the code
+         * @param e the expression
+         */
+        private void emitDouble(ClassFileWriter.Code code, Expression e) {
+            if (!emit(code, e)) {
+                code.invoke(0xB8, BASE, "doubleValue", "(Ljava/lang/Object;)D");
+            }
+        }
+
+        /**
+         * Emits the call of the method of a referenced formula.
+         *
+         * @param code the code
+         * @param e the expression
+         */
+        private void emit(ClassFileWriter.Code code, FormulaExpression e) {
+            String formula = e.getName();
+            if (expressions == null || expressions.get(formula) == null) {
+                code.op(0x01, 1);
+                return;
+            }
+            String methodName = formulaMethods.get(formula);
+            if (methodName == null) {
+                FormulaReferences.checkCycles(expressions, formula, acyclicFormulas);
+                methodName = "formula$" + formulaMethods.size();
+                formulaMethods.put(formula, methodName);
+                pendingFormulas.add(formula);
+            }
+            code.local(0x19, 0, 1);
+            code.local(0x19, 1, 1);
+            code.invoke(0xB6, name, methodName, EVALUATE);
+        }
+
+        /**
+         * Checks whether an expression is compiled to a primitive double.
+         *
+         * @param e the expression
+         * @return {@code true} if so
+         */
+        private boolean isDouble(Expression e) {
+            if (e instanceof NumberExpression) {
+                return ((NumberExpression) e).getValue() != null;
+            } else if (e instanceof MinusExpression) {
+                return true;
+            } else if (e instanceof BracketExpression) {
+                return isDouble(((BracketExpression) e).getExpression());
+            } else if (e instanceof FunctionExpression) {
+                IFunction<?, ?> function = functions == null ? null
+                        : functions.get(((FunctionExpression) e).getName());
+                return !(function instanceof ILazyFunction)
+                        && PrimitiveFunctions.isDouble(function, ((FunctionExpression) e).getParams().size());
+            } else if (e instanceof MathExpression) {
+                List<MathExpression> chain = Evaluator.chain((MathExpression) e);
+                for (MathExpression m : chain) {
+                    if (!isDouble(m.getRight())) {
+                        return false;
+                    }
+                }
+                return isDouble(chain.get(chain.size() - 1).getLeft());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Class loader of the generated classes.
+     * <p>
+     * Every generated class gets its own loader, so it can be unloaded as soon as the compiled expression is no longer
+     * used.
+     */
+    private static final class Loader extends ClassLoader {
+
+        /**
+         * Instantiates a new Loader.
+         *
+         * @param parent the parent
+         */
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        /**
+         * Define class.
+         *
+         * @param name the name
+         * @param bytes the bytes
+         * @return the class
+         */
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
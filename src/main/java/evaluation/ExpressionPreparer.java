@@ -0,0 +1,331 @@
+package evaluation;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import parser.BoolExpression;
+import parser.BracketExpression;
+import parser.Expression;
+import parser.FormulaExpression;
+import parser.FunctionExpression;
+import parser.MathExpression;
+import parser.MinusExpression;
+import parser.NumberExpression;
+import parser.TextExpression;
+import parser.VariableExpression;
+
+/**
+ * Prepares expressions for repeated evaluation.
+ * <p>
+ * The expression tree is converted once to a tree of {@link Node nodes}, one class per operator, function arity and
+ * kind of variable. Functions and referenced formulas are looked up while preparing, so the evaluation of a prepared
+ * expression neither dispatches on the expression type nor switches on operators nor looks up functions. The results
+ * are the same as the ones of the {@link Evaluator}. Like the evaluator, prepared expressions keep no state of an
+ * evaluation and may be used by many threads at the same time.
+ * <p>
+ * The variables are bound to {@link VariableSlots}, so they are read from arrays if the prepared expression is
+ * evaluated with a context created by {@link PreparedExpression#newContext()}.
+ * <p>
+ * Calls of {@link DeterministicFunction deterministic functions} with constant params are folded to their result.
+ *
+ * @author sedoe
+ */
+public class ExpressionPreparer {
+    /**
+     * The Functions.
+     */
+    private final Map<String, IFunction<? extends Object, ? extends Object>> functions;
+    /**
+     * The Values.
+     */
+    private final Map<String, Object> values;
+    /**
+     * The Expressions.
+     */
+    private final Map<String, Expression> expressions;
+
+    /**
+     * Instantiates a new Expression preparer.
+     *
+     * @param functions the functions
+     * @param values the values
+     * @param expressions the expressions
+     */
+    public ExpressionPreparer(Map<String, IFunction<? extends Object, ? extends Object>> functions,
+            Map<String, Object> values,
+            Map<String, Expression> expressions) {
+        this.functions = functions;
+        this.values = values;
+        this.expressions = expressions;
+    }
+
+    /**
+     * Prepare an expression.
+     *
+     * @param e the expression to prepare
+     * @return the prepared expression
+     */
+    public PreparedExpression prepare(Expression e) {
+        return prepare(e, new VariableSlots());
+    }
+
+    /**
+     * Prepare an expression and bind its variables to slots. Several expressions may share the slots, so they can be
+     * evaluated with the same {@link EvaluationContext}.
+     *
+     * @param e the expression to prepare
+     * @param slots the slots of the variables
+     * @return the prepared expression
+     */
+    public PreparedExpression prepare(Expression e, VariableSlots slots) {
+        FormulaPreparation formulas = new FormulaPreparation(slots);
+        Node root = prepare(e, formulas, slots);
+        return new PreparedExpression(root, values, slots, formulas, formulas.formulas.size());
+    }
+
+    /**
+     * Prepare an expression with formula references resolved by the given function.
+     *
+     * @param e the expression
+     * @param formulas the nodes of the referenced formulas by name, {@code null} for unknown formulas
+     * @param slots the slots of the variables
+     * @return the node
+     */
+    Node prepare(Expression e, Function<String, Node> formulas, VariableSlots slots) {
+        if (e instanceof MathExpression) {
+            // prepare left-recursive chains like a1+a2+...+an without recursion
+            List<MathExpression> chain = Evaluator.chain((MathExpression) e);
+            Node node = prepare(chain.get(chain.size() - 1).getLeft(), formulas, slots);
+            Nodes.Arithmetic[] links = new Nodes.Arithmetic[chain.size()];
+            for (int i = 0; i < links.length; i++) {
+                MathExpression m = chain.get(links.length - 1 - i);
+                links[i] = arithmetic(m.getOperator(), node, prepare(m.getRight(), formulas, slots));
+                node = links[i];
+            }
+            return links.length < Nodes.Chain.MINIMUM_LENGTH ? node : new Nodes.Chain(links);
+        } else if (e instanceof NumberExpression) {
+            return new Nodes.Constant(((NumberExpression) e).getValue());
+        } else if (e instanceof VariableExpression) {
+            String name = ((VariableExpression) e).getName();
+            return name.indexOf(':') >= 0 ? new Nodes.Range(name)
+                    : new Nodes.Variable(slots.bind(name), name);
+        } else if (e instanceof BracketExpression) {
+            return prepare(((BracketExpression) e).getExpression(), formulas, slots);
+        } else if (e instanceof TextExpression) {
+            return new Nodes.Constant(((TextExpression) e).getText());
+        } else if (e instanceof MinusExpression) {
+            return new Nodes.Negate(prepare(((MinusExpression) e).getExpression(), formulas, slots));
+        } else if (e instanceof FunctionExpression) {
+            return prepare((FunctionExpression) e, formulas, slots);
+        } else if (e instanceof FormulaExpression) {
+            return prepare((FormulaExpression) e, formulas, slots);
+        } else if (e instanceof BoolExpression) {
+            BoolExpression b = (BoolExpression) e;
+            Node left = prepare(b.getLeft(), formulas, slots);
+            Node right = prepare(b.getRight(), formulas, slots);
+            switch (b.getOperator()) {
+                case G:
+                    return new Nodes.Greater(left, right);
+                case GE:
+                    return new Nodes.GreaterOrEqual(left, right);
+                case E:
+                    return new Nodes.Equal(left, right);
+                case L:
+                    return new Nodes.Less(left, right);
+                case LE:
+                    return new Nodes.LessOrEqual(left, right);
+                case NE:
+                    return new Nodes.NotEqual(left, right);
+            }
+        }
+        return new Nodes.Constant(null);
+    }
+
+    /**
+     * Creates the node of a math operator.
+     *
+     * @param operator the operator
+     * @param left the left
+     * @param right the right
+     * @return the node
+     */
+    private static Nodes.Arithmetic arithmetic(MathExpression.Operator operator, Node left, Node right) {
+        switch (operator) {
+            case ADD:
+                return new Nodes.Add(left, right);
+            case SUB:
+                return new Nodes.Subtract(left, right);
+            case MUL:
+                return new Nodes.Multiply(left, right);
+            case DIV:
+                return new Nodes.Divide(left, right);
+            default:
+                return new Nodes.Power(left, right);
+        }
+    }
+
+    /**
+     * Prepare a function call.
+     *
+     * @param e the expression
+     * @param formulas the nodes of the referenced formulas by name
+     * @param slots the slots of the variables
+     * @return the node
+     */
+    private Node prepare(FunctionExpression e, Function<String, Node> formulas, VariableSlots slots) {
+        IFunction<Object, ?> function = functions == null ? null
+                : PrimitiveFunctions.boxed(functions.get(e.getName()));
+        List<Expression> params = e.getParams();
+        Node[] nodes = new Node[params.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = prepare(params.get(i), formulas, slots);
+        }
+
+        if (function instanceof DeterministicFunction && isConstant(e, functions)) {
+            // the params have the same values on every evaluation, which need no variables
+            EvaluationContext context = new EvaluationContext(Collections.emptyMap());
+            Object[] values = new Object[nodes.length];
+            try {
+                for (int i = 0; i < nodes.length; i++) {
+                    values[i] = nodes[i].evaluate(context);
+                }
+                return new Nodes.Constant(function.calculate(values));
+            } catch (RuntimeException ex) {
+                // the call fails when it is evaluated, which a lazy function may never do, so it is not folded
+            }
+        }
+        if (function instanceof ILazyFunction) {
+            return new Nodes.LazyFunction((ILazyFunction<?>) function, nodes);
+        } else if (PrimitiveFunctions.isDouble(function, nodes.length)) {
+            if (function instanceof IDoubleFunction) {
+                return new Nodes.DoubleFunction1((IDoubleFunction) function, nodes[0]);
+            } else if (function instanceof IDoubleBinaryFunction) {
+                return new Nodes.DoubleFunction2((IDoubleBinaryFunction) function, nodes[0], nodes[1]);
+            }
+            return new Nodes.DoubleFunctionN((IDoubleArrayFunction) function, nodes);
+        } else if (PrimitiveFunctions.isBoolean(function, nodes.length)) {
+            if (function instanceof IDoublePredicate) {
+                return new Nodes.DoublePredicate1((IDoublePredicate) function, nodes[0]);
+            }
+            return new Nodes.DoublePredicate2((IDoubleBinaryPredicate) function, nodes[0], nodes[1]);
+        }
+        switch (nodes.length) {
+            case 0:
+                return new Nodes.Function0(function);
+            case 1:
+                return new Nodes.Function1(function, nodes[0]);
+            case 2:
+                return new Nodes.Function2(function, nodes[0], nodes[1]);
+            case 3:
+                return new Nodes.Function3(function, nodes[0], nodes[1], nodes[2]);
+            default:
+                return new Nodes.FunctionN(function, nodes);
+        }
+    }
+
+    /**
+     * Checks whether an expression has the same result on every evaluation: it consists of numbers, texts, operators
+     * and calls of {@link DeterministicFunction deterministic functions} only.
+     *
+     * @param e the expression
+     * @param functions the functions
+     * @return {@code true} if so
+     */
+    static boolean isConstant(Expression e, Map<String, IFunction<? extends Object, ? extends Object>> functions) {
+        if (e instanceof NumberExpression || e instanceof TextExpression) {
+            return true;
+        } else if (e instanceof BracketExpression) {
+            return isConstant(((BracketExpression) e).getExpression(), functions);
+        } else if (e instanceof MinusExpression) {
+            return isConstant(((MinusExpression) e).getExpression(), functions);
+        } else if (e instanceof MathExpression) {
+            List<MathExpression> chain = Evaluator.chain((MathExpression) e);
+            for (MathExpression m : chain) {
+                if (!isConstant(m.getRight(), functions)) {
+                    return false;
+                }
+            }
+            return isConstant(chain.get(chain.size() - 1).getLeft(), functions);
+        } else if (e instanceof BoolExpression) {
+            return isConstant(((BoolExpression) e).getLeft(), functions)
+                    && isConstant(((BoolExpression) e).getRight(), functions);
+        } else if (e instanceof FunctionExpression) {
+            FunctionExpression f = (FunctionExpression) e;
+            if (functions == null || !(functions.get(f.getName()) instanceof DeterministicFunction)) {
+                return false;
+            }
+            for (Expression param : f.getParams()) {
+                if (!isConstant(param, functions)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Prepare a formula reference.
+     *
+     * @param e the expression
+     * @param formulas the nodes of the referenced formulas by name
+     * @param slots the slots of the variables
+     * @return the node
+     */
+    private Node prepare(FormulaExpression e, Function<String, Node> formulas, VariableSlots slots) {
+        Node node = formulas.apply(e.getName());
+        return node == null ? new Nodes.Constant(null) : node;
+    }
+
+    /**
+     * Prepares the referenced formulas. Every formula is prepared only once per preparation, even if it is referenced
+     * several times. Cyclic references are rejected before the formula is prepared.
+     */
+    private class FormulaPreparation implements Function<String, Node> {
+        /**
+         * The already prepared formulas.
+         */
+        private final Map<String, Nodes.Formula> formulas = new HashMap<>();
+        /**
+         * The names of the formulas checked for cyclic references.
+         */
+        private final Set<String> acyclic = new HashSet<>();
+        /**
+         * The Slots.
+         */
+        private final VariableSlots slots;
+
+        /**
+         * Instantiates a new Formula preparation.
+         *
+         * @param slots the slots
+         */
+        FormulaPreparation(VariableSlots slots) {
+            this.slots = slots;
+        }
+
+        @Override
+        public Node apply(String name) {
+            Expression formula = expressions == null ? null : expressions.get(name);
+            if (formula == null) {
+                return null;
+            }
+
+            Nodes.Formula node = formulas.get(name);
+            if (node == null) {
+                FormulaReferences.checkCycles(expressions, name, acyclic);
+                node = new Nodes.Formula(this, formulas.size());
+                formulas.put(name, node);
+                node.setTarget(ExpressionPreparer.this.prepare(formula, this, slots));
+            } else {
+                node.share();
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package evaluation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import parser.BoolExpression;
+import parser.BracketExpression;
+import parser.Expression;
+import parser.FormulaExpression;
+import parser.FunctionExpression;
+import parser.MathExpression;
+import parser.MinusExpression;
+import parser.VariableExpression;
+
+/**
+ * Finds the formulas and variables referenced by expressions and cyclic references between formulas.
+ *
+ * @author sedoe
+ */
+final class FormulaReferences {
+
+    /**
+     * No instances.
+     */
+    private FormulaReferences() {
+    }
+
+    /**
+     * Collects the names of the formulas and variables referenced by an expression.
+     *
+     * @param e the expression
+     * @param references the names of the referenced formulas
+     * @param variables the names of the read variables and ranges of variables or {@code null} if not needed
+     */
+    static void collect(Expression e, Set<String> references, Set<String> variables) {
+        while (e instanceof MathExpression) {
+            // walk left-recursive chains like a1+a2+...+an without recursion
+            collect(((MathExpression) e).getRight(), references, variables);
+            e = ((MathExpression) e).getLeft();
+        }
+        if (e instanceof BoolExpression) {
+            collect(((BoolExpression) e).getLeft(), references, variables);
+            collect(((BoolExpression) e).getRight(), references, variables);
+        } else if (e instanceof VariableExpression) {
+            if (variables != null) {
+                variables.add(((VariableExpression) e).getName());
+            }
+        } else if (e instanceof BracketExpression) {
+            collect(((BracketExpression) e).getExpression(), references, variables);
+        } else if (e instanceof MinusExpression) {
+            collect(((MinusExpression) e).getExpression(), references, variables);
+        } else if (e instanceof FunctionExpression) {
+            for (Expression param : ((FunctionExpression) e).getParams()) {
+                collect(param, references, variables);
+            }
+        } else if (e instanceof FormulaExpression) {
+            references.add(((FormulaExpression) e).getName());
+        }
+    }
+
+    /**
+     * Checks that no formula reachable from the given one references itself directly or indirectly.
+     *
+     * @param expressions the formulas by name
+     * @param name the name of the formula
+     * @param acyclic the names of the formulas already known to be free of cycles, extended by the checked ones
+     * @throws IllegalArgumentException if there is a cycle
+     */
+    static void checkCycles(Map<String, Expression> expressions, String name, Set<String> acyclic) {
+        if (expressions != null && !acyclic.contains(name)) {
+            visit(expressions, name, new ArrayList<>(), new HashSet<>(), acyclic);
+        }
+    }
+
+    /**
+     * Visits a formula and the formulas it references depth first.
+     *
+     * @param expressions the formulas by name
+     * @param name the name of the formula
+     * @param path the formulas from the checked one to the current one
+     * @param onPath the names of the formulas on the path
+     * @param acyclic the names of the formulas known to be free of cycles
+     */
+    private static void visit(Map<String, Expression> expressions, String name, List<String> path,
+            Set<String> onPath, Set<String> acyclic) {
+        if (acyclic.contains(name)) {
+            return;
+        }
+        if (!onPath.add(name)) {
+            StringBuilder cycle = new StringBuilder();
+            for (String formula : path.subList(path.indexOf(name), path.size())) {
+                cycle.append(formula).append(" -> ");
+            }
+            throw new IllegalArgumentException("Cyclic reference between the formulas " + cycle.append(name));
+        }
+        path.add(name);
+
+        Expression e = expressions.get(name);
+        if (e != null) {
+            Set<String> references = new LinkedHashSet<>();
+            collect(e, references, null);
+            for (String reference : references) {
+                visit(expressions, reference, path, onPath, acyclic);
+            }
+        }
+
+        path.remove(path.size() - 1);
+        onPath.remove(name);
+        acyclic.add(name);
+    }
+}
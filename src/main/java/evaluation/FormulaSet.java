@@ -0,0 +1,373 @@
+package evaluation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import parser.Expression;
+
+/**
+ * A set of named formulas with cached results, recalculated incrementally like a spreadsheet.
+ * <p>
+ * The set builds a dependency graph over the formulas and the variables each formula reads. Every formula is prepared
+ * once; a reference to another formula reads the cached result of that formula instead of evaluating it again. When a
+ * variable changes, only the formulas depending on it directly or indirectly are marked dirty, and
+ * {@link #recalculate()} evaluates exactly these formulas in topological order, so every formula is evaluated after
+ * the formulas it references.
+ * <p>
+ * A formula set is not thread safe.
+ *
+ * @author sedoe
+ */
+public class FormulaSet {
+    /**
+     * The names of the formulas in topological order.
+     */
+    private final String[] names;
+    /**
+     * The positions in the topological order by formula name.
+     */
+    private final Map<String, Integer> positions = new HashMap<>();
+    /**
+     * The prepared formulas in topological order.
+     */
+    private final Node[] nodes;
+    /**
+     * The cached results in topological order.
+     */
+    private final Object[] results;
+    /**
+     * The positions of the formulas referencing a formula directly, in topological order.
+     */
+    private final int[][] dependents;
+    /**
+     * The positions of the formulas reading a variable directly, by variable name.
+     */
+    private final Map<String, int[]> readers = new HashMap<>();
+    /**
+     * The ranges of variables read by the formulas.
+     */
+    private final List<RangeDependency> ranges = new ArrayList<>();
+    /**
+     * The positions of the formulas to recalculate.
+     */
+    private final BitSet dirty = new BitSet();
+    /**
+     * The Values, sorted by name for the ranges of variables.
+     */
+    private final TreeMap<String, Object> values;
+    /**
+     * The context holding the variables in slots.
+     */
+    private final EvaluationContext context;
+
+    /**
+     * Instantiates a new Formula set. All formulas are dirty until the first recalculation.
+     *
+     * @param functions the functions
+     * @param values the initial values of the variables
+     * @param expressions the formulas by name
+     * @throws IllegalArgumentException if formulas reference each other cyclically
+     */
+    public FormulaSet(Map<String, IFunction<? extends Object, ? extends Object>> functions,
+            Map<String, Object> values,
+            Map<String, Expression> expressions) {
+        this.values = values == null ? new TreeMap<>() : new TreeMap<>(values);
+
+        Map<String, Set<String>> references = new HashMap<>();
+        Map<String, Set<String>> variables = new HashMap<>();
+        for (Map.Entry<String, Expression> entry : expressions.entrySet()) {
+            Set<String> formulaReferences = new LinkedHashSet<>();
+            Set<String> formulaVariables = new LinkedHashSet<>();
+            FormulaReferences.collect(entry.getValue(), formulaReferences, formulaVariables);
+            formulaReferences.retainAll(expressions.keySet());
+            references.put(entry.getKey(), formulaReferences);
+            variables.put(entry.getKey(), formulaVariables);
+        }
+
+        this.names = sort(references);
+        for (int i = 0; i < names.length; i++) {
+            positions.put(names[i], i);
+        }
+
+        List<List<Integer>> dependentLists = new ArrayList<>();
+        Map<String, List<Integer>> readerLists = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            dependentLists.add(new ArrayList<>());
+        }
+        for (int i = 0; i < names.length; i++) {
+            for (String reference : references.get(names[i])) {
+                dependentLists.get(positions.get(reference)).add(i);
+            }
+            for (String variable : variables.get(names[i])) {
+                int colon = variable.indexOf(':');
+                if (colon >= 0) {
+                    ranges.add(new RangeDependency(variable.substring(0, colon),
+                            variable.substring(variable.lastIndexOf(':') + 1), i));
+                } else {
+                    readerLists.computeIfAbsent(variable, name -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+        this.dependents = new int[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            dependents[i] = toArray(dependentLists.get(i));
+        }
+        for (Map.Entry<String, List<Integer>> entry : readerLists.entrySet()) {
+            readers.put(entry.getKey(), toArray(entry.getValue()));
+        }
+
+        VariableSlots slots = new VariableSlots();
+        ExpressionPreparer preparer = new ExpressionPreparer(functions, this.values, expressions);
+        this.nodes = new Node[names.length];
+        this.results = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            nodes[i] = preparer.prepare(expressions.get(names[i]), name -> {
+                Integer position = positions.get(name);
+                return position == null ? null : new Result(position);
+            }, slots);
+        }
+        this.context = new EvaluationContext(slots, this.values);
+        for (int slot = 0; slot < slots.size(); slot++) {
+            context.set(slot, this.values.get(slots.getName(slot)));
+        }
+        dirty.set(0, names.length);
+    }
+
+    /**
+     * Sets the value of a variable and marks the formulas depending on it as dirty.
+     *
+     * @param name the name
+     * @param value the value
+     */
+    public void setValue(String name, Object value) {
+        values.put(name, value);
+        context.set(name, value);
+        int[] direct = readers.get(name);
+        if (direct != null) {
+            for (int position : direct) {
+                markDirty(position);
+            }
+        }
+        for (RangeDependency range : ranges) {
+            if (range.contains(name)) {
+                markDirty(range.position);
+            }
+        }
+    }
+
+    /**
+     * Gets the value of a variable.
+     *
+     * @param name the name
+     * @return the value
+     */
+    public Object getValue(String name) {
+        return values.get(name);
+    }
+
+    /**
+     * Gets the result of a formula, recalculating the dirty formulas first.
+     *
+     * @param <T> the type of the result object
+     * @param name the name of the formula
+     * @return the result or {@code null} if there is no such formula
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String name) {
+        Integer position = positions.get(name);
+        if (position == null) {
+            return null;
+        }
+        recalculate();
+        return (T) results[position];
+    }
+
+    /**
+     * Evaluates all dirty formulas in topological order.
+     *
+     * @return the number of evaluated formulas
+     */
+    public int recalculate() {
+        int count = 0;
+        for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+            results[i] = nodes[i].evaluate(context);
+            count++;
+        }
+        dirty.clear();
+        return count;
+    }
+
+    /**
+     * Checks whether a formula has to be recalculated.
+     *
+     * @param name the name of the formula
+     * @return {@code true} if so
+     */
+    public boolean isDirty(String name) {
+        Integer position = positions.get(name);
+        return position != null && dirty.get(position);
+    }
+
+    /**
+     * Gets the names of the formulas, ordered so that every formula follows the formulas it references.
+     *
+     * @return the names
+     */
+    public List<String> getFormulaNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * Marks a formula and all formulas depending on it as dirty.
+     *
+     * @param position the position of the formula
+     */
+    private void markDirty(int position) {
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(position);
+        while (!pending.isEmpty()) {
+            int current = pending.pop();
+            if (!dirty.get(current)) {
+                dirty.set(current);
+                for (int dependent : dependents[current]) {
+                    pending.push(dependent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts the formulas topologically, so every formula follows the formulas it references.
+     *
+     * @param references the names of the referenced formulas by formula name
+     * @return the sorted names
+     * @throws IllegalArgumentException if formulas reference each other cyclically
+     */
+    private static String[] sort(Map<String, Set<String>> references) {
+        Map<String, Integer> pendingReferences = new HashMap<>();
+        Map<String, List<String>> referencing = new HashMap<>();
+        Deque<String> ready = new ArrayDeque<>();
+        for (Map.Entry<String, Set<String>> entry : references.entrySet()) {
+            pendingReferences.put(entry.getKey(), entry.getValue().size());
+            for (String reference : entry.getValue()) {
+                referencing.computeIfAbsent(reference, name -> new ArrayList<>()).add(entry.getKey());
+            }
+            if (entry.getValue().isEmpty()) {
+                ready.add(entry.getKey());
+            }
+        }
+
+        String[] sorted = new String[references.size()];
+        int count = 0;
+        while (!ready.isEmpty()) {
+            String name = ready.poll();
+            sorted[count++] = name;
+            for (String dependent : referencing.getOrDefault(name, Collections.emptyList())) {
+                if (pendingReferences.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        if (count < sorted.length) {
+            Set<String> cyclic = new TreeSet<>();
+            for (Map.Entry<String, Integer> entry : pendingReferences.entrySet()) {
+                if (entry.getValue() > 0) {
+                    cyclic.add(entry.getKey());
+                }
+            }
+            throw new IllegalArgumentException("Cyclic references between the formulas " + cyclic);
+        }
+        return sorted;
+    }
+
+    /**
+     * Converts a list of positions to an array.
+     *
+     * @param list the list
+     * @return the array
+     */
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * A range of variables read by a formula.
+     */
+    private static final class RangeDependency {
+        /**
+         * The First name.
+         */
+        private final String firstName;
+        /**
+         * The Last name.
+         */
+        private final String lastName;
+        /**
+         * The position of the formula.
+         */
+        private final int position;
+
+        /**
+         * Instantiates a new Range dependency.
+         *
+         * @param firstName the first name
+         * @param lastName the last name
+         * @param position the position of the formula
+         */
+        RangeDependency(String firstName, String lastName, int position) {
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.position = position;
+        }
+
+        /**
+         * Checks whether a variable is in the range.
+         *
+         * @param name the name of the variable
+         * @return {@code true} if so
+         */
+        boolean contains(String name) {
+            return firstName.compareTo(name) <= 0 && lastName.compareTo(name) >= 0;
+        }
+    }
+
+    /**
+     * A reference to another formula, reading its cached result.
+     */
+    private final class Result extends Node {
+        /**
+         * The position of the referenced formula.
+         */
+        private final int position;
+
+        /**
+         * Instantiates a new Result.
+         *
+         * @param position the position of the referenced formula
+         */
+        Result(int position) {
+            this.position = position;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            return results[position];
+        }
+    }
+}
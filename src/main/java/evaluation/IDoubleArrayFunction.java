@@ -0,0 +1,27 @@
+package evaluation;
+
+/**
+ * A function of any number of doubles to a double, e.g. {@code sum}.
+ * <p>
+ * The evaluator, prepared and compiled expressions call {@link #calculateDouble(double[])} with the primitive values of
+ * the parameters. The values of a range of variables are passed one by one, in place of the range. A value which is no
+ * number is passed as {@link Double#NaN}.
+ *
+ * @author sedoe
+ */
+@FunctionalInterface
+public interface IDoubleArrayFunction extends IFunction<Object, Double> {
+
+    /**
+     * Calculate the result.
+     *
+     * @param values the values, owned by the function
+     * @return the result
+     */
+    double calculateDouble(double[] values);
+
+    @Override
+    default Double calculate(Object... params) {
+        return calculateDouble(PrimitiveFunctions.toDoubles(params));
+    }
+}
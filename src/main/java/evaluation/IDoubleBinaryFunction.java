@@ -0,0 +1,28 @@
+package evaluation;
+
+/**
+ * A function of two doubles to a double, e.g. {@code max}.
+ * <p>
+ * The evaluator, prepared and compiled expressions call {@link #calculateDouble(double, double)} with the primitive
+ * values of the parameters, without a parameter array and without boxing. A parameter which is no number is passed as
+ * {@link Double#NaN}.
+ *
+ * @author sedoe
+ */
+@FunctionalInterface
+public interface IDoubleBinaryFunction extends IFunction<Object, Double> {
+
+    /**
+     * Calculate the result.
+     *
+     * @param left the first value
+     * @param right the second value
+     * @return the result
+     */
+    double calculateDouble(double left, double right);
+
+    @Override
+    default Double calculate(Object... params) {
+        return calculateDouble(PrimitiveFunctions.toDouble(params[0]), PrimitiveFunctions.toDouble(params[1]));
+    }
+}
@@ -0,0 +1,28 @@
+package evaluation;
+
+/**
+ * A predicate of two doubles, e.g. {@code near}.
+ * <p>
+ * The evaluator, prepared and compiled expressions call {@link #test(double, double)} with the primitive values of the
+ * parameters, without a parameter array and without boxing. A parameter which is no number is passed as
+ * {@link Double#NaN}.
+ *
+ * @author sedoe
+ */
+@FunctionalInterface
+public interface IDoubleBinaryPredicate extends IFunction<Object, Boolean> {
+
+    /**
+     * Test the values.
+     *
+     * @param left the first value
+     * @param right the second value
+     * @return the result
+     */
+    boolean test(double left, double right);
+
+    @Override
+    default Boolean calculate(Object... params) {
+        return test(PrimitiveFunctions.toDouble(params[0]), PrimitiveFunctions.toDouble(params[1]));
+    }
+}
@@ -0,0 +1,27 @@
+package evaluation;
+
+/**
+ * A function of one double to a double, e.g. {@code sqrt}.
+ * <p>
+ * The evaluator, prepared and compiled expressions call {@link #calculateDouble(double)} with the primitive value of
+ * the parameter, without a parameter array and without boxing. A parameter which is no number is passed as
+ * {@link Double#NaN}.
+ *
+ * @author sedoe
+ */
+@FunctionalInterface
+public interface IDoubleFunction extends IFunction<Object, Double> {
+
+    /**
+     * Calculate the result.
+     *
+     * @param value the value
+     * @return the result
+     */
+    double calculateDouble(double value);
+
+    @Override
+    default Double calculate(Object... params) {
+        return calculateDouble(PrimitiveFunctions.toDouble(params[0]));
+    }
+}
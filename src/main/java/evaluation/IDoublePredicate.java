@@ -0,0 +1,27 @@
+package evaluation;
+
+/**
+ * A predicate of one double, e.g. {@code isPositive}.
+ * <p>
+ * The evaluator, prepared and compiled expressions call {@link #test(double)} with the primitive value of the
+ * parameter, without a parameter array and without boxing. A parameter which is no number is passed as
+ * {@link Double#NaN}.
+ *
+ * @author sedoe
+ */
+@FunctionalInterface
+public interface IDoublePredicate extends IFunction<Object, Boolean> {
+
+    /**
+     * Test the value.
+     *
+     * @param value the value
+     * @return the result
+     */
+    boolean test(double value);
+
+    @Override
+    default Boolean calculate(Object... params) {
+        return test(PrimitiveFunctions.toDouble(params[0]));
+    }
+}
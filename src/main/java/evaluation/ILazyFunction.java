@@ -0,0 +1,28 @@
+package evaluation;
+
+/**
+ * A function which evaluates its arguments itself, only when it needs them.
+ * <p>
+ * Conditional and logical functions like {@code when(cond; a; b)}, {@code und(..)} or {@code oder(..)} evaluate only
+ * the arguments deciding the result, so the untaken branches cost nothing. The evaluator, prepared and compiled
+ * expressions call {@link #calculate(Arguments)} for lazy functions; a call with evaluated values is passed on to it.
+ *
+ * @param <R> the type of the result
+ * @author sedoe
+ */
+@FunctionalInterface
+public interface ILazyFunction<R> extends IFunction<Object, R> {
+
+    /**
+     * Calculate the result.
+     *
+     * @param arguments the arguments, evaluated on demand
+     * @return the result
+     */
+    R calculate(Arguments arguments);
+
+    @Override
+    default R calculate(Object... params) {
+        return calculate(Arguments.of(params));
+    }
+}
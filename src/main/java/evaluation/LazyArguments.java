@@ -0,0 +1,45 @@
+package evaluation;
+
+import java.util.Arrays;
+
+/**
+ * Arguments evaluated on demand, each at most once.
+ *
+ * @author sedoe
+ */
+abstract class LazyArguments implements Arguments {
+    /**
+     * The marker of an argument not evaluated yet.
+     */
+    private static final Object PENDING = new Object();
+
+    /**
+     * The values of the evaluated arguments, {@link #PENDING} for the others, {@code null} before the first read.
+     */
+    private Object[] values;
+
+    @Override
+    public final Object get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Argument " + index + " of " + size());
+        }
+        if (values == null) {
+            values = new Object[size()];
+            Arrays.fill(values, PENDING);
+        }
+        Object value = values[index];
+        if (value == PENDING) {
+            value = evaluate(index);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Evaluate an argument.
+     *
+     * @param index the index
+     * @return the value
+     */
+    abstract Object evaluate(int index);
+}
@@ -0,0 +1,69 @@
+package evaluation;
+
+/**
+ * A node of a prepared expression.
+ * <p>
+ * Every node is specialized for one operator, function arity or variable, so evaluating it is a single virtual call
+ * without any further dispatching on the type of the expression.
+ *
+ * @author sedoe
+ * @see ExpressionPreparer
+ */
+abstract class Node {
+
+    /**
+     * Evaluate the node.
+     *
+     * @param context the context of the evaluation
+     * @return the result
+     */
+    abstract Object evaluate(EvaluationContext context);
+
+    /**
+     * Evaluate the node to a primitive double.
+     *
+     * @param context the context of the evaluation
+     * @return the result or {@link Double#NaN} if the result is no number
+     */
+    double evaluateDouble(EvaluationContext context) {
+        Object result = evaluate(context);
+        return result instanceof Number ? ((Number) result).doubleValue() : Double.NaN;
+    }
+
+    /**
+     * Evaluate the node to primitive doubles for a block of rows.
+     * <p>
+     * This implementation evaluates the rows one by one with {@link #evaluateDouble(EvaluationContext)}. Nodes which
+     * can compute the results for the whole block at once override it.
+     *
+     * @param batch the batch
+     * @param offset the first row of the block
+     * @param length the number of rows of the block
+     * @param out the results, starting at index 0
+     */
+    void evaluateDoubles(Batch batch, int offset, int length, double[] out) {
+        for (int i = 0; i < length; i++) {
+            out[i] = evaluateDouble(batch.row(offset + i));
+        }
+    }
+
+    /**
+     * Evaluate the node to a primitive boolean.
+     *
+     * @param context the context of the evaluation
+     * @return {@code true} if the result is {@link Boolean#TRUE}
+     */
+    boolean evaluateBoolean(EvaluationContext context) {
+        return Boolean.TRUE.equals(evaluate(context));
+    }
+
+    /**
+     * Checks whether the result of this node is always a number, so {@link #evaluateDouble(EvaluationContext)} may be
+     * used instead of {@link #evaluate(EvaluationContext)} without changing the result.
+     *
+     * @return {@code true} if so
+     */
+    boolean isNumeric() {
+        return false;
+    }
+}
@@ -0,0 +1,1231 @@
+package evaluation;
+
+import java.util.Arrays;
+
+/**
+ * The node types of prepared expressions.
+ *
+ * @author sedoe
+ */
+final class Nodes {
+
+    /**
+     * Instantiates a new Nodes.
+     */
+    private Nodes() {
+    }
+
+    /**
+     * A constant number or text.
+     */
+    static final class Constant extends Node {
+        /**
+         * The Value.
+         */
+        private final Object value;
+        /**
+         * The value as primitive double.
+         */
+        private final double doubleValue;
+
+        /**
+         * Instantiates a new Constant.
+         *
+         * @param value the value
+         */
+        Constant(Object value) {
+            this.value = value;
+            this.doubleValue = value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            return value;
+        }
+
+        @Override
+        double evaluateDouble(EvaluationContext context) {
+            return doubleValue;
+        }
+
+        @Override
+        void evaluateDoubles(Batch batch, int offset, int length, double[] out) {
+            Arrays.fill(out, 0, length, doubleValue);
+        }
+
+        @Override
+        boolean isNumeric() {
+            return value instanceof Number;
+        }
+    }
+
+    /**
+     * A single variable.
+     */
+    static final class Variable extends Node {
+        /**
+         * The Slot.
+         */
+        private final int slot;
+        /**
+         * The Name, used if the context has no slots.
+         */
+        private final String name;
+
+        /**
+         * Instantiates a new Variable.
+         *
+         * @param slot the slot
+         * @param name the name
+         */
+        Variable(int slot, String name) {
+            this.slot = slot;
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            return context.get(slot, name);
+        }
+
+        @Override
+        double evaluateDouble(EvaluationContext context) {
+            return context.getDouble(slot, name);
+        }
+
+        @Override
+        void evaluateDoubles(Batch batch, int offset, int length, double[] out) {
+            double[] column = batch.column(slot);
+            if (column != null) {
+                System.arraycopy(column, offset, out, 0, length);
+            } else {
+                Arrays.fill(out, 0, length, batch.context().getDouble(slot, name));
+            }
+        }
+    }
+
+    /**
+     * A range of variables ({@code first:last}).
+     */
+    static final class Range extends Node {
+        /**
+         * The First name.
+         */
+        private final String firstName;
+        /**
+         * The Last name.
+         */
+        private final String lastName;
+
+        /**
+         * Instantiates a new Range.
+         *
+         * @param name the name
+         */
+        Range(String name) {
+            this.firstName = name.substring(0, name.indexOf(':'));
+            this.lastName = name.substring(name.lastIndexOf(':') + 1);
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            return Evaluator.range(context.getValues(), firstName, lastName);
+        }
+    }
+
+    /**
+     * The base of the math operators. The result is {@code null} if one of the operands is no number.
+     */
+    abstract static class Arithmetic extends Node {
+        /**
+         * The Left.
+         */
+        private final Node left;
+        /**
+         * The Right.
+         */
+        private final Node right;
+        /**
+         * Whether both operands are always numbers.
+         */
+        private final boolean numeric;
+
+        /**
+         * Instantiates a new Arithmetic.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        Arithmetic(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+            this.numeric = left.isNumeric() && right.isNumeric();
+        }
+
+        @Override
+        final Object evaluate(EvaluationContext context) {
+            if (numeric) {
+                return calculate(left.evaluateDouble(context), right.evaluateDouble(context));
+            }
+            Object l = left.evaluate(context);
+            Object r = right.evaluate(context);
+            if (l instanceof Number && r instanceof Number) {
+                return calculate(((Number) l).doubleValue(), ((Number) r).doubleValue());
+            }
+            return null;
+        }
+
+        @Override
+        final double evaluateDouble(EvaluationContext context) {
+            return calculate(left.evaluateDouble(context), right.evaluateDouble(context));
+        }
+
+        @Override
+        final void evaluateDoubles(Batch batch, int offset, int length, double[] out) {
+            left.evaluateDoubles(batch, offset, length, out);
+            double[] r = batch.acquire();
+            right.evaluateDoubles(batch, offset, length, r);
+            calculate(out, r, length);
+            batch.release();
+        }
+
+        @Override
+        final boolean isNumeric() {
+            return numeric;
+        }
+
+        /**
+         * Calculate the result.
+         *
+         * @param l the left operand
+         * @param r the right operand
+         * @return the result
+         */
+        abstract double calculate(double l, double r);
+
+        /**
+         * Calculate the results for a block of rows.
+         *
+         * @param l the left operands, replaced by the results
+         * @param r the right operands
+         * @param length the number of rows
+         */
+        abstract void calculate(double[] l, double[] r, int length);
+    }
+
+    /**
+     * A left-recursive chain of math operators like {@code a1+a2+...+an}, evaluated in a loop instead of recursively,
+     * so the length of the chain is not limited by the stack size. The results are the same as the ones of the nested
+     * operators.
+     */
+    static final class Chain extends Node {
+        /**
+         * The minimum number of operators for which a chain is created.
+         */
+        static final int MINIMUM_LENGTH = 16;
+
+        /**
+         * The operators, the innermost first. The left operand of every operator is the previous one.
+         */
+        private final Arithmetic[] links;
+
+        /**
+         * Instantiates a new Chain.
+         *
+         * @param links the operators, the innermost first
+         */
+        Chain(Arithmetic[] links) {
+            this.links = links;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            // the numeric operators are the innermost ones, since their left operands have to be numeric too
+            int i = 0;
+            Object result;
+            if (links[0].numeric) {
+                double value = links[0].left.evaluateDouble(context);
+                for (; i < links.length && links[i].numeric; i++) {
+                    value = links[i].calculate(value, links[i].right.evaluateDouble(context));
+                }
+                result = value;
+            } else {
+                result = links[0].left.evaluate(context);
+            }
+
+            for (; i < links.length; i++) {
+                Object r = links[i].right.evaluate(context);
+                if (result instanceof Number && r instanceof Number) {
+                    result = links[i].calculate(((Number) result).doubleValue(), ((Number) r).doubleValue());
+                } else {
+                    result = null;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        double evaluateDouble(EvaluationContext context) {
+            double result = links[0].left.evaluateDouble(context);
+            for (Arithmetic link : links) {
+                result = link.calculate(result, link.right.evaluateDouble(context));
+            }
+            return result;
+        }
+
+        @Override
+        void evaluateDoubles(Batch batch, int offset, int length, double[] out) {
+            links[0].left.evaluateDoubles(batch, offset, length, out);
+            double[] r = batch.acquire();
+            for (Arithmetic link : links) {
+                link.right.evaluateDoubles(batch, offset, length, r);
+                link.calculate(out, r, length);
+            }
+            batch.release();
+        }
+
+        @Override
+        boolean isNumeric() {
+            return links[links.length - 1].numeric;
+        }
+    }
+
+    /**
+     * The {@code +} operator.
+     */
+    static final class Add extends Arithmetic {
+
+        /**
+         * Instantiates a new Add.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        Add(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double calculate(double l, double r) {
+            return l + r;
+        }
+
+        @Override
+        void calculate(double[] l, double[] r, int length) {
+            for (int i = 0; i < length; i++) {
+                l[i] = l[i] + r[i];
+            }
+        }
+    }
+
+    /**
+     * The {@code -} operator.
+     */
+    static final class Subtract extends Arithmetic {
+
+        /**
+         * Instantiates a new Subtract.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        Subtract(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double calculate(double l, double r) {
+            return l - r;
+        }
+
+        @Override
+        void calculate(double[] l, double[] r, int length) {
+            for (int i = 0; i < length; i++) {
+                l[i] = l[i] - r[i];
+            }
+        }
+    }
+
+    /**
+     * The {@code *} operator.
+     */
+    static final class Multiply extends Arithmetic {
+
+        /**
+         * Instantiates a new Multiply.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        Multiply(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double calculate(double l, double r) {
+            return l * r;
+        }
+
+        @Override
+        void calculate(double[] l, double[] r, int length) {
+            for (int i = 0; i < length; i++) {
+                l[i] = l[i] * r[i];
+            }
+        }
+    }
+
+    /**
+     * The {@code /} operator.
+     */
+    static final class Divide extends Arithmetic {
+
+        /**
+         * Instantiates a new Divide.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        Divide(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double calculate(double l, double r) {
+            return l / r;
+        }
+
+        @Override
+        void calculate(double[] l, double[] r, int length) {
+            for (int i = 0; i < length; i++) {
+                l[i] = l[i] / r[i];
+            }
+        }
+    }
+
+    /**
+     * The {@code ^} operator.
+     */
+    static final class Power extends Arithmetic {
+
+        /**
+         * Instantiates a new Power.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        Power(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double calculate(double l, double r) {
+            return Math.pow(l, r);
+        }
+
+        @Override
+        void calculate(double[] l, double[] r, int length) {
+            for (int i = 0; i < length; i++) {
+                l[i] = Math.pow(l[i], r[i]);
+            }
+        }
+    }
+
+    /**
+     * The unary {@code -} operator.
+     */
+    static final class Negate extends Node {
+        /**
+         * The Operand.
+         */
+        private final Node operand;
+        /**
+         * Whether the operand is always a number.
+         */
+        private final boolean numeric;
+
+        /**
+         * Instantiates a new Negate.
+         *
+         * @param operand the operand
+         */
+        Negate(Node operand) {
+            this.operand = operand;
+            this.numeric = operand.isNumeric();
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            if (numeric) {
+                return -operand.evaluateDouble(context);
+            }
+            return -(Double) operand.evaluate(context);
+        }
+
+        @Override
+        double evaluateDouble(EvaluationContext context) {
+            return -operand.evaluateDouble(context);
+        }
+
+        @Override
+        void evaluateDoubles(Batch batch, int offset, int length, double[] out) {
+            operand.evaluateDoubles(batch, offset, length, out);
+            for (int i = 0; i < length; i++) {
+                out[i] = -out[i];
+            }
+        }
+
+        @Override
+        boolean isNumeric() {
+            return numeric;
+        }
+    }
+
+    /**
+     * The base of the comparison operators. Numbers are compared as doubles, all other values by their natural order.
+     * The result is {@code null} if one of the operands is {@code null}.
+     */
+    abstract static class Comparison extends Node {
+        /**
+         * The Left.
+         */
+        private final Node left;
+        /**
+         * The Right.
+         */
+        private final Node right;
+        /**
+         * Whether both operands are always numbers.
+         */
+        private final boolean numeric;
+
+        /**
+         * Instantiates a new Comparison.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        Comparison(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+            this.numeric = left.isNumeric() && right.isNumeric();
+        }
+
+        @Override
+        final Object evaluate(EvaluationContext context) {
+            if (numeric) {
+                return test(Double.compare(left.evaluateDouble(context), right.evaluateDouble(context)));
+            }
+            Object l = left.evaluate(context);
+            Object r = right.evaluate(context);
+            if (l instanceof Number && r instanceof Number) {
+                return test(Double.compare(((Number) l).doubleValue(), ((Number) r).doubleValue()));
+            }
+            Object cl = l instanceof Number ? ((Number) l).doubleValue() : l;
+            Object cr = r instanceof Number ? ((Number) r).doubleValue() : r;
+            if (cl == null || cr == null) {
+                return null;
+            }
+            return test(cl, cr);
+        }
+
+        @Override
+        final boolean evaluateBoolean(EvaluationContext context) {
+            if (numeric) {
+                return test(Double.compare(left.evaluateDouble(context), right.evaluateDouble(context)));
+            }
+            return Boolean.TRUE.equals(evaluate(context));
+        }
+
+        /**
+         * Test the result of {@link Comparable#compareTo(Object)}. For two doubles this is also used for
+         * {@code <>}, as {@link Double#equals(Object)} is consistent with {@link Double#compare(double, double)}.
+         *
+         * @param comparison the result of the comparison
+         * @return the result
+         */
+        abstract boolean test(int comparison);
+
+        /**
+         * Test the operands.
+         *
+         * @param l the left operand, a {@link Comparable}
+         * @param r the right operand
+         * @return the result
+         */
+        @SuppressWarnings("unchecked")
+        boolean test(Object l, Object r) {
+            return test(((Comparable<Object>) l).compareTo(r));
+        }
+    }
+
+    /**
+     * The {@code >} operator.
+     */
+    static final class Greater extends Comparison {
+
+        /**
+         * Instantiates a new Greater.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        Greater(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(int comparison) {
+            return comparison > 0;
+        }
+    }
+
+    /**
+     * The {@code >=} operator.
+     */
+    static final class GreaterOrEqual extends Comparison {
+
+        /**
+         * Instantiates a new Greater or equal.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        GreaterOrEqual(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(int comparison) {
+            return comparison >= 0;
+        }
+    }
+
+    /**
+     * The {@code =} operator.
+     */
+    static final class Equal extends Comparison {
+
+        /**
+         * Instantiates a new Equal.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        Equal(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(int comparison) {
+            return comparison == 0;
+        }
+    }
+
+    /**
+     * The {@code <} operator.
+     */
+    static final class Less extends Comparison {
+
+        /**
+         * Instantiates a new Less.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        Less(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(int comparison) {
+            return comparison < 0;
+        }
+    }
+
+    /**
+     * The {@code <=} operator.
+     */
+    static final class LessOrEqual extends Comparison {
+
+        /**
+         * Instantiates a new Less or equal.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        LessOrEqual(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(int comparison) {
+            return comparison <= 0;
+        }
+    }
+
+    /**
+     * The {@code <>} operator.
+     */
+    static final class NotEqual extends Comparison {
+
+        /**
+         * Instantiates a new Not equal.
+         *
+         * @param left the left
+         * @param right the right
+         */
+        NotEqual(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(int comparison) {
+            return comparison != 0;
+        }
+
+        @Override
+        boolean test(Object l, Object r) {
+            return !l.equals(r);
+        }
+    }
+
+    /**
+     * A function without parameters.
+     */
+    static final class Function0 extends Node {
+        /**
+         * The Function.
+         */
+        private final IFunction<Object, ?> function;
+
+        /**
+         * Instantiates a new Function 0.
+         *
+         * @param function the function
+         */
+        Function0(IFunction<Object, ?> function) {
+            this.function = function;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            return function.calculate();
+        }
+    }
+
+    /**
+     * A function with one parameter.
+     */
+    static final class Function1 extends Node {
+        /**
+         * The Function.
+         */
+        private final IFunction<Object, ?> function;
+        /**
+         * The first parameter.
+         */
+        private final Node p0;
+
+        /**
+         * Instantiates a new Function 1.
+         *
+         * @param function the function
+         * @param p0 the first parameter
+         */
+        Function1(IFunction<Object, ?> function, Node p0) {
+            this.function = function;
+            this.p0 = p0;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            return function.calculate(p0.evaluate(context));
+        }
+    }
+
+    /**
+     * A function with two parameters.
+     */
+    static final class Function2 extends Node {
+        /**
+         * The Function.
+         */
+        private final IFunction<Object, ?> function;
+        /**
+         * The first parameter.
+         */
+        private final Node p0;
+        /**
+         * The second parameter.
+         */
+        private final Node p1;
+
+        /**
+         * Instantiates a new Function 2.
+         *
+         * @param function the function
+         * @param p0 the first parameter
+         * @param p1 the second parameter
+         */
+        Function2(IFunction<Object, ?> function, Node p0, Node p1) {
+            this.function = function;
+            this.p0 = p0;
+            this.p1 = p1;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            return function.calculate(p0.evaluate(context), p1.evaluate(context));
+        }
+    }
+
+    /**
+     * A function with three parameters.
+     */
+    static final class Function3 extends Node {
+        /**
+         * The Function.
+         */
+        private final IFunction<Object, ?> function;
+        /**
+         * The first parameter.
+         */
+        private final Node p0;
+        /**
+         * The second parameter.
+         */
+        private final Node p1;
+        /**
+         * The third parameter.
+         */
+        private final Node p2;
+
+        /**
+         * Instantiates a new Function 3.
+         *
+         * @param function the function
+         * @param p0 the first parameter
+         * @param p1 the second parameter
+         * @param p2 the third parameter
+         */
+        Function3(IFunction<Object, ?> function, Node p0, Node p1, Node p2) {
+            this.function = function;
+            this.p0 = p0;
+            this.p1 = p1;
+            this.p2 = p2;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            return function.calculate(p0.evaluate(context), p1.evaluate(context), p2.evaluate(context));
+        }
+    }
+
+    /**
+     * A function with any number of parameters.
+     */
+    static final class FunctionN extends Node {
+        /**
+         * The Function.
+         */
+        private final IFunction<Object, ?> function;
+        /**
+         * The Params.
+         */
+        private final Node[] params;
+
+        /**
+         * Instantiates a new Function n.
+         *
+         * @param function the function
+         * @param params the params
+         */
+        FunctionN(IFunction<Object, ?> function, Node[] params) {
+            this.function = function;
+            this.params = params;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            Object[] values = new Object[params.length];
+            for (int i = 0; i < params.length; i++) {
+                values[i] = params[i].evaluate(context);
+            }
+            return function.calculate(values);
+        }
+    }
+
+    /**
+     * A function of one double to a double.
+     */
+    static final class DoubleFunction1 extends Node {
+        /**
+         * The Function.
+         */
+        private final IDoubleFunction function;
+        /**
+         * The first parameter.
+         */
+        private final Node p0;
+
+        /**
+         * Instantiates a new Double function 1.
+         *
+         * @param function the function
+         * @param p0 the first parameter
+         */
+        DoubleFunction1(IDoubleFunction function, Node p0) {
+            this.function = function;
+            this.p0 = p0;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            return evaluateDouble(context);
+        }
+
+        @Override
+        double evaluateDouble(EvaluationContext context) {
+            return function.calculateDouble(p0.evaluateDouble(context));
+        }
+
+        @Override
+        boolean isNumeric() {
+            return true;
+        }
+    }
+
+    /**
+     * A function of two doubles to a double.
+     */
+    static final class DoubleFunction2 extends Node {
+        /**
+         * The Function.
+         */
+        private final IDoubleBinaryFunction function;
+        /**
+         * The first parameter.
+         */
+        private final Node p0;
+        /**
+         * The second parameter.
+         */
+        private final Node p1;
+
+        /**
+         * Instantiates a new Double function 2.
+         *
+         * @param function the function
+         * @param p0 the first parameter
+         * @param p1 the second parameter
+         */
+        DoubleFunction2(IDoubleBinaryFunction function, Node p0, Node p1) {
+            this.function = function;
+            this.p0 = p0;
+            this.p1 = p1;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            return evaluateDouble(context);
+        }
+
+        @Override
+        double evaluateDouble(EvaluationContext context) {
+            return function.calculateDouble(p0.evaluateDouble(context), p1.evaluateDouble(context));
+        }
+
+        @Override
+        boolean isNumeric() {
+            return true;
+        }
+    }
+
+    /**
+     * A function of any number of doubles to a double.
+     */
+    static final class DoubleFunctionN extends Node {
+        /**
+         * The Function.
+         */
+        private final IDoubleArrayFunction function;
+        /**
+         * The Params.
+         */
+        private final Node[] params;
+        /**
+         * Whether a parameter is a range of variables, whose values are passed one by one.
+         */
+        private final boolean ranges;
+
+        /**
+         * Instantiates a new Double function n.
+         *
+         * @param function the function
+         * @param params the params
+         */
+        DoubleFunctionN(IDoubleArrayFunction function, Node[] params) {
+            this.function = function;
+            this.params = params;
+            boolean ranges = false;
+            for (Node param : params) {
+                ranges |= param instanceof Range;
+            }
+            this.ranges = ranges;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            return evaluateDouble(context);
+        }
+
+        @Override
+        double evaluateDouble(EvaluationContext context) {
+            if (ranges) {
+                Object[] values = new Object[params.length];
+                for (int i = 0; i < params.length; i++) {
+                    values[i] = params[i].evaluate(context);
+                }
+                return function.calculateDouble(PrimitiveFunctions.toDoubles(values));
+            }
+            double[] values = new double[params.length];
+            for (int i = 0; i < params.length; i++) {
+                values[i] = params[i].evaluateDouble(context);
+            }
+            return function.calculateDouble(values);
+        }
+
+        @Override
+        boolean isNumeric() {
+            return true;
+        }
+    }
+
+    /**
+     * A predicate of one double.
+     */
+    static final class DoublePredicate1 extends Node {
+        /**
+         * The Function.
+         */
+        private final IDoublePredicate function;
+        /**
+         * The first parameter.
+         */
+        private final Node p0;
+
+        /**
+         * Instantiates a new Double predicate 1.
+         *
+         * @param function the function
+         * @param p0 the first parameter
+         */
+        DoublePredicate1(IDoublePredicate function, Node p0) {
+            this.function = function;
+            this.p0 = p0;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            return evaluateBoolean(context);
+        }
+
+        @Override
+        boolean evaluateBoolean(EvaluationContext context) {
+            return function.test(p0.evaluateDouble(context));
+        }
+    }
+
+    /**
+     * A predicate of two doubles.
+     */
+    static final class DoublePredicate2 extends Node {
+        /**
+         * The Function.
+         */
+        private final IDoubleBinaryPredicate function;
+        /**
+         * The first parameter.
+         */
+        private final Node p0;
+        /**
+         * The second parameter.
+         */
+        private final Node p1;
+
+        /**
+         * Instantiates a new Double predicate 2.
+         *
+         * @param function the function
+         * @param p0 the first parameter
+         * @param p1 the second parameter
+         */
+        DoublePredicate2(IDoubleBinaryPredicate function, Node p0, Node p1) {
+            this.function = function;
+            this.p0 = p0;
+            this.p1 = p1;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            return evaluateBoolean(context);
+        }
+
+        @Override
+        boolean evaluateBoolean(EvaluationContext context) {
+            return function.test(p0.evaluateDouble(context), p1.evaluateDouble(context));
+        }
+    }
+
+    /**
+     * A lazy function, the parameters are evaluated when the function reads them.
+     */
+    static final class LazyFunction extends Node {
+        /**
+         * The Function.
+         */
+        private final ILazyFunction<?> function;
+        /**
+         * The Params.
+         */
+        private final Node[] params;
+
+        /**
+         * Instantiates a new Lazy function.
+         *
+         * @param function the function
+         * @param params the params
+         */
+        LazyFunction(ILazyFunction<?> function, Node[] params) {
+            this.function = function;
+            this.params = params;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            return function.calculate(new LazyArguments() {
+                @Override
+                public int size() {
+                    return params.length;
+                }
+
+                @Override
+                Object evaluate(int index) {
+                    return params[index].evaluate(context);
+                }
+            });
+        }
+    }
+
+    /**
+     * A reference to another formula.
+     * <p>
+     * The target is set after construction, so formulas may reference each other. The result of a formula referenced
+     * more than once is kept for the pass, in the context by the index of the formula, or in the batch for the current
+     * block, so every formula is evaluated once per pass.
+     */
+    static final class Formula extends Node {
+        /**
+         * The preparation numbering the formulas.
+         */
+        private final Object owner;
+        /**
+         * The index of the formula within its preparation.
+         */
+        private final int index;
+        /**
+         * The Target.
+         */
+        private Node target;
+        /**
+         * Whether the result of the target is always a number.
+         */
+        private boolean numeric;
+        /**
+         * Whether the formula is referenced more than once, so its result is kept for the pass.
+         */
+        private boolean shared;
+
+        /**
+         * Instantiates a new Formula.
+         *
+         * @param owner the preparation numbering the formulas
+         * @param index the index of the formula within its preparation
+         */
+        Formula(Object owner, int index) {
+            this.owner = owner;
+            this.index = index;
+        }
+
+        /**
+         * Sets the target.
+         *
+         * @param target the target
+         */
+        void setTarget(Node target) {
+            this.target = target;
+            this.numeric = target.isNumeric();
+        }
+
+        /**
+         * Marks the formula as referenced more than once.
+         */
+        void share() {
+            shared = true;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext context) {
+            if (!shared) {
+                return target.evaluate(context);
+            } else if (context.hasFormula(owner, index)) {
+                return context.formulaValues[index];
+            }
+            Object result = target.evaluate(context);
+            context.setFormula(owner, index, result);
+            return result;
+        }
+
+        @Override
+        double evaluateDouble(EvaluationContext context) {
+            if (!shared || context.formulaOwner != owner) {
+                return target.evaluateDouble(context);
+            } else if (context.hasFormula(owner, index)) {
+                return PrimitiveFunctions.toDouble(context.formulaValues[index]);
+            } else if (numeric) {
+                double result = target.evaluateDouble(context);
+                context.setFormula(owner, index, result);
+                return result;
+            }
+            return PrimitiveFunctions.toDouble(evaluate(context));
+        }
+
+        @Override
+        void evaluateDoubles(Batch batch, int offset, int length, double[] out) {
+            if (!shared) {
+                target.evaluateDoubles(batch, offset, length, out);
+                return;
+            }
+            double[] block = batch.formulaBlock(owner, index, offset);
+            if (block != null) {
+                System.arraycopy(block, 0, out, 0, length);
+                return;
+            }
+            target.evaluateDoubles(batch, offset, length, out);
+            batch.setFormulaBlock(owner, index, offset, out, length);
+        }
+
+        @Override
+        boolean evaluateBoolean(EvaluationContext context) {
+            if (!shared || context.formulaOwner != owner) {
+                return target.evaluateBoolean(context);
+            }
+            return Boolean.TRUE.equals(evaluate(context));
+        }
+
+        @Override
+        boolean isNumeric() {
+            return numeric;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package evaluation;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An expression prepared by the {@link ExpressionPreparer} for repeated evaluation.
+ *
+ * @author sedoe
+ */
+public final class PreparedExpression {
+    /**
+     * The number of rows up to which {@link #evaluateBatchParallel(Map, int, double[])} evaluates in the calling
+     * thread.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 16 * Batch.BLOCK_SIZE;
+
+    /**
+     * The Root.
+     */
+    private final Node root;
+    /**
+     * The values used if no context is given.
+     */
+    private final Map<String, Object> values;
+    /**
+     * The Slots of the variables.
+     */
+    private final VariableSlots slots;
+    /**
+     * The preparation numbering the referenced formulas.
+     */
+    private final Object formulaOwner;
+    /**
+     * The number of referenced formulas, whose results are kept per pass.
+     */
+    private final int formulaCount;
+
+    /**
+     * Instantiates a new Prepared expression.
+     *
+     * @param root the root node
+     * @param values the values used if no context is given
+     * @param slots the slots of the variables
+     * @param formulaOwner the preparation numbering the referenced formulas
+     * @param formulaCount the number of referenced formulas
+     */
+    PreparedExpression(Node root, Map<String, Object> values, VariableSlots slots, Object formulaOwner,
+            int formulaCount) {
+        this.root = root;
+        this.values = values;
+        this.slots = slots;
+        this.formulaOwner = formulaOwner;
+        this.formulaCount = formulaCount;
+    }
+
+    /**
+     * Gets the slots of the variables.
+     *
+     * @return slots value
+     */
+    public VariableSlots getSlots() {
+        return slots;
+    }
+
+    /**
+     * Creates a new context holding the variables of this expression in slots. Ranges of variables are looked up in
+     * the values given to the preparer.
+     *
+     * @return the context
+     */
+    public EvaluationContext newContext() {
+        return new EvaluationContext(slots, values == null ? Collections.emptyMap() : values);
+    }
+
+    /**
+     * Evaluate the prepared expression.
+     *
+     * @param <T> the type of the result object
+     * @return the result
+     */
+    public <T> T evaluate() {
+        return evaluate(new EvaluationContext(values));
+    }
+
+    /**
+     * Evaluate the prepared expression with the values of the given context.
+     *
+     * @param <T> the type of the result object
+     * @param context the context of this evaluation
+     * @return the result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T evaluate(EvaluationContext context) {
+        checkSlots(context);
+        if (formulaCount == 0) {
+            return (T) root.evaluate(context);
+        }
+        context.enter(formulaOwner, formulaCount);
+        try {
+            return (T) root.evaluate(context);
+        } finally {
+            context.leave();
+        }
+    }
+
+    /**
+     * Evaluate the prepared expression to a primitive double. Numeric sub expressions are evaluated without boxing.
+     *
+     * @return the result or {@link Double#NaN} if the result is no number
+     */
+    public double evaluateDouble() {
+        return evaluateDouble(new EvaluationContext(values));
+    }
+
+    /**
+     * Evaluate the prepared expression to a primitive double with the values of the given context.
+     *
+     * @param context the context of this evaluation
+     * @return the result or {@link Double#NaN} if the result is no number
+     */
+    public double evaluateDouble(EvaluationContext context) {
+        checkSlots(context);
+        if (formulaCount == 0) {
+            return root.evaluateDouble(context);
+        }
+        context.enter(formulaOwner, formulaCount);
+        try {
+            return root.evaluateDouble(context);
+        } finally {
+            context.leave();
+        }
+    }
+
+    /**
+     * Evaluate the prepared expression to primitive doubles for many rows at once.
+     * <p>
+     * The values of the variables are given as columns, one array per variable with one value per row. Variables
+     * without a column have the same value in all rows, taken from the values given to the preparer. The expression is
+     * evaluated column-at-a-time, so the result of each row is the same as the one of
+     * {@link #evaluateDouble(EvaluationContext)} with the values of that row.
+     *
+     * @param columns the columns by variable name
+     * @param rows the number of rows
+     * @param result the results by row
+     */
+    public void evaluateBatch(Map<String, double[]> columns, int rows, double[] result) {
+        if (result.length < rows) {
+            throw new IllegalArgumentException("The result array has less than " + rows + " rows");
+        }
+        new Batch(slots, columns, values, rows, formulaOwner, formulaCount).evaluate(root, 0, rows, result);
+    }
+
+    /**
+     * Evaluate the prepared expression to primitive doubles for many rows at once, using the common fork-join pool.
+     *
+     * @param columns the columns by variable name
+     * @param rows the number of rows
+     * @param result the results by row
+     * @see #evaluateBatch(Map, int, double[], ForkJoinPool, int)
+     */
+    public void evaluateBatchParallel(Map<String, double[]> columns, int rows, double[] result) {
+        evaluateBatch(columns, rows, result, ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Evaluate the prepared expression to primitive doubles for many rows at once, in parallel.
+     * <p>
+     * The rows are split into chunks, which are evaluated by the workers of the pool, each with its own context and
+     * buffers. With up to {@code threshold} rows, or if the pool has a parallelism of 1, the rows are evaluated in the
+     * calling thread. The results are the same as the ones of {@link #evaluateBatch(Map, int, double[])}. The functions
+     * used by the expression are called concurrently and must be thread safe.
+     *
+     * @param columns the columns by variable name
+     * @param rows the number of rows
+     * @param result the results by row
+     * @param pool the pool
+     * @param threshold the number of rows up to which the rows are evaluated in the calling thread
+     */
+    public void evaluateBatch(Map<String, double[]> columns, int rows, double[] result, ForkJoinPool pool,
+            int threshold) {
+        if (rows <= threshold || pool.getParallelism() <= 1) {
+            evaluateBatch(columns, rows, result);
+            return;
+        }
+        if (result.length < rows) {
+            throw new IllegalArgumentException("The result array has less than " + rows + " rows");
+        }
+
+        // a few chunks per worker balance the load if some rows are more expensive than others
+        int chunks = pool.getParallelism() * 4;
+        int leafSize = Math.max(1, (rows / chunks + Batch.BLOCK_SIZE - 1) / Batch.BLOCK_SIZE) * Batch.BLOCK_SIZE;
+        pool.invoke(new Batch.Task(root, slots, columns, values, rows, formulaOwner, formulaCount, 0, rows, leafSize,
+                result));
+    }
+
+    /**
+     * Evaluate the prepared expression to a primitive boolean. Comparisons of numeric sub expressions are evaluated
+     * without boxing.
+     *
+     * @return {@code true} if the result is {@link Boolean#TRUE}
+     */
+    public boolean evaluateBoolean() {
+        return evaluateBoolean(new EvaluationContext(values));
+    }
+
+    /**
+     * Evaluate the prepared expression to a primitive boolean with the values of the given context.
+     *
+     * @param context the context of this evaluation
+     * @return {@code true} if the result is {@link Boolean#TRUE}
+     */
+    public boolean evaluateBoolean(EvaluationContext context) {
+        checkSlots(context);
+        if (formulaCount == 0) {
+            return root.evaluateBoolean(context);
+        }
+        context.enter(formulaOwner, formulaCount);
+        try {
+            return root.evaluateBoolean(context);
+        } finally {
+            context.leave();
+        }
+    }
+
+    /**
+     * Checks that a context holding the variables in slots uses the slots of this expression.
+     *
+     * @param context the context
+     */
+    private void checkSlots(EvaluationContext context) {
+        if (context.getSlots() != null && context.getSlots() != slots) {
+            throw new IllegalArgumentException("The context was created for other variable slots");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package evaluation;
+
+/**
+ * Helpers for the calls of functions with boxed params and with primitive doubles.
+ *
+ * @author sedoe
+ * @see IDoubleFunction
+ * @see IDoubleBinaryFunction
+ * @see IDoubleArrayFunction
+ * @see IDoublePredicate
+ * @see IDoubleBinaryPredicate
+ */
+final class PrimitiveFunctions {
+
+    /**
+     * Instantiates a new Primitive functions.
+     */
+    private PrimitiveFunctions() {
+    }
+
+    /**
+     * Gets a function to call with boxed params. The types of the params are not known at compile time, every
+     * function is called with the objects the expression evaluates to.
+     *
+     * @param function the function
+     * @return the same function
+     */
+    @SuppressWarnings("unchecked")
+    static IFunction<Object, ?> boxed(IFunction<?, ?> function) {
+        return (IFunction<Object, ?>) function;
+    }
+
+    /**
+     * Checks whether a call of a function with a number of parameters has a primitive double result.
+     *
+     * @param function the function
+     * @param size the number of parameters
+     * @return {@code true} if so
+     */
+    static boolean isDouble(IFunction<?, ?> function, int size) {
+        return function instanceof IDoubleFunction ? size == 1
+                : function instanceof IDoubleBinaryFunction ? size == 2
+                : function instanceof IDoubleArrayFunction;
+    }
+
+    /**
+     * Checks whether a call of a function with a number of parameters has a primitive boolean result.
+     *
+     * @param function the function
+     * @param size the number of parameters
+     * @return {@code true} if so
+     */
+    static boolean isBoolean(IFunction<?, ?> function, int size) {
+        return function instanceof IDoublePredicate ? size == 1
+                : function instanceof IDoubleBinaryPredicate && size == 2;
+    }
+
+    /**
+     * Converts a value to a primitive double.
+     *
+     * @param value the value
+     * @return the double value or {@link Double#NaN} if it is no number
+     */
+    static double toDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    /**
+     * Converts values to primitive doubles, the values of a range of variables are converted one by one.
+     *
+     * @param values the values, ranges as {@code Object[]}
+     * @return the double values, {@link Double#NaN} for the values which are no numbers
+     */
+    static double[] toDoubles(Object[] values) {
+        int size = 0;
+        for (Object value : values) {
+            size += value instanceof Object[] ? ((Object[]) value).length : 1;
+        }
+        double[] result = new double[size];
+        int i = 0;
+        for (Object value : values) {
+            if (value instanceof Object[]) {
+                for (Object element : (Object[]) value) {
+                    result[i++] = toDouble(element);
+                }
+            } else {
+                result[i++] = toDouble(value);
+            }
+        }
+        return result;
+    }
+}
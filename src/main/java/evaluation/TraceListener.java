@@ -0,0 +1,32 @@
+package evaluation;
+
+import parser.Expression;
+
+/**
+ * Receives the nodes of traced evaluations while they are evaluated.
+ * <p>
+ * The listener is called by the thread of the evaluation, so it must be thread safe if the evaluator is used by many
+ * threads. Install it with {@link Evaluator#setTraceSampler(TraceSampler)}.
+ *
+ * @author sedoe
+ */
+public interface TraceListener {
+
+    /**
+     * Called before a node is evaluated.
+     *
+     * @param e the node
+     * @param depth the nesting depth of the node, 0 for the outermost one
+     */
+    void enter(Expression e, int depth);
+
+    /**
+     * Called after a node was evaluated, also if the evaluation failed.
+     *
+     * @param e the node
+     * @param depth the nesting depth of the node, 0 for the outermost one
+     * @param result the result or {@code null} if the evaluation failed
+     * @param nanos the elapsed time including the nested nodes
+     */
+    void exit(Expression e, int depth, Object result, long nanos);
+}
@@ -0,0 +1,46 @@
+package evaluation;
+
+import java.io.PrintStream;
+
+import parser.Expression;
+
+/**
+ * Prints every evaluated node with its result, indented by its depth, as soon as it was evaluated.
+ * <p>
+ * The nodes are printed in the order they finish, i.e. the operands before the node using them.
+ *
+ * @author sedoe
+ */
+public class TracePrinter implements TraceListener {
+    /**
+     * The Out.
+     */
+    private final PrintStream out;
+
+    /**
+     * Instantiates a new Trace printer.
+     *
+     * @param out the stream to print to
+     */
+    public TracePrinter(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void enter(Expression e, int depth) {
+    }
+
+    @Override
+    public void exit(Expression e, int depth, Object result, long nanos) {
+        StringBuilder sb = new StringBuilder(depth * 3 + 64);
+        for (int i = 0; i < depth - 1; i++) {
+            sb.append("\u2502  ");
+        }
+        if (depth > 0) {
+            sb.append("\u2514\u2500 ");
+        }
+        sb.append(e == null ? null : e.getClass().getSimpleName()).append(": ").append(e).append(" --> ")
+                .append(result).append(" (").append(nanos).append(" ns)");
+        out.println(sb);
+    }
+}
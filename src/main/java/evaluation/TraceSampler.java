@@ -0,0 +1,226 @@
+package evaluation;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import parser.Expression;
+
+/**
+ * Selects the evaluations traced by a {@link TraceListener}.
+ * <p>
+ * The sampler decides at the start of every evaluation, i.e. of every outermost call of an evaluate method, whether it
+ * is traced: every n-th evaluation is. A sampled evaluation is streamed to the listener while it runs, unless a
+ * latency threshold is set: then the nodes of the sampled evaluation are buffered in its context and passed to the
+ * listener only if the evaluation took at least the threshold, so memory is held for one evaluation per context at
+ * most. Evaluations which are not sampled are not traced at all.
+ *
+ * @author sedoe
+ */
+public final class TraceSampler {
+    /**
+     * The Listener.
+     */
+    private final TraceListener listener;
+    /**
+     * The distance between two sampled evaluations.
+     */
+    private final int everyNth;
+    /**
+     * The minimum latency of a traced evaluation, 0 to trace all sampled evaluations.
+     */
+    private final long thresholdNanos;
+    /**
+     * The number of started evaluations.
+     */
+    private final AtomicLong evaluations = new AtomicLong();
+
+    /**
+     * Instantiates a new Trace sampler tracing every evaluation.
+     *
+     * @param listener the listener
+     */
+    public TraceSampler(TraceListener listener) {
+        this(listener, 1, 0);
+    }
+
+    /**
+     * Instantiates a new Trace sampler.
+     *
+     * @param listener the listener
+     * @param everyNth the distance between two sampled evaluations, 1 to sample every evaluation
+     * @param thresholdNanos the minimum latency of a traced evaluation, 0 to trace every sampled evaluation
+     */
+    public TraceSampler(TraceListener listener, int everyNth, long thresholdNanos) {
+        if (everyNth <= 0) {
+            throw new IllegalArgumentException("everyNth must be positive: " + everyNth);
+        }
+        this.listener = listener;
+        this.everyNth = everyNth;
+        this.thresholdNanos = thresholdNanos;
+    }
+
+    /**
+     * Gets the listener.
+     *
+     * @return listener value
+     */
+    public TraceListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Gets the distance between two sampled evaluations.
+     *
+     * @return every nth value
+     */
+    public int getEveryNth() {
+        return everyNth;
+    }
+
+    /**
+     * Gets the minimum latency of a traced evaluation.
+     *
+     * @return threshold nanos value, 0 if every sampled evaluation is traced
+     */
+    public long getThresholdNanos() {
+        return thresholdNanos;
+    }
+
+    /**
+     * Starts an evaluation.
+     *
+     * @param context the context of the evaluation
+     * @return the listener receiving the nodes of the evaluation or {@code null} if it is not traced
+     */
+    TraceListener begin(EvaluationContext context) {
+        if (everyNth > 1 && evaluations.getAndIncrement() % everyNth != 0) {
+            return null;
+        } else if (thresholdNanos <= 0) {
+            return listener;
+        }
+        if (context.traceBuffer == null) {
+            context.traceBuffer = new Buffer();
+        }
+        context.traceBuffer.start(listener, thresholdNanos);
+        return context.traceBuffer;
+    }
+
+    /**
+     * Ends a traced evaluation and passes the buffered nodes to the listener if it was slow enough.
+     *
+     * @param trace the listener returned by {@link #begin(EvaluationContext)}
+     */
+    static void end(TraceListener trace) {
+        if (trace instanceof Buffer) {
+            ((Buffer) trace).flush();
+        }
+    }
+
+    /**
+     * The nodes of one evaluation, in the order of the calls.
+     */
+    static final class Buffer implements TraceListener {
+        /**
+         * The listener receiving the nodes of a slow evaluation.
+         */
+        private TraceListener listener;
+        /**
+         * The minimum latency of a traced evaluation.
+         */
+        private long thresholdNanos;
+        /**
+         * The Nodes.
+         */
+        private Expression[] nodes = new Expression[64];
+        /**
+         * The Depths, negative for exits: {@code -depth - 1}.
+         */
+        private int[] depths = new int[64];
+        /**
+         * The Results of the exits.
+         */
+        private Object[] results = new Object[64];
+        /**
+         * The elapsed times of the exits.
+         */
+        private long[] nanos = new long[64];
+        /**
+         * The number of calls.
+         */
+        private int size;
+        /**
+         * The elapsed time of the outermost nodes.
+         */
+        private long totalNanos;
+
+        /**
+         * Starts buffering an evaluation.
+         *
+         * @param listener the listener receiving the nodes of a slow evaluation
+         * @param thresholdNanos the minimum latency of a traced evaluation
+         */
+        void start(TraceListener listener, long thresholdNanos) {
+            this.listener = listener;
+            this.thresholdNanos = thresholdNanos;
+        }
+
+        @Override
+        public void enter(Expression e, int depth) {
+            add(e, depth, null, 0);
+        }
+
+        @Override
+        public void exit(Expression e, int depth, Object result, long nanos) {
+            add(e, -depth - 1, result, nanos);
+            if (depth == 0) {
+                totalNanos += nanos;
+            }
+        }
+
+        /**
+         * Adds a call.
+         *
+         * @param e the node
+         * @param depth the depth, negative for exits
+         * @param result the result
+         * @param elapsed the elapsed time
+         */
+        private void add(Expression e, int depth, Object result, long elapsed) {
+            if (size == nodes.length) {
+                int capacity = 2 * size;
+                nodes = Arrays.copyOf(nodes, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+                results = Arrays.copyOf(results, capacity);
+                nanos = Arrays.copyOf(nanos, capacity);
+            }
+            nodes[size] = e;
+            depths[size] = depth;
+            results[size] = result;
+            nanos[size] = elapsed;
+            size++;
+        }
+
+        /**
+         * Passes the calls to the listener if the evaluation was slow enough and clears the buffer.
+         */
+        void flush() {
+            try {
+                if (totalNanos >= thresholdNanos) {
+                    for (int i = 0; i < size; i++) {
+                        if (depths[i] >= 0) {
+                            listener.enter(nodes[i], depths[i]);
+                        } else {
+                            listener.exit(nodes[i], -depths[i] - 1, results[i], nanos[i]);
+                        }
+                    }
+                }
+            } finally {
+                Arrays.fill(nodes, 0, size, null);
+                Arrays.fill(results, 0, size, null);
+                size = 0;
+                totalNanos = 0;
+                listener = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package evaluation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns an integer slot to each variable name referenced by one or several prepared expressions.
+ * <p>
+ * An {@link EvaluationContext} created for the slots holds the values of the variables in arrays indexed by slot, so
+ * a prepared expression reads a variable with an array load instead of a map lookup. Names are bound while expressions
+ * are prepared; binding is not thread safe, but reading the slots afterwards is.
+ *
+ * @author sedoe
+ * @see ExpressionPreparer#prepare(parser.Expression, VariableSlots)
+ */
+public final class VariableSlots {
+    /**
+     * The slots by name.
+     */
+    private final Map<String, Integer> slots = new HashMap<>();
+    /**
+     * The names by slot.
+     */
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Binds a name to a slot, if it is not bound yet.
+     *
+     * @param name the name
+     * @return the slot
+     */
+    public int bind(String name) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = names.size();
+            slots.put(name, slot);
+            names.add(name);
+        }
+        return slot;
+    }
+
+    /**
+     * Gets the slot of a name.
+     *
+     * @param name the name
+     * @return the slot or -1 if the name is not bound
+     */
+    public int slot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Gets the name of a slot.
+     *
+     * @param slot the slot
+     * @return the name
+     */
+    public String getName(int slot) {
+        return names.get(slot);
+    }
+
+    /**
+     * Gets the number of bound names.
+     *
+     * @return the size
+     */
+    public int size() {
+        return names.size();
+    }
+}
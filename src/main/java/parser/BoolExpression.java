@@ -1,5 +1,9 @@
 package parser;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
 /**
  * The type Bool expression.
  *
@@ -9,15 +13,19 @@ public class BoolExpression extends Expression {
     /**
      * The Left.
      */
-    private Expression left;
+    private final Expression left;
     /**
      * The Operator.
      */
-    private Operator operator;
+    private final Operator operator;
     /**
      * The Right.
      */
-    private Expression right;
+    private final Expression right;
+    /**
+     * The cached hash code, 0 if not computed yet.
+     */
+    private int hash;
 
     /**
      * Instantiates a new Bool expression.
@@ -59,6 +67,48 @@ public class BoolExpression extends Expression {
         return right;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        // walk left-recursive chains like a<b<...<z without recursion
+        BoolExpression current = this;
+        while (current != o) {
+            if (o == null || current.getClass() != o.getClass()) {
+                return false;
+            }
+            BoolExpression that = (BoolExpression) o;
+            if (current.operator != that.operator || current.hash != 0 && that.hash != 0 && current.hash != that.hash
+                    || !Objects.equals(current.right, that.right)) {
+                return false;
+            }
+            if (current.left == null || current.left.getClass() != BoolExpression.class) {
+                return Objects.equals(current.left, that.left);
+            }
+            current = (BoolExpression) current.left;
+            o = that.left;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        if (hash != 0) {
+            return hash;
+        }
+        // compute the hash codes of left-recursive chains from the innermost operation without recursion
+        List<BoolExpression> chain = new ArrayList<>();
+        chain.add(this);
+        Expression current = left;
+        while (current != null && current.getClass() == BoolExpression.class && ((BoolExpression) current).hash == 0) {
+            chain.add((BoolExpression) current);
+            current = ((BoolExpression) current).left;
+        }
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            BoolExpression e = chain.get(i);
+            e.hash = Objects.hash(e.left, e.operator, e.right);
+        }
+        return hash;
+    }
+
     @Override
     public String toString() {
         return left.toString() + operator + right.toString();
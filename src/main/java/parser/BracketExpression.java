@@ -1,5 +1,7 @@
 package parser;
 
+import java.util.Objects;
+
 /**
  * The type Bracket expression.
  *
@@ -9,7 +11,11 @@ public class BracketExpression extends Expression {
     /**
      * The Expression.
      */
-    private Expression expression;
+    private final Expression expression;
+    /**
+     * The cached hash code, 0 if not computed yet.
+     */
+    private int hash;
 
     /**
      * Instantiates a new Bracket expression.
@@ -29,6 +35,27 @@ public class BracketExpression extends Expression {
         return expression;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        } else if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        BracketExpression that = (BracketExpression) o;
+        return Objects.equals(expression, that.expression);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = Objects.hash(expression);
+            hash = h;
+        }
+        return h;
+    }
+
     @Override
     public String toString() {
         return "(" + expression + ")";
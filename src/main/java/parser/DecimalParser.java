@@ -0,0 +1,228 @@
+package parser;
+
+import java.math.BigInteger;
+
+/**
+ * Converts decimal number literals to doubles, reading the digits directly from the input.
+ * <p>
+ * The result is the correctly rounded double, the same as the one of {@link Double#parseDouble(String)}. Numbers with
+ * up to 15 significant digits and small exponents are converted exactly with a single double multiplication or
+ * division, all others with the algorithm of Eisel and Lemire on a 64 bit mantissa and a 128 bit approximation of the
+ * power of ten. Only the rare numbers this algorithm cannot decide are converted by {@link Double#parseDouble(String)},
+ * which allocates.
+ * <p>
+ * The literal has the lenient format of the parser: digits with dots, where only the first dot is the decimal point
+ * and all further dots are ignored. A dot at the start of the literal is skipped and makes all dots ignored.
+ *
+ * @author sedoe
+ */
+final class DecimalParser {
+    /**
+     * The smallest exponent of the powers of ten in the table.
+     */
+    private static final int MIN_EXPONENT = -348;
+    /**
+     * The largest exponent of the powers of ten in the table.
+     */
+    private static final int MAX_EXPONENT = 347;
+    /**
+     * The mask of the lower 32 bits.
+     */
+    private static final long LOW = 0xFFFFFFFFL;
+    /**
+     * The powers of ten which are exact doubles.
+     */
+    private static final double[] EXACT_POWERS = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    /**
+     * The powers of ten from {@link #MIN_EXPONENT} to {@link #MAX_EXPONENT}, normalized to 128 bits and rounded down:
+     * the higher 64 bits at even indexes, the lower ones at odd indexes.
+     */
+    private static final long[] POWERS = new long[2 * (MAX_EXPONENT - MIN_EXPONENT + 1)];
+
+    static {
+        BigInteger ten = BigInteger.TEN;
+        BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        for (int exponent = MIN_EXPONENT; exponent <= MAX_EXPONENT; exponent++) {
+            BigInteger power;
+            if (exponent >= 0) {
+                power = ten.pow(exponent);
+            } else {
+                BigInteger divisor = ten.pow(-exponent);
+                power = BigInteger.ONE.shiftLeft(divisor.bitLength() + 128).divide(divisor);
+            }
+            int shift = power.bitLength() - 128;
+            power = shift > 0 ? power.shiftRight(shift) : power.shiftLeft(-shift);
+            int index = 2 * (exponent - MIN_EXPONENT);
+            POWERS[index] = power.shiftRight(64).longValue();
+            POWERS[index + 1] = power.and(mask).longValue();
+        }
+    }
+
+    /**
+     * No instances.
+     */
+    private DecimalParser() {
+    }
+
+    /**
+     * Converts a number literal to a double.
+     *
+     * @param chars the characters
+     * @param start the index of the first digit or dot after a skipped leading dot
+     * @param end the index after the literal
+     * @param leadingDot whether a leading dot was skipped
+     * @return the value
+     * @throws NumberFormatException if the literal has no digits
+     */
+    static double parse(CharSequence chars, int start, int end, boolean leadingDot) {
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        boolean truncated = false;
+        boolean dotSeen = leadingDot;
+        boolean fraction = false;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            if (c == '.') {
+                fraction |= !dotSeen;
+                dotSeen = true;
+                continue;
+            }
+            anyDigit = true;
+            int digit = c - '0';
+            if (digits == 0 && digit == 0) {
+                // leading zeros
+                exponent -= fraction ? 1 : 0;
+            } else if (digits < 19) {
+                mantissa = mantissa * 10 + digit;
+                digits++;
+                exponent -= fraction ? 1 : 0;
+            } else {
+                truncated |= digit != 0;
+                exponent += fraction ? 0 : 1;
+            }
+        }
+
+        if (!anyDigit) {
+            throw new NumberFormatException("empty String");
+        } else if (mantissa == 0) {
+            return 0.0;
+        } else if (!truncated && mantissa >= 0 && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            // both operands are exact, so the result is rounded once
+            return exponent >= 0 ? mantissa * EXACT_POWERS[exponent] : mantissa / EXACT_POWERS[-exponent];
+        }
+
+        long bits = eiselLemire(mantissa, exponent);
+        if (truncated && bits >= 0 && eiselLemire(mantissa + 1, exponent) != bits) {
+            // the truncated digits may change the result
+            bits = -1;
+        }
+        return bits >= 0 ? Double.longBitsToDouble(bits) : Double.parseDouble(filter(chars, start, end, leadingDot));
+    }
+
+    /**
+     * Converts {@code mantissa * 10^exponent} to the bits of the nearest double.
+     *
+     * @param mantissa the mantissa, not 0, interpreted unsigned
+     * @param exponent the decimal exponent
+     * @return the bits or -1 if the result cannot be decided or is subnormal, infinite or out of the table
+     */
+    private static long eiselLemire(long mantissa, int exponent) {
+        if (exponent < MIN_EXPONENT || exponent > MAX_EXPONENT) {
+            return -1;
+        }
+
+        // normalization
+        int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+        mantissa <<= leadingZeros;
+        long exponent2 = ((217706L * exponent) >> 16) + 64 + 1023 - leadingZeros;
+
+        // multiplication
+        int index = 2 * (exponent - MIN_EXPONENT);
+        long high = multiplyHigh(mantissa, POWERS[index]);
+        long low = mantissa * POWERS[index];
+
+        // wider approximation
+        if ((high & 0x1FF) == 0x1FF && Long.compareUnsigned(low + mantissa, mantissa) < 0) {
+            long productHigh = multiplyHigh(mantissa, POWERS[index + 1]);
+            long productLow = mantissa * POWERS[index + 1];
+            long mergedHigh = high;
+            long mergedLow = low + productHigh;
+            if (Long.compareUnsigned(mergedLow, low) < 0) {
+                mergedHigh++;
+            }
+            if ((mergedHigh & 0x1FF) == 0x1FF && mergedLow + 1 == 0
+                    && Long.compareUnsigned(productLow + mantissa, mantissa) < 0) {
+                return -1;
+            }
+            high = mergedHigh;
+            low = mergedLow;
+        }
+
+        // shifting to 54 bits
+        long msb = high >>> 63;
+        long result = high >>> (msb + 9);
+        exponent2 -= 1 ^ msb;
+
+        // half-way ambiguity
+        if (low == 0 && (high & 0x1FF) == 0 && (result & 3) == 1) {
+            return -1;
+        }
+
+        // from 54 to 53 bits
+        result += result & 1;
+        result >>>= 1;
+        if (result >>> 53 > 0) {
+            result >>>= 1;
+            exponent2++;
+        }
+
+        if (exponent2 < 1 || exponent2 >= 0x7FF) {
+            return -1;
+        }
+        return exponent2 << 52 | result & 0x000FFFFFFFFFFFFFL;
+    }
+
+    /**
+     * Gets the higher 64 bits of the unsigned 128 bit product of two unsigned longs.
+     *
+     * @param x the x
+     * @param y the y
+     * @return the higher bits
+     */
+    private static long multiplyHigh(long x, long y) {
+        long x0 = x & LOW;
+        long x1 = x >>> 32;
+        long y0 = y & LOW;
+        long y1 = y >>> 32;
+        long t = x1 * y0 + ((x0 * y0) >>> 32);
+        long w1 = x0 * y1 + (t & LOW);
+        return x1 * y1 + (t >>> 32) + (w1 >>> 32);
+    }
+
+    /**
+     * Removes the ignored dots of a literal.
+     *
+     * @param chars the characters
+     * @param start the index of the first digit or dot after a skipped leading dot
+     * @param end the index after the literal
+     * @param leadingDot whether a leading dot was skipped
+     * @return the literal in the format of {@link Double#parseDouble(String)}
+     */
+    private static String filter(CharSequence chars, int start, int end, boolean leadingDot) {
+        StringBuilder sb = new StringBuilder(end - start);
+        boolean dotSeen = leadingDot;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            if (c != '.' || !dotSeen) {
+                sb.append(c);
+            }
+            dotSeen |= c == '.';
+        }
+        return sb.toString();
+    }
+}
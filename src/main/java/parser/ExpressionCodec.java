@@ -0,0 +1,540 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary format of named expression trees, to reload a catalog of formulas without parsing it again.
+ * <p>
+ * The format starts with a header, followed by a table of the distinct strings (names and texts), a table of the
+ * distinct number constants and the formulas. A formula is the index of its name and its nodes in post order, i.e. the
+ * operands before the node. Every node is a tag byte, holding the operator of math and bool expressions, followed by
+ * the varint encoded index into the string or constant table and the number of parameters of functions. Reading the
+ * nodes in post order needs an operand stack only, so neither writing nor reading recurses and long operator chains
+ * are supported. The strings of a decoded buffer are interned in an {@link SymbolTable#unbounded() unbounded} symbol
+ * table of their own.
+ * <p>
+ * Bracket expressions are kept, so a reloaded expression is equal to the written one.
+ *
+ * @author sedoe
+ */
+public final class ExpressionCodec {
+    /**
+     * The magic number at the start of the format, "FMLB".
+     */
+    private static final int MAGIC = 0x464D4C42;
+    /**
+     * The version of the format.
+     */
+    private static final byte VERSION = 1;
+    /**
+     * The tag of a missing operand.
+     */
+    private static final byte NULL = 0;
+    /**
+     * The tag of a number expression.
+     */
+    private static final byte NUMBER = 1;
+    /**
+     * The tag of a text expression.
+     */
+    private static final byte TEXT = 2;
+    /**
+     * The tag of a variable expression.
+     */
+    private static final byte VARIABLE = 3;
+    /**
+     * The tag of a formula expression.
+     */
+    private static final byte FORMULA = 4;
+    /**
+     * The tag of a function expression.
+     */
+    private static final byte FUNCTION = 5;
+    /**
+     * The tag of a minus expression.
+     */
+    private static final byte MINUS = 6;
+    /**
+     * The tag of a bracket expression.
+     */
+    private static final byte BRACKET = 7;
+    /**
+     * The first tag of math expressions, a math expression is tagged with this plus the ordinal of its operator.
+     */
+    private static final byte MATH = 16;
+    /**
+     * The first tag of bool expressions, a bool expression is tagged with this plus the ordinal of its operator.
+     */
+    private static final byte BOOL = 32;
+
+    /**
+     * The math operators by ordinal.
+     */
+    private static final MathExpression.Operator[] MATH_OPERATORS = MathExpression.Operator.values();
+    /**
+     * The bool operators by ordinal.
+     */
+    private static final BoolExpression.Operator[] BOOL_OPERATORS = BoolExpression.Operator.values();
+
+    /**
+     * No instances.
+     */
+    private ExpressionCodec() {
+    }
+
+    /**
+     * Writes formulas to a file.
+     *
+     * @param formulas the expressions by name
+     * @param file the file, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Map<String, Expression> formulas, Path file) throws IOException {
+        ByteBuffer buffer = encode(formulas);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads formulas from a file by memory mapping it.
+     *
+     * @param file the file
+     * @return the expressions by name in written order
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not in the format
+     */
+    public static Map<String, Expression> read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Encodes formulas.
+     *
+     * @param formulas the expressions by name
+     * @return the buffer holding the encoded formulas, ready to be read
+     */
+    public static ByteBuffer encode(Map<String, Expression> formulas) {
+        Encoder encoder = new Encoder();
+        for (Map.Entry<String, Expression> entry : formulas.entrySet()) {
+            encoder.formula(entry.getKey(), entry.getValue());
+        }
+        return encoder.finish(formulas.size());
+    }
+
+    /**
+     * Decodes formulas, starting at the position of the buffer.
+     *
+     * @param buffer the buffer
+     * @return the expressions by name in encoded order
+     * @throws IllegalArgumentException if the buffer does not hold formulas in the format
+     */
+    public static Map<String, Expression> decode(ByteBuffer buffer) {
+        if (buffer.remaining() < 5 || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("No encoded formulas");
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported version " + version);
+        }
+
+        try {
+            return decodeFormulas(buffer);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated encoded formulas", e);
+        }
+    }
+
+    /**
+     * Decodes the tables and the formulas following the header.
+     *
+     * @param buffer the buffer
+     * @return the expressions by name in encoded order
+     * @throws IllegalArgumentException if the buffer does not hold formulas in the format
+     * @throws BufferUnderflowException if the buffer ends before the formulas
+     */
+    private static Map<String, Expression> decodeFormulas(ByteBuffer buffer) {
+        SymbolTable symbols = SymbolTable.unbounded();
+        // every string, constant, formula and node takes at least one byte
+        String[] strings = new String[readCount(buffer)];
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < strings.length; i++) {
+            int length = readCount(buffer);
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, 2 * bytes.length)];
+            }
+            buffer.get(bytes, 0, length);
+            strings[i] = symbols.intern(new String(bytes, 0, length, StandardCharsets.UTF_8));
+        }
+        Double[] constants = new Double[readCount(buffer)];
+        for (int i = 0; i < constants.length; i++) {
+            constants[i] = buffer.getDouble();
+        }
+
+        int count = readCount(buffer);
+        Map<String, Expression> formulas = new LinkedHashMap<>(Math.max(16, count * 4 / 3 + 1));
+        Expression[] stack = new Expression[16];
+        for (int f = 0; f < count; f++) {
+            String name = entry(strings, readVarint(buffer));
+            int size = 0;
+            int nodes = readCount(buffer);
+            for (int n = 0; n < nodes; n++) {
+                if (size == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * size);
+                }
+                byte tag = buffer.get();
+                Expression e;
+                if (tag >= BOOL) {
+                    check(size >= 2 && tag - BOOL < BOOL_OPERATORS.length);
+                    e = new BoolExpression(stack[size - 2], BOOL_OPERATORS[tag - BOOL], stack[size - 1]);
+                    size -= 2;
+                } else if (tag >= MATH) {
+                    check(size >= 2 && tag - MATH < MATH_OPERATORS.length);
+                    e = new MathExpression(stack[size - 2], MATH_OPERATORS[tag - MATH], stack[size - 1]);
+                    size -= 2;
+                } else {
+                    switch (tag) {
+                        case NULL:
+                            e = null;
+                            break;
+                        case NUMBER:
+                            e = new NumberExpression(entry(constants, readVarint(buffer)));
+                            break;
+                        case TEXT:
+                            e = new TextExpression(entry(strings, readVarint(buffer)));
+                            break;
+                        case VARIABLE:
+                            e = new VariableExpression(entry(strings, readVarint(buffer)));
+                            break;
+                        case FORMULA:
+                            e = new FormulaExpression(entry(strings, readVarint(buffer)));
+                            break;
+                        case FUNCTION:
+                            String function = entry(strings, readVarint(buffer));
+                            int params = readVarint(buffer);
+                            check(size >= params);
+                            size -= params;
+                            e = new FunctionExpression(function, new ArrayList<>(Arrays.asList(stack)
+                                    .subList(size, size + params)));
+                            break;
+                        case MINUS:
+                            check(size >= 1);
+                            e = new MinusExpression(stack[--size]);
+                            break;
+                        case BRACKET:
+                            check(size >= 1);
+                            e = new BracketExpression(stack[--size]);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown tag " + tag);
+                    }
+                }
+                stack[size++] = e;
+            }
+            check(size == 1);
+            formulas.put(name, stack[0]);
+        }
+        return formulas;
+    }
+
+    /**
+     * Checks a condition on the decoded nodes.
+     *
+     * @param condition the condition
+     * @throws IllegalArgumentException if the condition is not met
+     */
+    private static void check(boolean condition) {
+        if (!condition) {
+            throw new IllegalArgumentException("Corrupt encoded formulas");
+        }
+    }
+
+    /**
+     * Gets an entry of the string or constant table.
+     *
+     * @param table the table
+     * @param index the decoded index
+     * @param <T> the type of the entries
+     * @return the entry
+     * @throws IllegalArgumentException if the index is not in the table
+     */
+    private static <T> T entry(T[] table, int index) {
+        check(index < table.length);
+        return table[index];
+    }
+
+    /**
+     * Reads the number of the following items, each taking at least one byte.
+     *
+     * @param buffer the buffer
+     * @return the number
+     * @throws IllegalArgumentException if the buffer cannot hold as many items
+     */
+    private static int readCount(ByteBuffer buffer) {
+        int count = readVarint(buffer);
+        check(count <= buffer.remaining());
+        return count;
+    }
+
+    /**
+     * Reads an unsigned varint, 7 bits per byte with the lowest bits first.
+     *
+     * @param buffer the buffer
+     * @return the value
+     */
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                check(value >= 0);
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Corrupt encoded formulas");
+    }
+
+    /**
+     * Collects the tables and the nodes of the formulas.
+     */
+    private static final class Encoder {
+        /**
+         * The indexes of the strings.
+         */
+        private final Map<String, Integer> stringIndexes = new HashMap<>();
+        /**
+         * The strings in index order.
+         */
+        private final List<String> strings = new ArrayList<>();
+        /**
+         * The indexes of the constants by their bits.
+         */
+        private final Map<Long, Integer> constantIndexes = new HashMap<>();
+        /**
+         * The constants in index order.
+         */
+        private final List<Double> constants = new ArrayList<>();
+        /**
+         * The encoded formulas.
+         */
+        private ByteBuffer nodes = ByteBuffer.allocate(1024);
+
+        /**
+         * Encodes a formula.
+         *
+         * @param name the name
+         * @param e the expression
+         */
+        void formula(String name, Expression e) {
+            List<Expression> postOrder = postOrder(e);
+            writeVarint(string(name));
+            writeVarint(postOrder.size());
+            for (Expression node : postOrder) {
+                node(node);
+            }
+        }
+
+        /**
+         * Encodes a node without its operands.
+         *
+         * @param e the node
+         */
+        private void node(Expression e) {
+            if (e == null) {
+                writeTag(NULL);
+            } else if (e instanceof NumberExpression) {
+                writeTag(NUMBER);
+                writeVarint(constant(((NumberExpression) e).getValue()));
+            } else if (e instanceof TextExpression) {
+                writeTag(TEXT);
+                writeVarint(string(((TextExpression) e).getText()));
+            } else if (e instanceof VariableExpression) {
+                writeTag(VARIABLE);
+                writeVarint(string(((VariableExpression) e).getName()));
+            } else if (e instanceof FormulaExpression) {
+                writeTag(FORMULA);
+                writeVarint(string(((FormulaExpression) e).getName()));
+            } else if (e instanceof FunctionExpression) {
+                writeTag(FUNCTION);
+                writeVarint(string(((FunctionExpression) e).getName()));
+                writeVarint(((FunctionExpression) e).getParams().size());
+            } else if (e instanceof MinusExpression) {
+                writeTag(MINUS);
+            } else if (e instanceof BracketExpression) {
+                writeTag(BRACKET);
+            } else if (e instanceof MathExpression) {
+                writeTag((byte) (MATH + ((MathExpression) e).getOperator().ordinal()));
+            } else if (e instanceof BoolExpression) {
+                writeTag((byte) (BOOL + ((BoolExpression) e).getOperator().ordinal()));
+            } else {
+                throw new IllegalArgumentException("Unsupported expression " + e.getClass().getName());
+            }
+        }
+
+        /**
+         * Lists the nodes of an expression in post order without recursion.
+         *
+         * @param e the expression
+         * @return the nodes, operands before the node
+         */
+        private static List<Expression> postOrder(Expression e) {
+            // nodes in reverse post order: the node, then its operands from the last to the first
+            List<Expression> reversed = new ArrayList<>();
+            List<Expression> pending = new ArrayList<>();
+            pending.add(e);
+            while (!pending.isEmpty()) {
+                Expression current = pending.remove(pending.size() - 1);
+                reversed.add(current);
+                if (current instanceof MathExpression) {
+                    pending.add(((MathExpression) current).getLeft());
+                    pending.add(((MathExpression) current).getRight());
+                } else if (current instanceof BoolExpression) {
+                    pending.add(((BoolExpression) current).getLeft());
+                    pending.add(((BoolExpression) current).getRight());
+                } else if (current instanceof MinusExpression) {
+                    pending.add(((MinusExpression) current).getExpression());
+                } else if (current instanceof BracketExpression) {
+                    pending.add(((BracketExpression) current).getExpression());
+                } else if (current instanceof FunctionExpression) {
+                    pending.addAll(((FunctionExpression) current).getParams());
+                }
+            }
+            Collections.reverse(reversed);
+            return reversed;
+        }
+
+        /**
+         * Gets the index of a string, adding it to the table.
+         *
+         * @param s the string
+         * @return the index
+         */
+        private int string(String s) {
+            Integer index = stringIndexes.get(s);
+            if (index == null) {
+                index = strings.size();
+                stringIndexes.put(s, index);
+                strings.add(s);
+            }
+            return index;
+        }
+
+        /**
+         * Gets the index of a constant, adding it to the table.
+         *
+         * @param value the value
+         * @return the index
+         */
+        private int constant(Double value) {
+            Long bits = Double.doubleToRawLongBits(value);
+            Integer index = constantIndexes.get(bits);
+            if (index == null) {
+                index = constants.size();
+                constantIndexes.put(bits, index);
+                constants.add(value);
+            }
+            return index;
+        }
+
+        /**
+         * Writes a tag.
+         *
+         * @param tag the tag
+         */
+        private void writeTag(byte tag) {
+            ensure(1);
+            nodes.put(tag);
+        }
+
+        /**
+         * Writes an unsigned varint.
+         *
+         * @param value the value
+         */
+        private void writeVarint(int value) {
+            ensure(5);
+            putVarint(nodes, value);
+        }
+
+        /**
+         * Makes sure the buffer of the nodes has space.
+         *
+         * @param bytes the number of bytes to write
+         */
+        private void ensure(int bytes) {
+            if (nodes.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * nodes.capacity(), nodes.position() + bytes));
+                nodes.flip();
+                larger.put(nodes);
+                nodes = larger;
+            }
+        }
+
+        /**
+         * Writes the header, the tables and the nodes.
+         *
+         * @param count the number of formulas
+         * @return the buffer, ready to be read
+         */
+        ByteBuffer finish(int count) {
+            List<byte[]> encodedStrings = new ArrayList<>(strings.size());
+            int size = 5 + 3 * 5 + 8 * constants.size() + nodes.position();
+            for (String s : strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                encodedStrings.add(bytes);
+                size += 5 + bytes.length;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            buffer.putInt(MAGIC);
+            buffer.put(VERSION);
+            putVarint(buffer, encodedStrings.size());
+            for (byte[] bytes : encodedStrings) {
+                putVarint(buffer, bytes.length);
+                buffer.put(bytes);
+            }
+            putVarint(buffer, constants.size());
+            for (Double constant : constants) {
+                buffer.putDouble(constant);
+            }
+            putVarint(buffer, count);
+            nodes.flip();
+            buffer.put(nodes);
+            buffer.flip();
+            return buffer;
+        }
+
+        /**
+         * Puts an unsigned varint, 7 bits per byte with the lowest bits first.
+         *
+         * @param buffer the buffer
+         * @param value the value
+         */
+        private static void putVarint(ByteBuffer buffer, int value) {
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) (value & 0x7F | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe pool of expressions, sharing structurally equal subtrees.
+ * <p>
+ * Interning an expression replaces every subtree by the equal subtree interned before, if there is one, so the
+ * formulas of a set share their common subexpressions and the heap usage scales with the number of distinct
+ * subtrees instead of the total text size. Equal subtrees of interned expressions are the same instance, so results
+ * of common subexpressions may be cached by identity.
+ *
+ * @author sedoe
+ */
+public class ExpressionPool {
+    /**
+     * The interned expressions.
+     */
+    private final ConcurrentHashMap<Expression, Expression> expressions = new ConcurrentHashMap<>();
+    /**
+     * The number of subtrees replaced by an interned one.
+     */
+    private final LongAdder hits = new LongAdder();
+    /**
+     * The number of subtrees added to the pool.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Interns an expression and all of its subtrees.
+     *
+     * @param e the expression
+     * @return the interned expression, equal to the given one
+     */
+    public Expression intern(Expression e) {
+        if (e == null) {
+            return null;
+        }
+
+        if (e instanceof MathExpression || e instanceof BoolExpression) {
+            // intern left-recursive chains like a1+a2+...+an from the innermost operation without recursion
+            List<Expression> chain = new ArrayList<>();
+            Expression current = e;
+            while (current instanceof MathExpression || current instanceof BoolExpression) {
+                chain.add(current);
+                current = current instanceof MathExpression ? ((MathExpression) current).getLeft()
+                        : ((BoolExpression) current).getLeft();
+            }
+            Expression left = intern(current);
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                left = pool(rebuild(chain.get(i), left));
+            }
+            return left;
+        }
+
+        Expression rebuilt = e;
+        if (e instanceof BracketExpression) {
+            Expression inner = intern(((BracketExpression) e).getExpression());
+            if (inner != ((BracketExpression) e).getExpression()) {
+                rebuilt = new BracketExpression(inner);
+            }
+        } else if (e instanceof MinusExpression) {
+            Expression inner = intern(((MinusExpression) e).getExpression());
+            if (inner != ((MinusExpression) e).getExpression()) {
+                rebuilt = new MinusExpression(inner);
+            }
+        } else if (e instanceof FunctionExpression) {
+            FunctionExpression f = (FunctionExpression) e;
+            List<Expression> params = new ArrayList<>(f.getParams().size());
+            boolean changed = false;
+            for (Expression param : f.getParams()) {
+                Expression interned = intern(param);
+                changed |= interned != param;
+                params.add(interned);
+            }
+            if (changed) {
+                rebuilt = new FunctionExpression(f.getName(), params);
+            }
+        }
+        return pool(rebuilt);
+    }
+
+    /**
+     * Rebuilds an operation on its interned left operand and its interned right operand.
+     *
+     * @param e the math or bool expression
+     * @param left the interned left operand
+     * @return the expression or a new equal one with the interned operands
+     */
+    private Expression rebuild(Expression e, Expression left) {
+        if (e instanceof MathExpression) {
+            MathExpression m = (MathExpression) e;
+            Expression right = intern(m.getRight());
+            if (left != m.getLeft() || right != m.getRight()) {
+                return new MathExpression(left, m.getOperator(), right);
+            }
+        } else {
+            BoolExpression b = (BoolExpression) e;
+            Expression right = intern(b.getRight());
+            if (left != b.getLeft() || right != b.getRight()) {
+                return new BoolExpression(left, b.getOperator(), right);
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Adds an expression whose subtrees are interned to the pool.
+     *
+     * @param e the expression
+     * @return the equal expression interned before or the given one
+     */
+    private Expression pool(Expression e) {
+        Expression interned = expressions.putIfAbsent(e, e);
+        if (interned == null) {
+            misses.increment();
+            return e;
+        }
+        hits.increment();
+        return interned;
+    }
+
+    /**
+     * Removes all expressions from the pool.
+     */
+    public void clear() {
+        expressions.clear();
+    }
+
+    /**
+     * Gets the number of distinct interned subtrees.
+     *
+     * @return the size
+     */
+    public int size() {
+        return expressions.size();
+    }
+
+    /**
+     * Gets the number of subtrees replaced by an interned one.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of subtrees added to the pool.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+}
@@ -1,5 +1,7 @@
 package parser;
 
+import java.util.Objects;
+
 /**
  * The type Formula expression.
  *
@@ -9,7 +11,7 @@ public class FormulaExpression extends Expression {
     /**
      * The Name.
      */
-    private String name;
+    private final String name;
 
     /**
      * Instantiates a new Formula expression.
@@ -29,6 +31,22 @@ public class FormulaExpression extends Expression {
         return name;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        } else if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FormulaExpression that = (FormulaExpression) o;
+        return Objects.equals(name, that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name);
+    }
+
     @Override
     public String toString() {
         return "=" + name;
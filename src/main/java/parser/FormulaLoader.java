@@ -0,0 +1,416 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Loads files of formula definitions, one {@code name = expression} per line.
+ * <p>
+ * The expression is the text after the first {@code =} of the line, parsed like by {@link Parser#parse(String)}, so
+ * it may start with an own {@code =}: {@code f2 = ==f1+1} references the formula {@code f1}.
+ * <p>
+ * The file is memory mapped and split into chunks ending at line breaks, which are decoded and parsed in parallel,
+ * each by an own parser. The expressions are parsed from the decoded chunk without copying the lines, and the names are
+ * interned in an {@link SymbolTable#unbounded() unbounded} symbol table of the loaded file. Blank lines are skipped. A
+ * line which cannot be loaded is reported as a {@link LineError} with its line number; loading continues with the next
+ * line. The file is read as UTF-8.
+ *
+ * @author sedoe
+ */
+public class FormulaLoader {
+    /**
+     * The default number of bytes of a chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+    /**
+     * The Mode of the parsers.
+     */
+    private final Parser.Mode mode;
+    /**
+     * The number of bytes of a chunk, a chunk is extended to the next line break.
+     */
+    private final int chunkSize;
+
+    /**
+     * Instantiates a new Formula loader with parsers in {@link Parser.Mode#REWRITE} mode.
+     */
+    public FormulaLoader() {
+        this(Parser.Mode.REWRITE, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Instantiates a new Formula loader.
+     *
+     * @param mode the mode of the parsers
+     * @param chunkSize the number of bytes of a chunk
+     */
+    public FormulaLoader(Parser.Mode mode, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.mode = mode;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Loads a file of formula definitions.
+     *
+     * @param file the file
+     * @return the result holding the expressions by name in file order and the errors
+     * @throws IOException if the file cannot be read
+     */
+    public Result load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<long[]> chunks = split(channel);
+            SymbolTable symbols = SymbolTable.unbounded();
+            List<Chunk> loaded = chunks.parallelStream()
+                    .map(bounds -> load(channel, bounds[0], bounds[1], symbols))
+                    .collect(Collectors.toList());
+
+            Map<String, Expression> expressions = new LinkedHashMap<>();
+            List<LineError> errors = new ArrayList<>();
+            int firstLine = 1;
+            for (Chunk chunk : loaded) {
+                if (chunk.failure != null) {
+                    throw chunk.failure;
+                }
+                for (int i = 0; i < chunk.names.size(); i++) {
+                    String name = chunk.names.get(i);
+                    int line = firstLine + chunk.nameLines.get(i);
+                    if (expressions.putIfAbsent(name, chunk.expressions.get(i)) != null) {
+                        errors.add(new LineError(line, "Duplicate formula " + name));
+                    }
+                }
+                for (LineError error : chunk.errors) {
+                    errors.add(new LineError(firstLine + error.line, error.message));
+                }
+                firstLine += chunk.lines;
+            }
+            errors.sort((a, b) -> Integer.compare(a.line, b.line));
+            return new Result(expressions, errors);
+        }
+    }
+
+    /**
+     * Splits a file into chunks ending after a line break or at the end of the file.
+     *
+     * @param channel the channel of the file
+     * @return the start and end positions of the chunks
+     * @throws IOException if the file cannot be read
+     */
+    private List<long[]> split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<long[]> chunks = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(start + chunkSize, size);
+            // extend the chunk to the next line break
+            while (end < size) {
+                buffer.clear();
+                int read = channel.read(buffer, end);
+                int newline = -1;
+                for (int i = 0; i < read && newline < 0; i++) {
+                    if (buffer.get(i) == '\n') {
+                        newline = i;
+                    }
+                }
+                if (newline >= 0) {
+                    end += newline + 1;
+                    break;
+                }
+                end = Math.min(end + Math.max(read, 0), size);
+            }
+            chunks.add(new long[]{start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Maps, decodes and parses a chunk.
+     *
+     * @param channel the channel of the file
+     * @param start the position of the first byte
+     * @param end the position after the last byte
+     * @param symbols the table interning the names
+     * @return the chunk with line numbers relative to the chunk
+     */
+    private Chunk load(FileChannel channel, long start, long end, SymbolTable symbols) {
+        Chunk chunk = new Chunk();
+        CharBuffer chars;
+        try {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            chars = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(bytes);
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            chunk.failure = e;
+            return chunk;
+        }
+
+        Parser parser = new Parser(mode, symbols);
+        int length = chars.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && chars.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && chars.charAt(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            parseLine(parser, symbols, chars, lineStart, lineEnd, chunk);
+            chunk.lines++;
+            lineStart = next;
+        }
+        return chunk;
+    }
+
+    /**
+     * Parses a line and adds the expression or the error to a chunk.
+     *
+     * @param parser the parser
+     * @param symbols the table interning the names
+     * @param chars the decoded chunk
+     * @param start the index of the first character of the line
+     * @param end the index after the last character of the line, without the line break
+     * @param chunk the chunk
+     */
+    private static void parseLine(Parser parser, SymbolTable symbols, CharSequence chars, int start, int end,
+            Chunk chunk) {
+        int separator = -1;
+        boolean blank = true;
+        for (int i = start; i < end && separator < 0; i++) {
+            char c = chars.charAt(i);
+            if (c == '=') {
+                separator = i;
+            }
+            blank &= Character.isWhitespace(c);
+        }
+        if (separator < 0) {
+            if (!blank) {
+                chunk.errors.add(new LineError(chunk.lines, "Missing '=' between name and expression"));
+            }
+            return;
+        }
+
+        int nameStart = start;
+        int nameEnd = separator;
+        while (nameStart < nameEnd && Character.isWhitespace(chars.charAt(nameStart))) {
+            nameStart++;
+        }
+        while (nameEnd > nameStart && Character.isWhitespace(chars.charAt(nameEnd - 1))) {
+            nameEnd--;
+        }
+        if (nameStart == nameEnd) {
+            chunk.errors.add(new LineError(chunk.lines, "Missing name"));
+            return;
+        }
+
+        Expression e;
+        try {
+            e = parser.parse(chars, separator + 1, end);
+        } catch (RuntimeException ex) {
+            chunk.errors.add(new LineError(chunk.lines, "Invalid expression: " + ex));
+            return;
+        }
+        if (!isComplete(e)) {
+            chunk.errors.add(new LineError(chunk.lines, "Invalid expression: "
+                    + chars.subSequence(separator + 1, end).toString().trim()));
+            return;
+        }
+        chunk.names.add(symbols.intern(chars, nameStart, nameEnd));
+        chunk.nameLines.add(chunk.lines);
+        chunk.expressions.add(e);
+    }
+
+    /**
+     * Checks whether an expression has all of its operands. The parser leaves out a missing operand instead of
+     * failing, e.g. the right side of {@code 1+}.
+     *
+     * @param e the expression
+     * @return {@code true} if so
+     */
+    static boolean isComplete(Expression e) {
+        Deque<Expression> pending = new ArrayDeque<>();
+        if (e == null) {
+            return false;
+        }
+        pending.push(e);
+        while (!pending.isEmpty()) {
+            Expression current = pending.pop();
+            List<Expression> operands;
+            if (current instanceof MathExpression) {
+                operands = Arrays.asList(((MathExpression) current).getLeft(),
+                        ((MathExpression) current).getRight());
+            } else if (current instanceof BoolExpression) {
+                operands = Arrays.asList(((BoolExpression) current).getLeft(),
+                        ((BoolExpression) current).getRight());
+            } else if (current instanceof BracketExpression) {
+                operands = Collections.singletonList(((BracketExpression) current).getExpression());
+            } else if (current instanceof MinusExpression) {
+                operands = Collections.singletonList(((MinusExpression) current).getExpression());
+            } else if (current instanceof FunctionExpression) {
+                operands = ((FunctionExpression) current).getParams();
+            } else {
+                operands = Collections.emptyList();
+            }
+            for (Expression operand : operands) {
+                if (operand == null) {
+                    return false;
+                }
+                pending.push(operand);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The parsed lines of a chunk, with line numbers relative to the chunk.
+     */
+    private static final class Chunk {
+        /**
+         * The names of the formulas.
+         */
+        private final List<String> names = new ArrayList<>();
+        /**
+         * The line numbers of the formulas.
+         */
+        private final List<Integer> nameLines = new ArrayList<>();
+        /**
+         * The expressions of the formulas.
+         */
+        private final List<Expression> expressions = new ArrayList<>();
+        /**
+         * The errors.
+         */
+        private final List<LineError> errors = new ArrayList<>();
+        /**
+         * The number of lines.
+         */
+        private int lines;
+        /**
+         * The failure reading the chunk.
+         */
+        private IOException failure;
+    }
+
+    /**
+     * A line which could not be loaded.
+     */
+    public static final class LineError {
+        /**
+         * The line number, starting at 1.
+         */
+        private final int line;
+        /**
+         * The Message.
+         */
+        private final String message;
+
+        /**
+         * Instantiates a new Line error.
+         *
+         * @param line the line number
+         * @param message the message
+         */
+        LineError(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        /**
+         * Gets the line number, starting at 1.
+         *
+         * @return line value
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * Gets the message.
+         *
+         * @return message value
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + line + ": " + message;
+        }
+    }
+
+    /**
+     * The result of loading a file.
+     */
+    public static final class Result {
+        /**
+         * The expressions by name in file order.
+         */
+        private final Map<String, Expression> expressions;
+        /**
+         * The errors ordered by line.
+         */
+        private final List<LineError> errors;
+
+        /**
+         * Instantiates a new Result.
+         *
+         * @param expressions the expressions by name in file order
+         * @param errors the errors ordered by line
+         */
+        Result(Map<String, Expression> expressions, List<LineError> errors) {
+            this.expressions = Collections.unmodifiableMap(expressions);
+            this.errors = Collections.unmodifiableList(errors);
+        }
+
+        /**
+         * Gets the expressions by name in file order, e.g. for the formulas of an evaluator.
+         *
+         * @return expressions value, not modifiable
+         */
+        public Map<String, Expression> getExpressions() {
+            return expressions;
+        }
+
+        /**
+         * Gets the errors ordered by line.
+         *
+         * @return errors value, not modifiable
+         */
+        public List<LineError> getErrors() {
+            return errors;
+        }
+
+        @Override
+        public String toString() {
+            return expressions.size() + " formulas, " + errors.size() + " errors";
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package parser;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * The type Function expression.
@@ -11,11 +13,15 @@ public class FunctionExpression extends Expression {
     /**
      * The Name.
      */
-    private String name;
+    private final String name;
     /**
      * The Params.
      */
-    private List<Expression> params;
+    private final List<Expression> params;
+    /**
+     * The cached hash code, 0 if not computed yet.
+     */
+    private int hash;
 
     /**
      * Instantiates a new Function expression.
@@ -25,7 +31,7 @@ public class FunctionExpression extends Expression {
      */
     public FunctionExpression(String name, List<Expression> params) {
         this.name = name;
-        this.params = params;
+        this.params = Collections.unmodifiableList(params);
     }
 
     /**
@@ -40,12 +46,33 @@ public class FunctionExpression extends Expression {
     /**
      * Gets the params.
      *
-     * @return params value
+     * @return params value, not modifiable
      */
     public List<Expression> getParams() {
         return params;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        } else if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FunctionExpression that = (FunctionExpression) o;
+        return Objects.equals(name, that.name) && Objects.equals(params, that.params);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = Objects.hash(name, params);
+            hash = h;
+        }
+        return h;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder(name+"(");
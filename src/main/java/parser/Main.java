@@ -4,7 +4,10 @@ import java.util.HashMap;
 import java.util.Map;
 
 import evaluation.Evaluator;
+import evaluation.IDoubleArrayFunction;
+import evaluation.IDoubleFunction;
 import evaluation.IFunction;
+import evaluation.ILazyFunction;
 
 /**
  * The type Main.
@@ -26,48 +29,42 @@ public class Main {
         Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
 
         // sqrt(value)
-        functions.put("sqrt", value -> Math.sqrt((Double) value[0]));
+        functions.put("sqrt", (IDoubleFunction) Math::sqrt);
 
-        // sum(number;number;...)
-        functions.put("sum", value -> {
+        // sum(number;number;...), ranges of variables are passed value by value
+        functions.put("sum", (IDoubleArrayFunction) values -> {
             double result = 0;
-            for (Object o : value) {
-                if (o instanceof Number) {
-                    result += ((Number) o).doubleValue();
-                } else if (o instanceof Object[]) {
-                    // support of range variables
-                    for (Object secondLevel : ((Object[]) o)) {
-                        if (secondLevel instanceof Number) {
-                            result += ((Number) secondLevel).doubleValue();
-                        }
-
-                    }
+            for (double value : values) {
+                if (!Double.isNaN(value)) {
+                    result += value;
                 }
             }
             return result;
         });
 
-        // when(bool;value1;value)
-        functions.put("when", value -> {
-            return ((Boolean) value[0]) ? value[1] : value[2];
+        // when(bool;value1;value), evaluates only the taken branch
+        functions.put("when", (ILazyFunction<Object>) arguments -> {
+            return arguments.getBoolean(0) ? arguments.get(1) : arguments.get(2);
         });
 
-        // und(bool;bool;...)
-        functions.put("und", value -> {
-            boolean result = true;
-            for (Object o : value) {
-                result &= Boolean.TRUE.equals(o);
+        // und(bool;bool;...), stops at the first false
+        functions.put("und", (ILazyFunction<Boolean>) arguments -> {
+            for (int i = 0; i < arguments.size(); i++) {
+                if (!arguments.getBoolean(i)) {
+                    return false;
+                }
             }
-            return result;
+            return true;
         });
 
-        // oder(bool;bool;...)
-        functions.put("oder", value -> {
-            boolean result = false;
-            for (Object o : value) {
-                result |= Boolean.TRUE.equals(o);
+        // oder(bool;bool;...), stops at the first true
+        functions.put("oder", (ILazyFunction<Boolean>) arguments -> {
+            for (int i = 0; i < arguments.size(); i++) {
+                if (arguments.getBoolean(i)) {
+                    return true;
+                }
             }
-            return result;
+            return false;
         });
 
         // ===================================================================================
@@ -102,13 +99,7 @@ public class Main {
         evaluator.evaluate(expression);
         System.out.println((Object) evaluator.evaluate(expression));
 
-        // Performanz-Check
-        long s = System.currentTimeMillis();
-        int count = 100000;
-        for (int i = 0; i < count; i++) {
-            evaluator.evaluate(expression);
-        }
-        System.out.println(System.currentTimeMillis() - s + " ms for " + count + " evaluations!");
+        // Performanz: die JMH-Benchmarks in src/jmh/java laufen mit "mvn -P benchmark verify"
 
         // Texte vergleichen
         System.out.println((Object)evaluator.evaluate(new Parser().parse("=text1<=text2")));
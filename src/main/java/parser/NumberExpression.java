@@ -1,5 +1,7 @@
 package parser;
 
+import java.util.Objects;
+
 /**
  * The type Number expression.
  *
@@ -9,7 +11,7 @@ public class NumberExpression extends Expression{
     /**
      * The Value.
      */
-    private Double value;
+    private final Double value;
 
     /**
      * Instantiates a new Number expression.
@@ -29,6 +31,22 @@ public class NumberExpression extends Expression{
         return value;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        } else if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        NumberExpression that = (NumberExpression) o;
+        return Objects.equals(value, that.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(value);
+    }
+
     @Override
     public String toString() {
         return String.valueOf(value);
@@ -0,0 +1,350 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simplifies parsed expressions before they are evaluated.
+ * <p>
+ * The optimizer strips bracket expressions, which only shape the tree while parsing, folds math and minus
+ * expressions of numbers into a number expression, collapses double negation and removes the exact identities
+ * {@code x*1}, {@code 1*x}, {@code x/1}, {@code x^1} and {@code x-0}. {@code x+0} and {@code x-(-0)} are kept,
+ * because they turn {@code -0.0} into {@code 0.0}. The optimized expression evaluates to the same result as the
+ * original one.
+ * <p>
+ * The evaluator converts the results of math and minus expressions to doubles, so dropping an operator may change
+ * the type of the result if the remaining operand is a variable, a function or a formula. Identities are therefore
+ * removed only for operands which are numbers, math or minus expressions, unless the optimizer is told that all
+ * variables hold doubles. A minus expression throws if its operand evaluates to {@code null}, so double negation is
+ * removed only for operands which always evaluate to a double.
+ *
+ * @author sedoe
+ */
+public class Optimizer {
+    /**
+     * Whether variables, functions and formulas may be assumed to evaluate to doubles.
+     */
+    private final boolean numericOperands;
+
+    /**
+     * Instantiates a new Optimizer which keeps the result types of all expressions.
+     */
+    public Optimizer() {
+        this(false);
+    }
+
+    /**
+     * Instantiates a new Optimizer.
+     *
+     * @param numericOperands whether variables, functions and formulas may be assumed to evaluate to doubles, which
+     *         enables the simplification of identities and double negation for them
+     */
+    public Optimizer(boolean numericOperands) {
+        this.numericOperands = numericOperands;
+    }
+
+    /**
+     * Optimize an expression.
+     *
+     * @param e the expression
+     * @return the result holding the optimized expression and the number of removed nodes
+     */
+    public Result optimize(Expression e) {
+        Expression optimized = simplify(e);
+        return new Result(optimized, count(e), count(optimized));
+    }
+
+    /**
+     * Simplify an expression bottom up.
+     *
+     * @param e the expression
+     * @return the simplified expression, the given one if nothing changed
+     */
+    private Expression simplify(Expression e) {
+        if (e instanceof BracketExpression) {
+            return simplify(((BracketExpression) e).getExpression());
+        } else if (e instanceof MathExpression) {
+            return simplify((MathExpression) e);
+        } else if (e instanceof MinusExpression) {
+            return simplify((MinusExpression) e);
+        } else if (e instanceof BoolExpression) {
+            BoolExpression b = (BoolExpression) e;
+            Expression left = simplify(b.getLeft());
+            Expression right = simplify(b.getRight());
+            return left == b.getLeft() && right == b.getRight() ? b : new BoolExpression(left, b.getOperator(), right);
+        } else if (e instanceof FunctionExpression) {
+            FunctionExpression f = (FunctionExpression) e;
+            List<Expression> params = new ArrayList<>(f.getParams().size());
+            boolean changed = false;
+            for (Expression param : f.getParams()) {
+                Expression simplified = simplify(param);
+                changed |= simplified != param;
+                params.add(simplified);
+            }
+            return changed ? new FunctionExpression(f.getName(), params) : f;
+        }
+        return e;
+    }
+
+    /**
+     * Simplify a math expression.
+     *
+     * @param e the expression
+     * @return the simplified expression
+     */
+    private Expression simplify(MathExpression e) {
+        // simplify left-recursive chains like a1+a2+...+an from the innermost operation without recursion
+        List<MathExpression> chain = new ArrayList<>();
+        Expression current = e;
+        while (current instanceof MathExpression) {
+            chain.add((MathExpression) current);
+            current = ((MathExpression) current).getLeft();
+        }
+        Expression left = simplify(current);
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            MathExpression m = chain.get(i);
+            left = simplify(m, left, simplify(m.getRight()));
+        }
+        return left;
+    }
+
+    /**
+     * Simplify a math expression with simplified operands.
+     *
+     * @param e the expression
+     * @param left the simplified left
+     * @param right the simplified right
+     * @return the simplified expression
+     */
+    private Expression simplify(MathExpression e, Expression left, Expression right) {
+        Double l = value(left);
+        Double r = value(right);
+
+        if (l != null && r != null) {
+            return new NumberExpression(calculate(e.getOperator(), l, r));
+        }
+        switch (e.getOperator()) {
+            case MUL:
+                if (isOne(r) && isNumeric(left)) {
+                    return left;
+                } else if (isOne(l) && isNumeric(right)) {
+                    return right;
+                }
+                break;
+            case DIV:
+            case POW:
+                if (isOne(r) && isNumeric(left)) {
+                    return left;
+                }
+                break;
+            case SUB:
+                if (r != null && Double.doubleToRawLongBits(r) == 0L && isNumeric(left)) {
+                    return left;
+                }
+                break;
+            default:
+                break;
+        }
+        return left == e.getLeft() && right == e.getRight() ? e : new MathExpression(left, e.getOperator(), right);
+    }
+
+    /**
+     * Simplify a minus expression.
+     *
+     * @param e the expression
+     * @return the simplified expression
+     */
+    private Expression simplify(MinusExpression e) {
+        Expression operand = simplify(e.getExpression());
+        Double value = value(operand);
+        if (value != null) {
+            return new NumberExpression(-1 * value);
+        } else if (operand instanceof MinusExpression && isDouble(((MinusExpression) operand).getExpression())) {
+            return ((MinusExpression) operand).getExpression();
+        }
+        return operand == e.getExpression() ? e : new MinusExpression(operand);
+    }
+
+    /**
+     * Checks whether an expression evaluates to a double, so it may replace a math expression it is an operand of.
+     *
+     * @param e the simplified expression
+     * @return {@code true} if so
+     */
+    private boolean isNumeric(Expression e) {
+        if (e instanceof NumberExpression || e instanceof MathExpression || e instanceof MinusExpression) {
+            return true;
+        }
+        return numericOperands && (e instanceof VariableExpression && ((VariableExpression) e).getName().indexOf(':') < 0
+                || e instanceof FunctionExpression || e instanceof FormulaExpression);
+    }
+
+    /**
+     * Checks whether an expression always evaluates to a double and never to {@code null}, so a double negation of it
+     * may be removed.
+     *
+     * @param e the simplified expression
+     * @return {@code true} if so
+     */
+    private boolean isDouble(Expression e) {
+        // walk left-recursive chains like a1+a2+...+an without recursion
+        while (e instanceof MathExpression || e instanceof MinusExpression) {
+            if (e instanceof MathExpression) {
+                if (!isDouble(((MathExpression) e).getRight())) {
+                    return false;
+                }
+                e = ((MathExpression) e).getLeft();
+            } else {
+                e = ((MinusExpression) e).getExpression();
+            }
+        }
+        return isNumeric(e);
+    }
+
+    /**
+     * Gets the value of a number expression.
+     *
+     * @param e the expression
+     * @return the value or {@code null} if the expression is no number expression or has no value
+     */
+    private static Double value(Expression e) {
+        return e instanceof NumberExpression ? ((NumberExpression) e).getValue() : null;
+    }
+
+    /**
+     * Checks whether a value is one.
+     *
+     * @param value the value, may be {@code null}
+     * @return {@code true} if so
+     */
+    private static boolean isOne(Double value) {
+        return value != null && value == 1.0;
+    }
+
+    /**
+     * Calculates a math operation like the evaluator.
+     *
+     * @param operator the operator
+     * @param left the left
+     * @param right the right
+     * @return the result
+     */
+    private static double calculate(MathExpression.Operator operator, double left, double right) {
+        switch (operator) {
+            case ADD:
+                return left + right;
+            case SUB:
+                return left - right;
+            case MUL:
+                return left * right;
+            case DIV:
+                return left / right;
+            default:
+                return Math.pow(left, right);
+        }
+    }
+
+    /**
+     * Counts the nodes of an expression.
+     *
+     * @param e the expression
+     * @return the number of nodes
+     */
+    static int count(Expression e) {
+        int count = 0;
+        // walk left-recursive chains like a1+a2+...+an without recursion
+        while (e instanceof MathExpression || e instanceof BoolExpression) {
+            if (e instanceof MathExpression) {
+                count += 1 + count(((MathExpression) e).getRight());
+                e = ((MathExpression) e).getLeft();
+            } else {
+                count += 1 + count(((BoolExpression) e).getRight());
+                e = ((BoolExpression) e).getLeft();
+            }
+        }
+        if (e instanceof BracketExpression) {
+            return count + 1 + count(((BracketExpression) e).getExpression());
+        } else if (e instanceof MinusExpression) {
+            return count + 1 + count(((MinusExpression) e).getExpression());
+        } else if (e instanceof FunctionExpression) {
+            count++;
+            for (Expression param : ((FunctionExpression) e).getParams()) {
+                count += count(param);
+            }
+            return count;
+        }
+        return e == null ? count : count + 1;
+    }
+
+    /**
+     * The result of an optimization.
+     */
+    public static final class Result {
+        /**
+         * The Expression.
+         */
+        private final Expression expression;
+        /**
+         * The number of nodes of the original expression.
+         */
+        private final int originalNodes;
+        /**
+         * The number of nodes of the optimized expression.
+         */
+        private final int optimizedNodes;
+
+        /**
+         * Instantiates a new Result.
+         *
+         * @param expression the optimized expression
+         * @param originalNodes the number of nodes of the original expression
+         * @param optimizedNodes the number of nodes of the optimized expression
+         */
+        Result(Expression expression, int originalNodes, int optimizedNodes) {
+            this.expression = expression;
+            this.originalNodes = originalNodes;
+            this.optimizedNodes = optimizedNodes;
+        }
+
+        /**
+         * Gets the optimized expression.
+         *
+         * @return expression value
+         */
+        public Expression getExpression() {
+            return expression;
+        }
+
+        /**
+         * Gets the number of nodes of the original expression.
+         *
+         * @return original nodes value
+         */
+        public int getOriginalNodes() {
+            return originalNodes;
+        }
+
+        /**
+         * Gets the number of nodes of the optimized expression.
+         *
+         * @return optimized nodes value
+         */
+        public int getOptimizedNodes() {
+            return optimizedNodes;
+        }
+
+        /**
+         * Gets the number of removed nodes.
+         *
+         * @return removed nodes value
+         */
+        public int getRemovedNodes() {
+            return originalNodes - optimizedNodes;
+        }
+
+        @Override
+        public String toString() {
+            return expression + " (" + getRemovedNodes() + " of " + originalNodes + " nodes removed)";
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package parser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe cache of parsed expressions, keyed by the formula text.
+ * <p>
+ * The cache holds at most the given number of expressions and evicts the least recently used one when it is full.
+ * It is split into segments by the hash of the formula text, each evicting its own least recently used expression,
+ * so threads looking up different formulas rarely contend. The parsed expression trees are immutable and shared
+ * between all callers. Formulas are parsed outside of the locks, so a slow parse does not block the other threads.
+ *
+ * @author sedoe
+ */
+public class ParseCache {
+    /**
+     * The maximum number of segments.
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * The Maximum size.
+     */
+    private final int maximumSize;
+    /**
+     * The Segments.
+     */
+    private final Segment[] segments;
+    /**
+     * The Hits.
+     */
+    private final LongAdder hits = new LongAdder();
+    /**
+     * The Misses.
+     */
+    private final LongAdder misses = new LongAdder();
+    /**
+     * The Evictions.
+     */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Instantiates a new Parse cache.
+     *
+     * @param maximumSize the maximum number of cached expressions
+     */
+    public ParseCache(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        // a power of two, each segment holding 8 expressions at least
+        int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maximumSize / 8)));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // distribute the remainder, so the segments hold maximumSize expressions in total
+            segments[i] = new Segment(maximumSize / count + (i < maximumSize % count ? 1 : 0), evictions);
+        }
+    }
+
+    /**
+     * Parse expression or get it from the cache.
+     *
+     * @param str the str
+     * @return the expression
+     */
+    public Expression parse(String str) {
+        int hash = str.hashCode();
+        Segment segment = segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+        Expression e;
+        synchronized (segment) {
+            e = segment.get(str);
+        }
+        if (e != null) {
+            hits.increment();
+            return e;
+        }
+
+        misses.increment();
+        e = new Parser().parse(str);
+        if (e == null) {
+            return null;
+        }
+        synchronized (segment) {
+            // another thread may have parsed the same formula in the meantime
+            Expression existing = segment.putIfAbsent(str, e);
+            return existing != null ? existing : e;
+        }
+    }
+
+    /**
+     * Removes all expressions from the cache. The statistics are not reset.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of cached expressions.
+     *
+     * @return the size
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Gets the maximumSize.
+     *
+     * @return maximum size value
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Gets the number of parse calls answered from the cache.
+     *
+     * @return hit count value
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of parse calls which had to parse the formula.
+     *
+     * @return miss count value
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of expressions evicted because the cache was full.
+     *
+     * @return eviction count value
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets the ratio of hits to all parse calls.
+     *
+     * @return hit rate value, 1 if there were no calls yet
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 1.0 : (double) hitCount / total;
+    }
+
+    /**
+     * A segment of the cache, evicting its least recently used expression when it is full. Guarded by itself.
+     */
+    private static final class Segment extends LinkedHashMap<String, Expression> {
+        /**
+         * The constant serialVersionUID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The maximum number of expressions.
+         */
+        private final int capacity;
+        /**
+         * The number of evicted expressions of all segments.
+         */
+        private final LongAdder evictions;
+
+        /**
+         * Instantiates a new Segment.
+         *
+         * @param capacity the maximum number of expressions
+         * @param evictions the number of evicted expressions of all segments
+         */
+        Segment(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package parser;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -12,13 +13,19 @@ import java.util.List;
  * comparison = addition {("<" | "<=" | "=" | "<>" | "=>" | ">") addition}
  * addition = multiplication {("+" | "-") multiplication}
  * multiplication = power {("*" | "/") power}
- * power = negation ["^" negation]
+ * power = negation {"^" negation}
  * negation = ["-"] atom
  * atom = variable | number | function | formula | "(" expression ")"
  * variable = identifier
  * function = identifier "(" {expression ";"} ")"
  * formula = "=" identifier
  * </pre>
+ * <p>
+ * In the default {@link Mode#REWRITE} mode the parser reads the operands of {@code + - * / ^} in loops and fixes the
+ * associativity in a second pass over the whole tree. The {@link Mode#PRECEDENCE_CLIMBING} mode builds the correctly
+ * associated tree in one pass. In both modes the recursion depth grows with the nesting of brackets and functions
+ * only, not with the length of an operator chain like {@code a1+a2+...+a5000} or {@code a1^2+a2^2+...+a5000^2}. The
+ * precedence climbing mode follows the grammar above exactly, so it also parses comparison chains as written.
  *
  * @author sedoe
  */
@@ -29,18 +36,59 @@ public class Parser {
     private static final char EOF = (char) -1;
 
     /**
-     * The Str.
+     * The Mode.
+     */
+    private final Mode mode;
+
+    /**
+     * The table interning the names.
      */
-    private String str;
+    private final SymbolTable symbols;
+
+    /**
+     * The parsed characters.
+     */
+    private CharSequence str;
     /**
      * The Pos.
      */
     private int pos;
+    /**
+     * The index after the last character to parse.
+     */
+    private int end;
     /**
      * The Last expression.
      */
     private Expression lastExpression;
 
+    /**
+     * Instantiates a new Parser in {@link Mode#REWRITE} mode.
+     */
+    public Parser() {
+        this(Mode.REWRITE);
+    }
+
+    /**
+     * Instantiates a new Parser.
+     *
+     * @param mode the mode
+     */
+    public Parser(Mode mode) {
+        this(mode, SymbolTable.getDefault());
+    }
+
+    /**
+     * Instantiates a new Parser.
+     *
+     * @param mode the mode
+     * @param symbols the table interning the names of variables, functions and formulas
+     */
+    public Parser(Mode mode, SymbolTable symbols) {
+        this.mode = mode;
+        this.symbols = symbols;
+    }
+
     /**
      * Parse expression.
      *
@@ -48,9 +96,44 @@ public class Parser {
      * @return the expression
      */
     public Expression parse(String str) {
+        return parse(str, 0, str.length());
+    }
+
+    /**
+     * Parse the expression in a character sequence, e.g. a {@link StringBuilder} or a {@link CharBuffer}.
+     *
+     * @param chars the characters
+     * @return the expression
+     */
+    public Expression parse(CharSequence chars) {
+        return parse(chars, 0, chars.length());
+    }
+
+    /**
+     * Parse the expression in a region of a character array without copying it.
+     *
+     * @param chars the characters
+     * @param offset the index of the first character
+     * @param length the number of characters
+     * @return the expression
+     */
+    public Expression parse(char[] chars, int offset, int length) {
+        return parse(CharBuffer.wrap(chars, offset, length), 0, length);
+    }
+
+    /**
+     * Parse the expression in a region of a character sequence without copying it.
+     *
+     * @param chars the characters
+     * @param start the index of the first character
+     * @param end the index after the last character
+     * @return the expression
+     */
+    public Expression parse(CharSequence chars, int start, int end) {
         this.lastExpression = null;
-        this.str = str;
-        pos = 0;
+        this.str = chars;
+        this.pos = start;
+        this.end = end;
 
         consumeBlanks();
 
@@ -59,6 +142,11 @@ public class Parser {
             consumeBlanks();
         }
 
+        if (mode == Mode.PRECEDENCE_CLIMBING) {
+            lastExpression = comparison();
+            return lastExpression;
+        }
+
         expression();
 
         lastExpression = processPrecedence(lastExpression);
@@ -131,61 +219,54 @@ public class Parser {
     }
 
     /**
-     * Plus minus expression.
+     * Plus minus expression. The operands are parsed in a loop, so long chains do not deepen the recursion.
      */
     protected void plusMinusExpression() {
         mulDivExpression();
 
-        Expression left = lastExpression;
-        if (next() == '+') {
-            // consume '+'
-            consume();
-            consumeBlanks();
-            plusMinusExpression();
-            lastExpression = new MathExpression(left, MathExpression.Operator.ADD, lastExpression);
-        } else if (next() == '-') {
-            // consume '-'
+        while (next() == '+' || next() == '-') {
+            Expression left = lastExpression;
+            MathExpression.Operator operator = next() == '+' ? MathExpression.Operator.ADD : MathExpression.Operator.SUB;
+            // consume '+' or '-'
             consume();
             consumeBlanks();
-            plusMinusExpression();
-            lastExpression = new MathExpression(left, MathExpression.Operator.SUB, lastExpression);
+            lastExpression = null;
+            mulDivExpression();
+            lastExpression = new MathExpression(left, operator, lastExpression);
         }
     }
 
     /**
-     * Mul div expression.
+     * Mul div expression. The operands are parsed in a loop, so long chains do not deepen the recursion.
      */
     protected void mulDivExpression() {
         powerExpression();
 
-        Expression left = lastExpression;
-        if (next() == '*') {
-            // consume '*'
-            consume();
-            consumeBlanks();
-            mulDivExpression();
-            lastExpression = new MathExpression(left, MathExpression.Operator.MUL, lastExpression);
-        } else if (next() == '/') {
-            // consume '/'
+        while (next() == '*' || next() == '/') {
+            Expression left = lastExpression;
+            MathExpression.Operator operator = next() == '*' ? MathExpression.Operator.MUL : MathExpression.Operator.DIV;
+            // consume '*' or '/'
             consume();
             consumeBlanks();
-            mulDivExpression();
-            lastExpression = new MathExpression(left, MathExpression.Operator.DIV, lastExpression);
+            lastExpression = null;
+            powerExpression();
+            lastExpression = new MathExpression(left, operator, lastExpression);
         }
     }
 
     /**
-     * Power expression.
+     * Power expression. The operands are parsed in a loop, so long chains do not deepen the recursion.
      */
     protected void powerExpression() {
         minusExpression();
 
-        if (next() == '^') {
+        while (next() == '^') {
             Expression left = lastExpression;
             // consume '^'
             consume();
             consumeBlanks();
-            expression();
+            lastExpression = null;
+            minusExpression();
             lastExpression = new MathExpression(left, MathExpression.Operator.POW, lastExpression);
         }
     }
@@ -215,91 +296,120 @@ public class Parser {
     protected void valueExpression() {
         bracketExpression();
 
-        StringBuilder sb = new StringBuilder();
-
-        // text
         if (next() == '\"') {
-            consume();
-            while (next() != '"' || next(1) == '"') {
-                if (next() == '"' && next(1) == '"') {
-                    // handle double " character
-                    sb.append('"');
-                    consume();
-                    consume();
-                } else {
-                    sb.append(next());
-                    consume();
-                }
-            }
-            // consume end "
-            consume();
-            consumeBlanks();
-            lastExpression = new TextExpression(sb.toString());
-
-            // number
+            lastExpression = textExpression();
         } else if (isNumber(next()) || next() == '.') {
-
-            boolean dotSeen = false;
-            if (next() == '.') {
-                dotSeen = true;
-                consume();
+            lastExpression = numberExpression();
+        } else if (isLetter(next())) { // first name character may be letter only
+            String name = name();
+            if (next() == '(') {
+                // if '(' character recognized the name is the function name
+                // --> process the rest of the function
+                functionExpression(name);
+            } else {
+                lastExpression = new VariableExpression(name);
             }
+        } else if (next() == '=') {
+            lastExpression = formulaExpression();
+        }
+    }
 
-            while (isNumber(next()) || next() == '.') {
-                if (dotSeen && next() == '.') {
-                    // ignore multiple dots
-                    consume();
-                    continue;
-                }
-
-                sb.append(next());
-                if (next() == '.') {
-                    dotSeen = true;
+    /**
+     * Text expression, starting at the opening quote.
+     *
+     * @return the expression
+     */
+    private TextExpression textExpression() {
+        consume();
+        int start = pos;
+        StringBuilder sb = null;
+        while (next() != '"' || next(1) == '"') {
+            if (next() == EOF) {
+                break;
+            } else if (next() == '"') {
+                // handle double " character: copy the text up to the first quote
+                if (sb == null) {
+                    sb = new StringBuilder();
                 }
+                sb.append(str, start, pos + 1);
+                consume();
+                consume();
+                start = pos;
+            } else {
                 consume();
             }
+        }
+        String text = sb == null ? str.subSequence(start, pos).toString() : sb.append(str, start, pos).toString();
+        // consume end "
+        consume();
+        consumeBlanks();
+        return new TextExpression(text);
+    }
 
-            consumeBlanks();
-
-            lastExpression = new NumberExpression(Double.parseDouble(sb.toString()));
+    /**
+     * Number expression, starting at the first digit or dot.
+     *
+     * @return the expression
+     */
+    private NumberExpression numberExpression() {
+        boolean leadingDot = false;
+        if (next() == '.') {
+            // a leading dot is skipped
+            leadingDot = true;
+            consume();
+        }
+        int start = pos;
+        while (isNumber(next()) || next() == '.') {
+            consume();
+        }
+        int numberEnd = pos;
 
-            // variable
-        } else if (isLetter(next())) { // first name character may be letter only
+        consumeBlanks();
 
-            // process first character of the name
-            sb.append(next());
-            consume();
+        return new NumberExpression(DecimalParser.parse(str, start, numberEnd, leadingDot));
+    }
 
-            // subsequent characters may be letters and numbers
-            while (isLetter(next()) || isNumber(next()) || next() == ':') {
-                sb.append(next());
-                consume();
-            }
+    /**
+     * Name of a variable, range or function, starting at the first letter.
+     *
+     * @return the name
+     */
+    private String name() {
+        int start = pos;
 
-            consumeBlanks();
+        // process first character of the name
+        consume();
 
-            if (next() == '(') {
-                // if '(' character recognized the name is the function name
-                // --> process the rest of the function
-                functionExpression(sb.toString());
-            } else {
-                lastExpression = new VariableExpression(sb.toString());
-            }
-        } else if (next() == '=') {
-            // consume '='
+        // subsequent characters may be letters and numbers
+        while (isLetter(next()) || isNumber(next()) || next() == ':') {
             consume();
-            consumeBlanks();
+        }
+        String name = symbols.intern(str, start, pos);
 
-            // subsequent characters may be letters and numbers
-            while (isLetter(next()) || isNumber(next())) {
-                sb.append(next());
-                consume();
-            }
+        consumeBlanks();
+        return name;
+    }
 
-            consumeBlanks();
+    /**
+     * Formula expression, starting at the '=' character.
+     *
+     * @return the expression
+     */
+    private FormulaExpression formulaExpression() {
+        // consume '='
+        consume();
+        consumeBlanks();
 
-            lastExpression = new FormulaExpression(sb.toString());
+        // subsequent characters may be letters and numbers
+        int start = pos;
+        while (isLetter(next()) || isNumber(next())) {
+            consume();
         }
+        String name = symbols.intern(str, start, pos);
+
+        consumeBlanks();
+
+        return new FormulaExpression(name);
     }
 
     /**
@@ -349,6 +459,153 @@ public class Parser {
         lastExpression = new FunctionExpression(name, expressions);
     }
 
+    /**
+     * Comparison, parsed in one pass.
+     *
+     * @return the expression
+     */
+    private Expression comparison() {
+        Expression left = operation(1);
+        while (true) {
+            BoolExpression.Operator operator;
+            if (next() == '<') {
+                consume();
+                operator = BoolExpression.Operator.L;
+                if (next() == '=') {
+                    consume();
+                    operator = BoolExpression.Operator.LE;
+                } else if (next() == '>') {
+                    consume();
+                    operator = BoolExpression.Operator.NE;
+                }
+            } else if (next() == '>') {
+                consume();
+                operator = BoolExpression.Operator.G;
+                if (next() == '=') {
+                    consume();
+                    operator = BoolExpression.Operator.GE;
+                }
+            } else if (next() == '=') {
+                consume();
+                operator = BoolExpression.Operator.E;
+            } else {
+                return left;
+            }
+            consumeBlanks();
+            left = new BoolExpression(left, operator, operation(1));
+        }
+    }
+
+    /**
+     * Math operation, parsed in one pass by precedence climbing. All operators are left associative.
+     *
+     * @param precedence the minimum precedence of the operators to parse
+     * @return the expression
+     */
+    private Expression operation(int precedence) {
+        Expression left = negation();
+        while (true) {
+            MathExpression.Operator operator = operator(next());
+            if (operator == null || operator.getPrecedence() < precedence) {
+                return left;
+            }
+            consume();
+            consumeBlanks();
+            left = new MathExpression(left, operator, operation(operator.getPrecedence() + 1));
+        }
+    }
+
+    /**
+     * Negation, parsed in one pass.
+     *
+     * @return the expression
+     */
+    private Expression negation() {
+        if (next() == '-') {
+            consume();
+            consumeBlanks();
+            return new MinusExpression(negation());
+        } else if (next() == '+') {
+            consume();
+            consumeBlanks();
+        }
+        return atom();
+    }
+
+    /**
+     * Atom, parsed in one pass.
+     *
+     * @return the expression or {@code null} if there is none
+     */
+    private Expression atom() {
+        if (next() == '(') {
+            // consume '('
+            consume();
+            consumeBlanks();
+            Expression e = comparison();
+            // consume ')'
+            consume();
+            consumeBlanks();
+            return new BracketExpression(e);
+        } else if (next() == '\"') {
+            return textExpression();
+        } else if (isNumber(next()) || next() == '.') {
+            return numberExpression();
+        } else if (isLetter(next())) {
+            String name = name();
+            if (next() != '(') {
+                return new VariableExpression(name);
+            }
+
+            // consume '('
+            consume();
+            consumeBlanks();
+            List<Expression> params = new ArrayList<>();
+            while (next() != ')' && next() != EOF) {
+                Expression param = comparison();
+                if (param != null) {
+                    params.add(param);
+                }
+                if (next() != ';') {
+                    break;
+                }
+                // consume ';'
+                consume();
+                consumeBlanks();
+            }
+            // consume ')'
+            consume();
+            consumeBlanks();
+            return new FunctionExpression(name, params);
+        } else if (next() == '=') {
+            return formulaExpression();
+        }
+        return null;
+    }
+
+    /**
+     * Gets the math operator of a character.
+     *
+     * @param c the c
+     * @return the operator or {@code null} if the character is no math operator
+     */
+    private static MathExpression.Operator operator(char c) {
+        switch (c) {
+            case '+':
+                return MathExpression.Operator.ADD;
+            case '-':
+                return MathExpression.Operator.SUB;
+            case '*':
+                return MathExpression.Operator.MUL;
+            case '/':
+                return MathExpression.Operator.DIV;
+            case '^':
+                return MathExpression.Operator.POW;
+            default:
+                return null;
+        }
+    }
+
     /**
      * Is number boolean.
      *
@@ -385,7 +642,7 @@ public class Parser {
      * @return the char
      */
     private char next(int lookahead) {
-        if (pos + lookahead >= str.length()) {
+        if (pos + lookahead >= end) {
             return EOF;
         }
         return str.charAt(pos + lookahead);
@@ -431,23 +688,61 @@ public class Parser {
 
     protected MathExpression processPrecedence(MathExpression e) {
         // 1 - 2 - 3 = -4
-        // The parser produces this expression tree:
+        // A right-recursive expression tree like this one
         //     /\  which is equal to 1 - (2 - 3) = 0
         //    1 /\
         //     2  3
-        // If the precedence of the operators on the right side greater or equal to the precedence of the left side,
-        // this method transforms it to:
+        // is transformed, if the precedence of the operators on the right side greater or equal to the precedence of
+        // the left side, to:
         //      /\    which is equal to (1 - 2) - 3 = -4
         //     /\ 3
         //    1  2
-        if (e.getRight() instanceof MathExpression) {
+        if (rotates(e)) {
             MathExpression right = (MathExpression) e.getRight();
-            if (right.getOperator().getPrecedence() <= e.getOperator().getPrecedence()) {
-                MathExpression tmp = new MathExpression(processPrecedence(e.getLeft()), e.getOperator(), right.getLeft());
-                return processPrecedence(new MathExpression(tmp, right.getOperator(), processPrecedence(right.getRight())));
-            }
+            MathExpression tmp = new MathExpression(processPrecedence(e.getLeft()), e.getOperator(), right.getLeft());
+            return processPrecedence(new MathExpression(tmp, right.getOperator(), processPrecedence(right.getRight())));
+        }
+
+        // the operators parsed in a loop build long left-recursive chains: process them without recursion
+        List<MathExpression> chain = new ArrayList<>();
+        Expression current = e;
+        while (current instanceof MathExpression && !rotates((MathExpression) current)) {
+            chain.add((MathExpression) current);
+            current = ((MathExpression) current).getLeft();
         }
-        return new MathExpression(processPrecedence(e.getLeft()), e.getOperator(), processPrecedence(e.getRight()));
+        Expression result = processPrecedence(current);
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            MathExpression m = chain.get(i);
+            MathExpression link = new MathExpression(result, m.getOperator(), processPrecedence(m.getRight()));
+            // the processed right side may now have a lower precedence, e.g. 2^2+3 in 1-2^2+3
+            result = rotates(link) ? processPrecedence(link) : link;
+        }
+        return (MathExpression) result;
+    }
+
+    /**
+     * Checks whether the right side of a math expression has to be rotated to the left.
+     *
+     * @param e the expression
+     * @return {@code true} if so
+     */
+    private static boolean rotates(MathExpression e) {
+        return e.getRight() instanceof MathExpression
+                && ((MathExpression) e.getRight()).getOperator().getPrecedence() <= e.getOperator().getPrecedence();
+    }
+
+    /**
+     * The enum Mode.
+     */
+    public enum Mode {
+        /**
+         * Parse right-recursive trees and fix the associativity of the operators in a second pass.
+         */
+        REWRITE,
+        /**
+         * Parse the correctly associated tree in one pass.
+         */
+        PRECEDENCE_CLIMBING
     }
 
     /**
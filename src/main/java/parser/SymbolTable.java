@@ -0,0 +1,228 @@
+package parser;
+
+/**
+ * Thread safe table of interned names, looked up by a region of a character sequence without copying it.
+ * <p>
+ * The parser interns the names of variables, functions and formulas, so a name occurring thousands of times is held
+ * by a single {@code String} and no temporary string is created for a name which was seen before. Lookups do not
+ * lock; only adding a new name does.
+ * <p>
+ * The table holds a bounded number of names. When it is full, it drops all names and starts over, so a long running
+ * process which parses ever new names keeps the names of its current formulas only. Dropped names stay valid, they
+ * are just no longer shared with the names interned later. Bulk loads of large catalogs, like the
+ * {@link FormulaLoader} and the {@link ExpressionCodec}, intern the names in an {@link #unbounded() unbounded} table
+ * of their own instead, which never starts over.
+ *
+ * @author sedoe
+ */
+public final class SymbolTable {
+    /**
+     * The default maximum number of names.
+     */
+    public static final int DEFAULT_MAX_SIZE = 1 << 16;
+    /**
+     * The initial length of the table.
+     */
+    private static final int INITIAL_LENGTH = 256;
+    /**
+     * The table shared by all parsers created without an own one.
+     */
+    private static final SymbolTable DEFAULT = new SymbolTable();
+
+    /**
+     * The maximum number of names.
+     */
+    private final int maxSize;
+
+    /**
+     * The names, hashed by open addressing with linear probing. Replaced by a larger array when half full.
+     */
+    private volatile String[] names = new String[INITIAL_LENGTH];
+    /**
+     * The number of names, guarded by this.
+     */
+    private int size;
+
+    /**
+     * Instantiates a new Symbol table holding up to {@link #DEFAULT_MAX_SIZE} names.
+     */
+    public SymbolTable() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Instantiates a new Symbol table.
+     *
+     * @param maxSize the maximum number of names, the table starts over when it is exceeded
+     */
+    public SymbolTable(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Creates a table which never drops its names, e.g. for the names of one catalog of formulas.
+     *
+     * @return the new table
+     */
+    public static SymbolTable unbounded() {
+        return new SymbolTable(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the table shared by all parsers created without an own one.
+     *
+     * @return the default table
+     */
+    public static SymbolTable getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Interns a name.
+     *
+     * @param name the name
+     * @return the interned name, equal to the given one
+     */
+    public String intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Interns the name in a region of a character sequence.
+     *
+     * @param chars the character sequence
+     * @param start the index of the first character
+     * @param end the index after the last character
+     * @return the interned name
+     */
+    public String intern(CharSequence chars, int start, int end) {
+        int hash = hash(chars, start, end);
+        String name = find(names, hash, chars, start, end);
+        if (name != null) {
+            return name;
+        }
+
+        synchronized (this) {
+            String[] table = names;
+            name = find(table, hash, chars, start, end);
+            if (name != null) {
+                return name;
+            }
+
+            name = chars.subSequence(start, end).toString();
+            if (size == maxSize) {
+                table = new String[INITIAL_LENGTH];
+                size = 0;
+            }
+            if (2 * (size + 1) > table.length) {
+                String[] larger = new String[table.length * 2];
+                for (String existing : table) {
+                    if (existing != null) {
+                        insert(larger, existing);
+                    }
+                }
+                insert(larger, name);
+                names = larger;
+            } else {
+                insert(table, name);
+                names = table;
+            }
+            size++;
+            return name;
+        }
+    }
+
+    /**
+     * Gets the number of interned names.
+     *
+     * @return the size
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Removes all names.
+     */
+    public synchronized void clear() {
+        names = new String[INITIAL_LENGTH];
+        size = 0;
+    }
+
+    /**
+     * Finds a name in a table.
+     *
+     * @param table the table
+     * @param hash the hash code of the name
+     * @param chars the character sequence
+     * @param start the index of the first character
+     * @param end the index after the last character
+     * @return the name or {@code null} if it is not in the table
+     */
+    private static String find(String[] table, int hash, CharSequence chars, int start, int end) {
+        int mask = table.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            String name = table[i];
+            if (name == null) {
+                return null;
+            } else if (name.hashCode() == hash && matches(name, chars, start, end)) {
+                return name;
+            }
+        }
+    }
+
+    /**
+     * Inserts a name which is not in the table yet.
+     *
+     * @param table the table
+     * @param name the name
+     */
+    private static void insert(String[] table, String name) {
+        int mask = table.length - 1;
+        int i = name.hashCode() & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = name;
+    }
+
+    /**
+     * Checks whether a name equals a region of a character sequence.
+     *
+     * @param name the name
+     * @param chars the character sequence
+     * @param start the index of the first character
+     * @param end the index after the last character
+     * @return {@code true} if so
+     */
+    private static boolean matches(String name, CharSequence chars, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != chars.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the hash code of a region of a character sequence like {@link String#hashCode()}.
+     *
+     * @param chars the character sequence
+     * @param start the index of the first character
+     * @param end the index after the last character
+     * @return the hash code
+     */
+    private static int hash(CharSequence chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        return hash;
+    }
+}
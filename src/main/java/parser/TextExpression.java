@@ -1,5 +1,7 @@
 package parser;
 
+import java.util.Objects;
+
 /**
  * The type Text expression.
  *
@@ -9,7 +11,7 @@ public class TextExpression extends Expression{
     /**
      * The Text.
      */
-    private String text;
+    private final String text;
 
     /**
      * Instantiates a new Text expression.
@@ -29,6 +31,22 @@ public class TextExpression extends Expression{
         return text;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        } else if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        TextExpression that = (TextExpression) o;
+        return Objects.equals(text, that.text);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(text);
+    }
+
     @Override
     public String toString() {
         return "\"" + text.replace("\"", "\"\"") + "\"";
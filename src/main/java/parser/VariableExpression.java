@@ -1,5 +1,7 @@
 package parser;
 
+import java.util.Objects;
+
 /**
  * The type Variable expression.
  *
@@ -9,7 +11,7 @@ public class VariableExpression extends Expression{
     /**
      * The Name.
      */
-    private String name;
+    private final String name;
 
     /**
      * Instantiates a new Variable expression.
@@ -29,6 +31,22 @@ public class VariableExpression extends Expression{
         return name;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        } else if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        VariableExpression that = (VariableExpression) o;
+        return Objects.equals(name, that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name);
+    }
+
     @Override
     public String toString() {
         return name;
@@ -0,0 +1,140 @@
+package evaluation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import parser.Expression;
+import parser.Parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author sedoe
+ */
+public class DeterministicFunctionTest {
+    private Parser parser = new Parser();
+    private AtomicInteger calls = new AtomicInteger();
+    private DeterministicFunction<Object, Object> tax = new DeterministicFunction<>(value -> {
+        calls.incrementAndGet();
+        return ((Number) value[0]).doubleValue() * 0.2;
+    });
+    private Map<String, Object> values = new HashMap<>();
+
+    private Evaluator evaluator() {
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        functions.put("tax", tax);
+        functions.put("random", value -> Math.random());
+        values.put("a", 2);
+        return new Evaluator(functions, values, new HashMap<>());
+    }
+
+    @Test
+    public void testPreparedFolding() {
+        Evaluator evaluator = evaluator();
+        PreparedExpression prepared = evaluator.prepare(parser.parse("=tax(1000+-(2*50))*a+tax(tax(5)*10)"));
+        assertEquals(3, calls.get());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(362.0, prepared.evaluate());
+        }
+        assertEquals(3, calls.get());
+
+        evaluator.prepare(parser.parse("=tax(random())")).evaluate();
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void testCompiledFolding() {
+        Evaluator evaluator = evaluator();
+        CompiledExpression compiled = evaluator.compile(parser.parse("=tax(1000)*a"));
+        assertTrue(compiled instanceof AbstractCompiledExpression);
+        assertEquals(1, calls.get());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(400.0, compiled.evaluate());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testNoFoldingOfFailingCall() {
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        functions.put("when", (ILazyFunction<Object>) arguments ->
+                arguments.getBoolean(0) ? arguments.get(1) : arguments.get(2));
+        functions.put("rate", new DeterministicFunction<>(value -> {
+            if (((Number) value[0]).doubleValue() < 0) {
+                throw new IllegalArgumentException("negative");
+            }
+            return 0.5;
+        }));
+        values.put("x", 2);
+        Evaluator evaluator = new Evaluator(functions, values, new HashMap<>());
+        Expression e = parser.parse("=when(x>0; 1; rate(-1))");
+        assertEquals(1.0, evaluator.evaluate(e));
+        assertEquals(1.0, evaluator.prepare(e).evaluate());
+        assertEquals(1.0, evaluator.compile(e).evaluate());
+
+        values.put("x", -2);
+        assertThrows(IllegalArgumentException.class, () -> evaluator.prepare(e).evaluate());
+        assertThrows(IllegalArgumentException.class, () -> evaluator.compile(e).evaluate());
+    }
+
+    @Test
+    public void testMemoization() {
+        Evaluator evaluator = evaluator();
+        Expression e = parser.parse("=tax(a)");
+        for (int i = 0; i < 10; i++) {
+            values.put("a", i % 3);
+            assertEquals(i % 3 * 0.2, (Double) evaluator.evaluate(e), 1e-12);
+        }
+        assertEquals(3, calls.get());
+        assertEquals(7, tax.getHits());
+        assertEquals(3, tax.getMisses());
+        assertEquals(0.7, tax.getHitRate(), 1e-12);
+        assertEquals(3, tax.size());
+
+        tax.clear();
+        assertEquals(0, tax.size());
+        assertEquals(0.0, tax.getHitRate());
+    }
+
+    @Test
+    public void testEviction() {
+        DeterministicFunction<Object, Object> square = new DeterministicFunction<>(value -> {
+            calls.incrementAndGet();
+            return value[0] instanceof Integer ? (Integer) value[0] * (Integer) value[0] : null;
+        }, 8);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i * i, square.calculate(i));
+        }
+        assertEquals(8, square.size());
+        assertEquals(2, square.getEvictions());
+
+        // 9 was used recently, 0 was evicted
+        assertEquals(81, square.calculate(9));
+        assertEquals(10, calls.get());
+        assertEquals(0, square.calculate(0));
+        assertEquals(11, calls.get());
+
+        // null results and ranges are cached
+        assertNull(square.calculate("x"));
+        assertNull(square.calculate("x"));
+        assertEquals(12, calls.get());
+        assertNull(square.calculate((Object) new Object[]{1, 2}));
+        assertNull(square.calculate((Object) new Object[]{1, 2}));
+        assertEquals(13, calls.get());
+    }
+
+    @Test
+    public void testFoldOnly() {
+        DeterministicFunction<Object, Object> uncached = new DeterministicFunction<>(value -> calls.incrementAndGet(), 0);
+        uncached.calculate(1);
+        uncached.calculate(1);
+        assertEquals(2, calls.get());
+        assertEquals(0, uncached.size());
+        assertEquals(2, uncached.getMisses());
+    }
+}
@@ -0,0 +1,67 @@
+package evaluation;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+import parser.Expression;
+import parser.Parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author sedoe
+ */
+public class EvaluationMetricsTest {
+    private Parser parser = new Parser();
+
+    @Test
+    public void testMetrics() throws Exception {
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        functions.put("sqrt", value -> Math.sqrt((Double) value[0]));
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", 4.0);
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f1", parser.parse("=a*2"));
+
+        Evaluator evaluator = new Evaluator(functions, values, expressions);
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        evaluator.setMetrics(metrics);
+        Expression e = parser.parse("==f1+=f1+sqrt(a)");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(18.0, (Object) evaluator.evaluate(e));
+        }
+        assertEquals(18.0, evaluator.evaluateDouble(e));
+
+        EvaluationMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(4, snapshot.getEvaluations().getCount());
+        assertEquals(9.0, snapshot.getMeanNodeCount());
+        assertEquals(4, snapshot.getFormulas().get("f1").getCount());
+        assertEquals(4, snapshot.getFormulaCacheHits());
+        assertEquals(0.5, snapshot.getFormulaCacheHitRate());
+        assertEquals(4, snapshot.getFunctions().get("sqrt").getCount());
+        assertTrue(snapshot.getEvaluations().getPercentileNanos(0.99) >= snapshot.getEvaluations().getMeanNanos() / 2);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = metrics.register("formula:type=EvaluationMetrics,name=test");
+        try {
+            assertEquals(4L, server.getAttribute(name, "EvaluationCount"));
+            assertEquals(0.5, server.getAttribute(name, "FormulaCacheHitRate"));
+            assertEquals(9.0, server.getAttribute(name, "MeanNodeCount"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "EvaluationCount"));
+            assertEquals(0.0, server.getAttribute(name, "FormulaCacheHitRate"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+
+        evaluator.setMetrics(null);
+        evaluator.evaluate(e);
+        assertEquals(0, metrics.snapshot().getEvaluations().getCount());
+    }
+}
@@ -0,0 +1,196 @@
+package evaluation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import parser.Expression;
+import parser.Parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author sedoe
+ */
+public class EvaluatorTest {
+    private Parser parser = new Parser();
+
+    @Test
+    public void testRange() {
+        Map<String, Object> hashed = new HashMap<>();
+        for (int i = 1; i <= 20; i++) {
+            hashed.put("r" + i, i);
+        }
+        hashed.put("text", "TEXT");
+        Map<String, Object> sorted = new TreeMap<>(hashed);
+
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        functions.put("list", value -> Arrays.toString((Object[]) value[0]));
+
+        for (String formula : new String[]{"=list(r1:r4)", "=list(r2:r20)", "=list(r4:r1)", "=list(a:z)"}) {
+            Expression e = parser.parse(formula);
+            Object expected = new Evaluator(functions, hashed).evaluate(e);
+            Evaluator evaluator = new Evaluator(functions, sorted);
+            assertEquals(expected, evaluator.evaluate(e), formula);
+            assertEquals(expected, evaluator.prepare(e).evaluate(), formula);
+            assertEquals(expected, evaluator.compile(e).evaluate(), formula);
+        }
+        assertEquals("[1, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 2, 20, 3, 4]",
+                new Evaluator(functions, sorted).evaluate(parser.parse("=list(r1:r4)")));
+    }
+
+    @Test
+    public void testSharedByThreads() throws Exception {
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        functions.put("when", value -> ((Boolean) value[0]) ? value[1] : value[2]);
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f1", parser.parse("=a*2"));
+
+        Evaluator evaluator = new Evaluator(functions, new HashMap<>(), expressions);
+        Expression expression = parser.parse("=when(a>10;=f1;a)+1");
+        PreparedExpression prepared = evaluator.prepare(expression);
+        CompiledExpression compiled = evaluator.compile(expression);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int offset = t * 1000;
+                futures.add(executor.submit(() -> {
+                    Map<String, Object> values = new HashMap<>();
+                    EvaluationContext context = new EvaluationContext(values);
+                    for (int i = offset; i < offset + 1000; i++) {
+                        values.put("a", (double) i);
+                        Double expected = i > 10 ? i * 2.0 + 1 : i + 1.0;
+                        assertEquals(expected, evaluator.evaluate(expression, context));
+                        assertEquals(expected, prepared.evaluate(context));
+                        assertEquals(expected, compiled.evaluate(context));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFormulaEvaluatedOncePerPass() {
+        int[] calls = new int[1];
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        functions.put("count", value -> {
+            calls[0]++;
+            return value[0];
+        });
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f0", parser.parse("=count(a)"));
+        for (int i = 1; i <= 30; i++) {
+            expressions.put("f" + i, parser.parse("==f" + (i - 1) + "+=f" + (i - 1)));
+        }
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", 1.0);
+
+        Evaluator evaluator = new Evaluator(functions, values, expressions);
+        Expression e = parser.parse("==f30+=f30");
+        assertEquals(Math.pow(2, 31), (Double) evaluator.evaluate(e));
+        assertEquals(1, calls[0]);
+        assertEquals(Math.pow(2, 31), evaluator.evaluateDouble(e));
+        assertEquals(2, calls[0]);
+
+        EvaluationContext context = new EvaluationContext(values);
+        values.put("a", 2.0);
+        assertEquals(Math.pow(2, 32), (Double) evaluator.evaluate(e, context));
+        values.put("a", 3.0);
+        assertEquals(3 * Math.pow(2, 31), (Double) evaluator.evaluate(e, context));
+        assertEquals(4, calls[0]);
+
+        values.put("a", 1.0);
+        PreparedExpression prepared = evaluator.prepare(e);
+        assertEquals(Math.pow(2, 31), (Double) prepared.evaluate());
+        assertEquals(Math.pow(2, 31), prepared.evaluateDouble());
+        assertEquals(6, calls[0]);
+        double[] result = new double[3];
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("a", new double[]{1, 2, 3});
+        prepared.evaluateBatch(columns, 3, result);
+        assertEquals(3 * Math.pow(2, 31), result[2]);
+        assertEquals(9, calls[0]);
+
+        CompiledExpression compiled = evaluator.compile(e);
+        assertTrue(compiled instanceof AbstractCompiledExpression);
+        assertEquals(Math.pow(2, 31), (Double) compiled.evaluate());
+        values.put("a", 2.0);
+        assertEquals(Math.pow(2, 32), (Double) compiled.evaluate(context));
+        assertEquals(11, calls[0]);
+    }
+
+    @Test
+    public void testCyclicFormulas() {
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f1", parser.parse("==f2+1"));
+        expressions.put("f2", parser.parse("=when(a;=f3;1)"));
+        expressions.put("f3", parser.parse("==f1*2"));
+        Evaluator evaluator = new Evaluator(new HashMap<>(), new HashMap<>(), expressions);
+        Expression e = parser.parse("==f1");
+
+        IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, () -> evaluator.evaluate(e));
+        assertEquals("Cyclic reference between the formulas f1 -> f2 -> f3 -> f1", thrown.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> evaluator.prepare(e));
+        assertThrows(IllegalArgumentException.class, () -> evaluator.compile(e));
+    }
+
+    @Test
+    public void testCycleAddedLater() {
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f1", parser.parse("==f2+1"));
+        Evaluator evaluator = new Evaluator(new HashMap<>(), new HashMap<>(), expressions);
+        Expression e = parser.parse("==f1");
+        assertEquals(null, (Object) evaluator.evaluate(e));
+
+        expressions.put("f2", parser.parse("==f1+1"));
+        IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, () -> evaluator.evaluate(e));
+        assertEquals("Cyclic reference between the formulas f1 -> f2 -> f1", thrown.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> evaluator.evaluateDouble(e));
+
+        expressions.put("f2", parser.parse("=2"));
+        assertEquals(3.0, (Double) evaluator.evaluate(e));
+    }
+
+    @Test
+    public void testLongFormula() {
+        int terms = 50000;
+        StringBuilder sb = new StringBuilder("=a0");
+        Map<String, Object> values = new TreeMap<>();
+        values.put("a0", 0.0);
+        double expected = 0;
+        for (int i = 1; i < terms; i++) {
+            sb.append(i % 3 == 0 ? '-' : '+').append('a').append(i).append(i % 7 == 0 ? "*2" : "");
+            values.put("a" + i, (double) i);
+            expected = i % 3 == 0 ? expected - i * (i % 7 == 0 ? 2 : 1) : expected + i * (i % 7 == 0 ? 2 : 1);
+        }
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f", new Parser().parse(sb.toString()));
+        Evaluator evaluator = new Evaluator(new HashMap<>(), values, expressions);
+
+        for (Parser.Mode mode : Parser.Mode.values()) {
+            Expression e = new Parser(mode).parse(sb.toString());
+            assertEquals((Object) expected, evaluator.evaluate(e), mode.name());
+            assertEquals(expected, evaluator.evaluateDouble(e), mode.name());
+            assertEquals((Object) expected, evaluator.prepare(e).evaluate(), mode.name());
+            assertEquals(expected, evaluator.prepare(e).evaluateDouble(), mode.name());
+            assertEquals((Object) expected, evaluator.compile(e).evaluate(), mode.name());
+        }
+        assertEquals((Object) (expected + 1), evaluator.evaluate(new Parser().parse("==f+1")));
+    }
+}
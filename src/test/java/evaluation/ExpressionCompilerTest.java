@@ -0,0 +1,81 @@
+package evaluation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import parser.Expression;
+import parser.Parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author sedoe
+ */
+public class ExpressionCompilerTest {
+    private Parser parser = new Parser();
+
+    @Test
+    public void testArithmetic() {
+        Evaluator evaluator = new Evaluator();
+        String[] formulas = {
+                "=-2^2", "=2+-2^2", "=--2", "1-2-3", "1--2--3", "1--2-----3", "3-2+1", "4/2*3", "1*2+2*3/2", "2^3^4",
+                "=-2 / 25 / 2 * 3", "=-(2+2) / 25 / 2 * 3", "=-((2+2+2+2-2-2-2-2-2*5)^2) / 25 / 2 * 3",
+                "=-((2+2*5)^2) / 25 / 2 * 3 + 1 +1+2-3+1+1*15", "=2*4.5+2+2-1-1+5*3*3/5-3^2",
+                "=5*23/(3/9/5/4*(18-3)-3-4)", "=6*-4*+9*-8/-5/-6", "=(-2)^2^2", "=6*-4*+9*-8/-5/-6/(-2)^2^2",
+                "=(1+3+5+8+4+5*23/(3/9/5/4*(18-3)-3-4)+1-2-3-3+4+5+6*-4*+9*-8/-5/-6/(-2)^2^2)^5",
+                "=1+1<3", "=3>1+1", "=1<>1", "=0.0=-0.0", "=\"a\"<\"b\"", "=\"x\"+1"
+        };
+        for (String formula : formulas) {
+            Expression e = parser.parse(formula);
+            CompiledExpression compiled = evaluator.compile(e);
+            assertTrue(compiled instanceof AbstractCompiledExpression, formula);
+            assertEquals((Object) evaluator.evaluate(e), compiled.evaluate(), formula);
+        }
+    }
+
+    @Test
+    public void testFunctionsVariablesAndFormulas() {
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        functions.put("when", value -> ((Boolean) value[0]) ? value[1] : value[2]);
+        functions.put("count", value -> ((Object[]) value[0]).length);
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", 1);
+        values.put("r1", 1);
+        values.put("r2", 2);
+        values.put("text1", "TEXT1");
+        values.put("text2", "TEXT2");
+
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f1", parser.parse("=a*2"));
+        expressions.put("f2", parser.parse("=a*3+=f1"));
+
+        Evaluator evaluator = new Evaluator(functions, values, expressions);
+        CompiledExpression compiled = evaluator.compile(parser.parse("=5 * when(text1=text2;=f1;=f2)"));
+        assertEquals(25.0, compiled.evaluate());
+
+        values.put("a", 2);
+        assertEquals(50.0, compiled.evaluate());
+
+        assertEquals(2, evaluator.compile(parser.parse("=count(r1:r2)")).<Integer>evaluate());
+        assertNull(evaluator.compile(parser.parse("=missing*2")).evaluate());
+        assertNull(evaluator.compile(parser.parse("=a+=missing")).evaluate());
+    }
+
+    @Test
+    public void testTooLarge() {
+        StringBuilder sb = new StringBuilder("=a");
+        for (int i = 0; i < 10000; i++) {
+            sb.append("+a");
+        }
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", 1.0);
+        CompiledExpression compiled = new Evaluator(new HashMap<>(), values).compile(parser.parse(sb.toString()));
+        assertFalse(compiled instanceof AbstractCompiledExpression);
+        assertEquals(10001.0, compiled.evaluate());
+    }
+}
@@ -0,0 +1,220 @@
+package evaluation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import parser.Expression;
+import parser.Parser;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author sedoe
+ */
+public class ExpressionPreparerTest {
+    private Parser parser = new Parser();
+
+    @Test
+    public void testArithmetic() {
+        Evaluator evaluator = new Evaluator();
+        String[] formulas = {
+                "=-2^2", "=2+-2^2", "=--2", "1-2-3", "1--2-----3", "3-2+1", "4/2*3", "1*2+2*3/2", "2^3^4",
+                "=-((2+2+2+2-2-2-2-2-2*5)^2) / 25 / 2 * 3", "=5*23/(3/9/5/4*(18-3)-3-4)", "=6*-4*+9*-8/-5/-6/(-2)^2^2",
+                "=1+1<3", "=3>1+1", "=3>=3", "=2<=1", "=1<>1", "=0.0=-0.0", "=\"a\"<\"b\"", "=\"x\"+1"
+        };
+        for (String formula : formulas) {
+            Expression e = parser.parse(formula);
+            assertEquals((Object) evaluator.evaluate(e), evaluator.prepare(e).evaluate(), formula);
+        }
+    }
+
+    @Test
+    public void testPrimitiveEvaluation() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", 3);
+        values.put("text", "TEXT");
+        Evaluator evaluator = new Evaluator(new HashMap<>(), values);
+
+        String[] numeric = {"=-2^2", "1--2-----3", "=6*-4*+9*-8/-5/-6/(-2)^2^2", "=a*2+1", "=-(a*2)"};
+        for (String formula : numeric) {
+            Expression e = parser.parse(formula);
+            double expected = evaluator.<Number>evaluate(e).doubleValue();
+            assertEquals(expected, evaluator.evaluateDouble(e), formula);
+            assertEquals(expected, evaluator.prepare(e).evaluateDouble(), formula);
+        }
+
+        Expression noNumber = parser.parse("=text*2");
+        assertTrue(Double.isNaN(evaluator.evaluateDouble(noNumber)));
+        assertTrue(Double.isNaN(evaluator.prepare(noNumber).evaluateDouble()));
+
+        String[] bool = {"=1+1<3", "=3>1+1", "=1<>1", "=0.0=-0.0", "=a>=3", "=text=\"TEXT\"", "=(1<2)"};
+        for (String formula : bool) {
+            Expression e = parser.parse(formula);
+            boolean expected = evaluator.<Boolean>evaluate(e);
+            assertEquals(expected, evaluator.evaluateBoolean(e), formula);
+            assertEquals(expected, evaluator.prepare(e).evaluateBoolean(), formula);
+        }
+    }
+
+    @Test
+    public void testVariableSlots() {
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f1", parser.parse("=b*2"));
+        Evaluator evaluator = new Evaluator(new HashMap<>(), new HashMap<>(), expressions);
+
+        VariableSlots slots = new VariableSlots();
+        PreparedExpression first = evaluator.prepare(parser.parse("=a+=f1"), slots);
+        PreparedExpression second = evaluator.prepare(parser.parse("=c<>\"x\"+b"), slots);
+        assertEquals(3, slots.size());
+        assertEquals(0, slots.slot("a"));
+        assertEquals(1, slots.slot("b"));
+        assertEquals(2, slots.slot("c"));
+
+        EvaluationContext context = first.newContext();
+        for (int i = 0; i < 10; i++) {
+            context.setDouble(slots.slot("a"), i);
+            context.set(slots.slot("b"), i * 10);
+            context.set("c", "x");
+            assertEquals(i + i * 20.0, first.evaluateDouble(context));
+            assertEquals(i + i * 20.0, evaluator.evaluate(parser.parse("=a+=f1"), context));
+            assertNull(second.evaluate(context));
+        }
+
+        context.clear();
+        assertNull(first.evaluate(context));
+        assertThrows(IllegalArgumentException.class,
+                () -> evaluator.prepare(parser.parse("=a")).evaluate(context));
+    }
+
+    @Test
+    public void testBatch() {
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        functions.put("max", value -> Math.max(((Number) value[0]).doubleValue(), ((Number) value[1]).doubleValue()));
+        Map<String, Object> values = new HashMap<>();
+        values.put("c", 3);
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f1", parser.parse("=a*c"));
+        Evaluator evaluator = new Evaluator(functions, values, expressions);
+
+        int rows = 2500;
+        double[] a = new double[rows];
+        double[] b = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            a[i] = i * 0.5;
+            b[i] = rows - i;
+        }
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("a", a);
+        columns.put("b", b);
+
+        PreparedExpression prepared = evaluator.prepare(parser.parse("=-(a+b)/4-=f1+max(a;b)*(a>b)+missing"));
+        double[] result = new double[rows];
+        prepared.evaluateBatch(columns, rows, result);
+
+        PreparedExpression numeric = evaluator.prepare(parser.parse("=-(a+b)/4-=f1+max(a;b)"));
+        double[] numericResult = new double[rows];
+        numeric.evaluateBatch(columns, rows, numericResult);
+
+        EvaluationContext context = numeric.newContext();
+        for (int i = 0; i < rows; i++) {
+            assertTrue(Double.isNaN(result[i]));
+            context.setDouble(numeric.getSlots().slot("a"), a[i]);
+            context.setDouble(numeric.getSlots().slot("b"), b[i]);
+            context.set("c", 3);
+            assertEquals(numeric.evaluateDouble(context), numericResult[i]);
+            assertEquals(-(a[i] + b[i]) / 4 - a[i] * 3 + Math.max(a[i], b[i]), numericResult[i]);
+        }
+
+        // a chain of operators long enough to be evaluated in a loop
+        StringBuilder chain = new StringBuilder("=a");
+        for (int i = 0; i < 40; i++) {
+            chain.append(i % 2 == 0 ? "+b" : "-a/2");
+        }
+        PreparedExpression looped = evaluator.prepare(parser.parse(chain.toString()));
+        looped.evaluateBatch(columns, rows, result);
+        EvaluationContext loopedContext = looped.newContext();
+        for (int i = 0; i < rows; i++) {
+            loopedContext.setDouble(looped.getSlots().slot("a"), a[i]);
+            loopedContext.setDouble(looped.getSlots().slot("b"), b[i]);
+            assertEquals(a[i] + 20 * b[i] - 20 * (a[i] / 2), result[i]);
+            assertEquals((Object) result[i], looped.evaluate(loopedContext));
+        }
+        assertEquals((Object) (1 + 20 * 2 - 20 * 0.5), new Evaluator(functions, values, expressions)
+                .prepare(parser.parse(chain.toString().replace("a", "1").replace("b", "2"))).evaluate());
+    }
+
+    @Test
+    public void testParallelBatch() {
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        functions.put("sqrt", value -> Math.sqrt(((Number) value[0]).doubleValue()));
+        PreparedExpression prepared = new Evaluator(functions).prepare(parser.parse("=sqrt(a)*b-a/3"));
+
+        int rows = 100_000;
+        double[] a = new double[rows];
+        double[] b = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            a[i] = i;
+            b[i] = i % 7;
+        }
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("a", a);
+        columns.put("b", b);
+
+        double[] expected = new double[rows];
+        prepared.evaluateBatch(columns, rows, expected);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            double[] result = new double[rows];
+            prepared.evaluateBatch(columns, rows, result, pool, 1000);
+            assertArrayEquals(expected, result);
+        } finally {
+            pool.shutdown();
+        }
+
+        double[] result = new double[rows];
+        prepared.evaluateBatchParallel(columns, rows, result);
+        assertArrayEquals(expected, result);
+    }
+
+    @Test
+    public void testFunctionsVariablesAndFormulas() {
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        functions.put("when", value -> ((Boolean) value[0]) ? value[1] : value[2]);
+        functions.put("sum", value -> {
+            double result = 0;
+            for (Object o : value) {
+                result += o instanceof Object[] ? ((Object[]) o).length : ((Number) o).doubleValue();
+            }
+            return result;
+        });
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", 1);
+        values.put("r1", 1);
+        values.put("r2", 2);
+        values.put("text1", "TEXT1");
+        values.put("text2", "TEXT2");
+
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f1", parser.parse("=a*2"));
+        expressions.put("f2", parser.parse("=a*3+=f1"));
+
+        Evaluator evaluator = new Evaluator(functions, values, expressions);
+        PreparedExpression prepared = evaluator.prepare(parser.parse("=5 * when(text1=text2;=f1;=f2)"));
+        assertEquals(25.0, prepared.evaluate());
+
+        values.put("a", 2);
+        assertEquals(50.0, prepared.evaluate());
+
+        assertEquals(10.0, evaluator.prepare(parser.parse("=sum(r1:r2;1;2;3;a)")).evaluate());
+        assertNull(evaluator.prepare(parser.parse("=missing*2")).evaluate());
+        assertNull(evaluator.prepare(parser.parse("=a+=missing")).evaluate());
+    }
+}
@@ -0,0 +1,66 @@
+package evaluation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import parser.Expression;
+import parser.Parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author sedoe
+ */
+public class FormulaSetTest {
+    private Parser parser = new Parser();
+
+    @Test
+    public void testIncrementalRecalculation() {
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        functions.put("list", value -> Arrays.toString((Object[]) value[0]));
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", 1.0);
+        values.put("b", 2.0);
+        values.put("r1", 1.0);
+        values.put("r2", 2.0);
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("total", parser.parse("==f1+=f2"));
+        expressions.put("f1", parser.parse("=a*2"));
+        expressions.put("f2", parser.parse("=b+=f1"));
+        expressions.put("f3", parser.parse("=b*10"));
+        expressions.put("f4", parser.parse("=list(r1:r2)"));
+
+        FormulaSet set = new FormulaSet(functions, values, expressions);
+        assertTrue(set.getFormulaNames().indexOf("f1") < set.getFormulaNames().indexOf("f2"));
+        assertTrue(set.getFormulaNames().indexOf("f2") < set.getFormulaNames().indexOf("total"));
+        assertEquals(5, set.recalculate());
+        assertEquals(6.0, (Double) set.get("total"));
+        assertEquals(0, set.recalculate());
+
+        set.setValue("a", 3.0);
+        assertTrue(set.isDirty("f1"));
+        assertTrue(set.isDirty("total"));
+        assertFalse(set.isDirty("f3"));
+        assertEquals(3, set.recalculate());
+        assertEquals(14.0, (Double) set.get("total"));
+        assertEquals(20.0, (Double) set.get("f3"));
+
+        set.setValue("r2", 5.0);
+        assertEquals(1, set.recalculate());
+        assertEquals("[1.0, 5.0]", set.get("f4"));
+    }
+
+    @Test
+    public void testCycle() {
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f1", parser.parse("==f2+1"));
+        expressions.put("f2", parser.parse("==f1+1"));
+        expressions.put("f3", parser.parse("=a"));
+        assertThrows(IllegalArgumentException.class, () -> new FormulaSet(new HashMap<>(), new HashMap<>(), expressions));
+    }
+}
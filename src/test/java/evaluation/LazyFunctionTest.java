@@ -0,0 +1,108 @@
+package evaluation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import parser.Expression;
+import parser.Parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author sedoe
+ */
+public class LazyFunctionTest {
+    private Parser parser = new Parser();
+    private AtomicInteger calls = new AtomicInteger();
+
+    private Evaluator evaluator() {
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        functions.put("when", (ILazyFunction<Object>) arguments ->
+                arguments.getBoolean(0) ? arguments.get(1) : arguments.get(2));
+        functions.put("und", (ILazyFunction<Boolean>) arguments -> {
+            for (int i = 0; i < arguments.size(); i++) {
+                if (!arguments.getBoolean(i)) {
+                    return false;
+                }
+            }
+            return true;
+        });
+        functions.put("twice", (ILazyFunction<Double>) arguments -> arguments.getDouble(0) + arguments.getDouble(0));
+        functions.put("count", value -> {
+            calls.incrementAndGet();
+            return value[0];
+        });
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", 2);
+        values.put("text1", "TEXT1");
+        values.put("text2", "TEXT2");
+
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f1", parser.parse("=count(a*2)"));
+        expressions.put("f2", parser.parse("=count(a*3)"));
+        return new Evaluator(functions, values, expressions);
+    }
+
+    private void assertLazy(Function<Expression, Object> engine) {
+        String[] formulas = {"=5 * when(text1=text2;=f1;=f2)", "=when(text1<>text2;=f1;=f2)", "=und(1>2;=f1=4)",
+                "=und(1<2;=f1=4)", "=twice(=f2)", "=when(und(a>1;when(a<1;=f1;1=1));twice(count(1));=f2)"};
+        Object[] expected = {30.0, 4.0, false, true, 12.0, 2.0};
+        int[] expectedCalls = {1, 1, 0, 1, 1, 1};
+        for (int i = 0; i < formulas.length; i++) {
+            calls.set(0);
+            assertEquals(expected[i], engine.apply(parser.parse(formulas[i])), formulas[i]);
+            assertEquals(expectedCalls[i], calls.get(), formulas[i]);
+        }
+    }
+
+    @Test
+    public void testEvaluator() {
+        Evaluator evaluator = evaluator();
+        assertLazy(evaluator::evaluate);
+    }
+
+    @Test
+    public void testPrepared() {
+        Evaluator evaluator = evaluator();
+        assertLazy(e -> evaluator.prepare(e).evaluate());
+    }
+
+    @Test
+    public void testCompiled() {
+        Evaluator evaluator = evaluator();
+        assertLazy(e -> {
+            CompiledExpression compiled = evaluator.compile(e);
+            assertTrue(compiled instanceof AbstractCompiledExpression);
+            return compiled.evaluate();
+        });
+    }
+
+    @Test
+    public void testManyArguments() {
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        functions.put("pick", (ILazyFunction<Object>) arguments -> arguments.get((int) arguments.getDouble(0)));
+        Map<String, Object> values = new HashMap<>();
+        StringBuilder sb = new StringBuilder("=pick(k");
+        for (int i = 1; i <= 1000; i++) {
+            sb.append(";").append(i).append("*a");
+        }
+        values.put("a", 2.0);
+        CompiledExpression compiled = new Evaluator(functions, values).compile(parser.parse(sb.append(")").toString()));
+        assertTrue(compiled instanceof AbstractCompiledExpression);
+        for (int k : new int[]{1, 2, 500, 1000}) {
+            values.put("k", k);
+            assertEquals(2.0 * k, compiled.evaluate());
+        }
+    }
+
+    @Test
+    public void testEagerCall() {
+        ILazyFunction<Object> when = arguments -> arguments.getBoolean(0) ? arguments.get(1) : arguments.get(2);
+        assertEquals("b", when.calculate(false, "a", "b"));
+    }
+}
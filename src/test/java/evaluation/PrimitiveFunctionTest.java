@@ -0,0 +1,108 @@
+package evaluation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import parser.Expression;
+import parser.Parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author sedoe
+ */
+public class PrimitiveFunctionTest {
+    private Parser parser = new Parser();
+
+    private Evaluator evaluator() {
+        Map<String, IFunction<? extends Object, ? extends Object>> functions = new HashMap<>();
+        // the primitive methods must be called, not the ones with parameter arrays
+        functions.put("sqrt", new IDoubleFunction() {
+            @Override
+            public double calculateDouble(double value) {
+                return Math.sqrt(value);
+            }
+
+            @Override
+            public Double calculate(Object... params) {
+                throw new AssertionError("boxed call");
+            }
+        });
+        functions.put("max", new IDoubleBinaryFunction() {
+            @Override
+            public double calculateDouble(double left, double right) {
+                return Math.max(left, right);
+            }
+
+            @Override
+            public Double calculate(Object... params) {
+                throw new AssertionError("boxed call");
+            }
+        });
+        functions.put("sum", (IDoubleArrayFunction) values -> {
+            double result = 0;
+            for (double value : values) {
+                result += value;
+            }
+            return result;
+        });
+        functions.put("positive", (IDoublePredicate) value -> value > 0);
+        functions.put("near", (IDoubleBinaryPredicate) (left, right) -> Math.abs(left - right) < 0.01);
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", 16);
+        values.put("r1", 1);
+        values.put("r2", 2);
+        values.put("r3", 3);
+        values.put("text", "TEXT");
+
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f1", parser.parse("=sqrt(a)*2"));
+        return new Evaluator(functions, values, expressions);
+    }
+
+    private void assertFunctions(Function<Expression, Object> engine) {
+        String[] formulas = {"=sqrt(a)", "=1+sqrt(a*4)", "=max(=f1;a/2)", "=sum(1;a;2*3)", "=sum(r1:r3;a)", "=sum()",
+                "=positive(a-20)", "=near(sqrt(2)^2;2)", "=sqrt(text)", "=sqrt(max(a;sqrt(a)))"};
+        Object[] expected = {4.0, 9.0, 8.0, 23.0, 22.0, 0.0, false, true, Double.NaN, 4.0};
+        for (int i = 0; i < formulas.length; i++) {
+            assertEquals(expected[i], engine.apply(parser.parse(formulas[i])), formulas[i]);
+        }
+    }
+
+    @Test
+    public void testEvaluator() {
+        Evaluator evaluator = evaluator();
+        assertFunctions(evaluator::evaluate);
+        assertEquals(9.0, evaluator.evaluateDouble(parser.parse("=1+sqrt(a*4)")));
+        assertTrue(evaluator.evaluateBoolean(parser.parse("=positive(a)")));
+    }
+
+    @Test
+    public void testPrepared() {
+        Evaluator evaluator = evaluator();
+        assertFunctions(e -> evaluator.prepare(e).evaluate());
+        assertEquals(9.0, evaluator.prepare(parser.parse("=1+sqrt(a*4)")).evaluateDouble());
+    }
+
+    @Test
+    public void testCompiled() {
+        Evaluator evaluator = evaluator();
+        assertFunctions(e -> {
+            CompiledExpression compiled = evaluator.compile(e);
+            assertTrue(compiled instanceof AbstractCompiledExpression);
+            return compiled.evaluate();
+        });
+    }
+
+    @Test
+    public void testBoxedCall() {
+        IDoubleArrayFunction sum = values -> values.length;
+        assertEquals(4.0, sum.calculate(1, new Object[]{2, "x"}, 3.5));
+        IDoubleBinaryPredicate less = (left, right) -> left < right;
+        assertEquals(true, less.calculate(1, 2));
+    }
+}
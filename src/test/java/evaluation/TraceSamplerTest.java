@@ -0,0 +1,150 @@
+package evaluation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import parser.Expression;
+import parser.Parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author sedoe
+ */
+public class TraceSamplerTest {
+    private Parser parser = new Parser();
+
+    @Test
+    public void testTrace() {
+        List<String> calls = new ArrayList<>();
+        Evaluator evaluator = evaluator();
+        evaluator.setTraceSampler(new TraceSampler(recorder(calls)));
+        assertEquals(7.0, (Object) evaluator.evaluate(parser.parse("=1+=f1")));
+        assertEquals("[enter 0 1.0+=f1, enter 1 1.0, exit 1 1.0 1.0, enter 1 =f1, enter 2 a*2.0, enter 3 a, "
+                + "exit 3 a 3.0, enter 3 2.0, exit 3 2.0 2.0, exit 2 a*2.0 6.0, exit 1 =f1 6.0, exit 0 1.0+=f1 7.0]",
+                calls.toString());
+
+        evaluator.setTraceSampler(null);
+        calls.clear();
+        evaluator.evaluate(parser.parse("=1+=f1"));
+        assertEquals(0, calls.size());
+    }
+
+    @Test
+    public void testLongChain() {
+        List<String> calls = new ArrayList<>();
+        Evaluator evaluator = evaluator();
+        evaluator.setTraceSampler(new TraceSampler(recorder(calls)));
+        assertEquals(4.0, (Object) evaluator.evaluate(parser.parse("=a-1+2")));
+        assertEquals("[enter 0 a-1.0+2.0, enter 1 a-1.0, enter 2 a, exit 2 a 3.0, enter 2 1.0, exit 2 1.0 1.0, "
+                + "exit 1 a-1.0 2.0, enter 1 2.0, exit 1 2.0 2.0, exit 0 a-1.0+2.0 4.0]", calls.toString());
+
+        calls.clear();
+        assertEquals(null, (Object) evaluator.evaluate(parser.parse("=a-t+2")));
+        assertEquals("exit 1 a-t null", calls.get(calls.size() - 4));
+
+        int[] depth = new int[2];
+        evaluator.setTraceSampler(new TraceSampler(new TraceListener() {
+            @Override
+            public void enter(Expression e, int d) {
+                depth[0] = Math.max(depth[0], d);
+                depth[1]++;
+            }
+
+            @Override
+            public void exit(Expression e, int d, Object result, long nanos) {
+                depth[1]--;
+            }
+        }));
+        StringBuilder sb = new StringBuilder("=a");
+        for (int i = 0; i < 50000; i++) {
+            sb.append("+1");
+        }
+        assertEquals(50003.0, (Object) evaluator.evaluate(parser.parse(sb.toString())));
+        assertEquals(50000, depth[0]);
+        assertEquals(0, depth[1]);
+    }
+
+    @Test
+    public void testSampling() {
+        List<String> calls = new ArrayList<>();
+        Evaluator evaluator = evaluator();
+        Expression e = parser.parse("=a");
+        evaluator.setTraceSampler(new TraceSampler(recorder(calls), 3, 0));
+        for (int i = 0; i < 7; i++) {
+            evaluator.evaluate(e);
+        }
+        assertEquals(6, calls.size());
+
+        calls.clear();
+        evaluator.setTraceSampler(new TraceSampler(recorder(calls), 1, Long.MAX_VALUE));
+        EvaluationContext context = new EvaluationContext(new HashMap<>());
+        for (int i = 0; i < 3; i++) {
+            evaluator.evaluate(e, context);
+        }
+        assertEquals(0, calls.size());
+
+        evaluator.setTraceSampler(new TraceSampler(recorder(calls), 1, 1));
+        evaluator.evaluate(e, context);
+        evaluator.evaluate(e, context);
+        assertEquals("[enter 0 a, exit 0 a null, enter 0 a, exit 0 a null]", calls.toString());
+    }
+
+    @Test
+    public void testDebugInfo() throws UnsupportedEncodingException {
+        Evaluator evaluator = evaluator();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(bytes, true, "UTF-8"));
+        try {
+            // the printer writes to the System.out of the time the debug info is turned on
+            evaluator.setShowEvaluationDebugInfo(true);
+        } finally {
+            System.setOut(out);
+        }
+        assertTrue(evaluator.isShowEvaluationDebugInfo());
+        assertEquals(7.0, (Object) evaluator.evaluate(parser.parse("=1+=f1")));
+        evaluator.setShowEvaluationDebugInfo(false);
+        assertEquals(null, evaluator.getTraceSampler());
+
+        String[] lines = bytes.toString("UTF-8").replaceAll(" \\(\\d+ ns\\)", "").split("\\R");
+        assertEquals(Arrays.asList(
+                "\u2514\u2500 NumberExpression: 1.0 --> 1.0",
+                "\u2502  \u2502  \u2514\u2500 VariableExpression: a --> 3.0",
+                "\u2502  \u2502  \u2514\u2500 NumberExpression: 2.0 --> 2.0",
+                "\u2502  \u2514\u2500 MathExpression: a*2.0 --> 6.0",
+                "\u2514\u2500 FormulaExpression: =f1 --> 6.0",
+                "MathExpression: 1.0+=f1 --> 7.0"), Arrays.asList(lines));
+    }
+
+    private Evaluator evaluator() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", 3.0);
+        Map<String, Expression> expressions = new HashMap<>();
+        expressions.put("f1", parser.parse("=a*2"));
+        return new Evaluator(new HashMap<>(), values, expressions);
+    }
+
+    private static TraceListener recorder(List<String> calls) {
+        return new TraceListener() {
+            @Override
+            public void enter(Expression e, int depth) {
+                calls.add("enter " + depth + " " + e);
+            }
+
+            @Override
+            public void exit(Expression e, int depth, Object result, long nanos) {
+                assertTrue(nanos >= 0);
+                calls.add("exit " + depth + " " + e + " " + result);
+            }
+        };
+    }
+}
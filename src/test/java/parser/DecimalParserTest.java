@@ -0,0 +1,92 @@
+package parser;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author sedoe
+ */
+public class DecimalParserTest {
+
+    @Test
+    public void testHardCases() {
+        String[] literals = {"0", "000", "0.0", "1", "1.5", "0.1", "0.3", "123456789012345678",
+                "9007199254740993", "9007199254740992.5", "18446744073709551615", "18446744073709551616",
+                "0.000000000000000000000000000000000000000000001", "2.2250738585072011", "2.2250738585072014",
+                "1797693134862315708145274237317043567980705675258449965989174768031572607800285387605895586327668781715"
+                        + "4045895351438246423432132688946418276846754670353751698604991057655128207624549009038932894407586850"
+                        + "8455133942304583236903222948165808559332123348274797826204144723168738177180919299881250404026184124"
+                        + "8583680", "4.9406564584124654", "0.10000000000000000555111512312578270211815834045410156250",
+                "0.1000000000000000055511151231257827021181583404541015625000001", "123.456",
+                "3.14159265358979323846264338327950288419716939937510", "1000000000000000000000000",
+                "100000000000000000000000.0000000000000000000001"};
+        for (String literal : literals) {
+            assertEquals(Double.parseDouble(literal), parse(literal), literal);
+        }
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(17);
+        for (int i = 0; i < 100000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int digits = 1 + random.nextInt(i % 2 == 0 ? 17 : 40);
+            int dot = random.nextInt(digits + 1);
+            for (int d = 0; d < digits; d++) {
+                if (d == dot) {
+                    sb.append('.');
+                }
+                sb.append((char) ('0' + random.nextInt(10)));
+            }
+            for (int zeros = random.nextInt(4) == 0 ? random.nextInt(300) : 0; zeros > 0; zeros--) {
+                // very large or small numbers
+                if (sb.indexOf(".") < 0) {
+                    sb.append('0');
+                } else {
+                    sb.insert(sb.indexOf(".") + 1, '0');
+                }
+            }
+            String literal = sb.toString();
+            assertEquals(Double.parseDouble(literal), parse(literal), literal);
+        }
+    }
+
+    @Test
+    public void testRandomDoubles() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            double value = Math.abs(Double.longBitsToDouble(random.nextLong()));
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+            String literal = new BigDecimal(value).toPlainString();
+            assertEquals(value, parse(literal), literal);
+        }
+    }
+
+    @Test
+    public void testIgnoredDots() {
+        assertEquals(1.52, DecimalParser.parse("1.5..2", 0, 6, false));
+        assertEquals(5.0, DecimalParser.parse("5", 0, 1, true));
+        assertEquals(55.0, DecimalParser.parse("5.5", 0, 3, true));
+        assertEquals(12.0, DecimalParser.parse("(12)", 1, 3, false));
+        assertThrows(NumberFormatException.class, () -> DecimalParser.parse("..", 0, 2, false));
+    }
+
+    @Test
+    public void testParser() {
+        Parser parser = new Parser();
+        assertEquals(0.1, ((NumberExpression) parser.parse("=0.1")).getValue());
+        assertEquals(5.0, ((NumberExpression) parser.parse("=.5")).getValue());
+        assertEquals(1.52, ((NumberExpression) parser.parse("=1.5..2")).getValue());
+    }
+
+    private static double parse(String literal) {
+        return DecimalParser.parse(literal, 0, literal.length(), false);
+    }
+}
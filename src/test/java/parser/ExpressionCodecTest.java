@@ -0,0 +1,77 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author sedoe
+ */
+public class ExpressionCodecTest {
+    private Parser parser = new Parser();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Map<String, Expression> formulas = new LinkedHashMap<>();
+        formulas.put("f1", parser.parse("=a*(b+1)-2^-c"));
+        formulas.put("f2", parser.parse("=when(=f1>=0;\"gr\u00f6\u00dfer\";sum(r1:r4)/3.25)"));
+        formulas.put("f3", parser.parse("=-(-0.0)<>f()"));
+        formulas.put("f4", parser.parse("=1+"));
+
+        Map<String, Expression> decoded = ExpressionCodec.decode(ExpressionCodec.encode(formulas));
+        assertEquals(formulas, decoded);
+        assertEquals("[f1, f2, f3, f4]", decoded.keySet().toString());
+
+        Path file = Files.createTempFile("formulas", ".bin");
+        try {
+            ExpressionCodec.write(formulas, file);
+            assertEquals(formulas, ExpressionCodec.read(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLongFormula() {
+        StringBuilder sb = new StringBuilder("=a0");
+        for (int i = 1; i < 50000; i++) {
+            sb.append(i % 2 == 0 ? '+' : '*').append('a').append(i % 7);
+        }
+        Map<String, Expression> formulas = Collections.singletonMap("long", parser.parse(sb.toString()));
+
+        ByteBuffer encoded = ExpressionCodec.encode(formulas);
+        // each node takes a tag and at most one varint
+        assertEquals(true, encoded.remaining() < 3 * 100000);
+        // the deep tree is compared by encoding it again
+        assertEquals(encoded, ExpressionCodec.encode(ExpressionCodec.decode(encoded.duplicate())));
+    }
+
+    @Test
+    public void testInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(ByteBuffer.wrap(new byte[8])));
+        ByteBuffer buffer = ExpressionCodec.encode(Collections.singletonMap("f", parser.parse("=1+2")));
+        buffer.put(buffer.limit() - 1, (byte) 7);
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(buffer));
+
+        ByteBuffer truncated = ExpressionCodec.encode(Collections.singletonMap("f", parser.parse("=1+2")));
+        truncated.limit(truncated.limit() - 2);
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(truncated));
+
+        // the last byte is the index of the constant or the variable name
+        ByteBuffer constant = ExpressionCodec.encode(Collections.singletonMap("f", parser.parse("=1")));
+        constant.put(constant.limit() - 1, (byte) 9);
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(constant));
+        ByteBuffer string = ExpressionCodec.encode(Collections.singletonMap("f", parser.parse("=a")));
+        string.put(string.limit() - 1, (byte) 9);
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(string));
+    }
+}
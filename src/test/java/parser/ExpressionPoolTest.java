@@ -0,0 +1,64 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * @author sedoe
+ */
+public class ExpressionPoolTest {
+    private Parser parser = new Parser();
+
+    @Test
+    public void testEquality() {
+        for (String formula : new String[]{"=a*(b+1)", "=f(a;\"x\";=g)>-2", "=sum(r1:r4)/2^3"}) {
+            Expression first = parser.parse(formula);
+            Expression second = parser.parse(formula);
+            assertEquals(first, second, formula);
+            assertEquals(first.hashCode(), second.hashCode(), formula);
+        }
+        assertNotEquals(parser.parse("=a+b"), parser.parse("=a-b"));
+        assertNotEquals(parser.parse("=f(a)"), parser.parse("=g(a)"));
+        assertNotEquals(parser.parse("=0"), parser.parse("=-0"));
+    }
+
+    @Test
+    public void testSharedSubtrees() {
+        ExpressionPool pool = new ExpressionPool();
+        MathExpression first = (MathExpression) pool.intern(parser.parse("=(a*b+c)/2"));
+        MathExpression second = (MathExpression) pool.intern(parser.parse("=(a*b+c)*3"));
+        assertSame(first.getLeft(), second.getLeft());
+        assertSame(first, pool.intern(parser.parse("=(a*b+c)/2")));
+        assertEquals(10, pool.size());
+    }
+
+    @Test
+    public void testLongChain() {
+        StringBuilder sb = new StringBuilder("=a0");
+        for (int i = 1; i < 50000; i++) {
+            sb.append(i % 2 == 0 ? '+' : '-').append('a').append(i);
+        }
+        Expression first = parser.parse(sb.toString());
+        Expression second = parser.parse(sb.toString());
+        assertEquals(first.hashCode(), second.hashCode());
+        assertEquals(first, second);
+        assertNotEquals(first, parser.parse("=b0" + sb.substring(3)));
+
+        ExpressionPool pool = new ExpressionPool();
+        assertSame(pool.intern(first), pool.intern(second));
+        assertEquals(100000 - 1, pool.size());
+
+        Expression bool = new NumberExpression(1.0);
+        Expression other = new NumberExpression(1.0);
+        for (int i = 0; i < 50000; i++) {
+            bool = new BoolExpression(bool, BoolExpression.Operator.LE, new VariableExpression("a"));
+            other = new BoolExpression(other, BoolExpression.Operator.LE, new VariableExpression("a"));
+        }
+        assertEquals(bool.hashCode(), other.hashCode());
+        assertEquals(bool, other);
+        assertSame(pool.intern(bool), pool.intern(other));
+    }
+}
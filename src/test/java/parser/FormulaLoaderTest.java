@@ -0,0 +1,89 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * @author sedoe
+ */
+public class FormulaLoaderTest {
+
+    @Test
+    public void testLoad() throws IOException {
+        Path file = Files.createTempFile("formulas", ".txt");
+        try {
+            Files.write(file, ("f1 = a*(b+1)\r\n"
+                    + "\n"
+                    + "f2 = ==f1+sum(r1:r3)\n"
+                    + "no separator\n"
+                    + " = 1\n"
+                    + "f3 = 1+\n"
+                    + "f1 = 2\n"
+                    + "f4 = \"\u00e4\" = b").getBytes(StandardCharsets.UTF_8));
+
+            FormulaLoader.Result result = new FormulaLoader().load(file);
+            Map<String, Expression> expressions = result.getExpressions();
+            assertEquals("[f1, f2, f4]", expressions.keySet().toString());
+            assertEquals(new Parser().parse("=a*(b+1)"), expressions.get("f1"));
+            assertEquals(new Parser().parse("==f1+sum(r1:r3)"), expressions.get("f2"));
+            assertEquals(new Parser().parse("=\"\u00e4\" = b"), expressions.get("f4"));
+            // the names of a file are interned in one table
+            String f1 = expressions.keySet().iterator().next();
+            assertSame(f1, ((FormulaExpression) ((MathExpression) expressions.get("f2")).getLeft()).getName());
+            assertEquals("[line 4: Missing '=' between name and expression, line 5: Missing name, "
+                    + "line 6: Invalid expression: 1+, line 7: Duplicate formula f1]", result.getErrors().toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testChunks() throws IOException {
+        Path file = Files.createTempFile("formulas", ".txt");
+        try {
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                lines.add(i % 100 == 99 ? "broken" + i : "f" + i + " = a" + i + "+" + i + ".5");
+            }
+            Files.write(file, lines, StandardCharsets.UTF_8);
+
+            FormulaLoader.Result result = new FormulaLoader(Parser.Mode.PRECEDENCE_CLIMBING, 1000).load(file);
+            assertEquals(4950, result.getExpressions().size());
+            assertEquals(50, result.getErrors().size());
+            assertEquals(100, result.getErrors().get(0).getLine());
+            assertEquals(5000, result.getErrors().get(49).getLine());
+            assertEquals(new Parser().parse("=a4998+4998.5"), result.getExpressions().get("f4998"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLongPowerChain() throws IOException {
+        Path file = Files.createTempFile("formulas", ".txt");
+        try {
+            StringBuilder sb = new StringBuilder("f1 = a0^2");
+            for (int i = 1; i < 5000; i++) {
+                sb.append("+a").append(i).append("^2");
+            }
+            Files.write(file, (sb + "\nf2 = 1").getBytes(StandardCharsets.UTF_8));
+
+            FormulaLoader.Result result = new FormulaLoader().load(file);
+            assertEquals("[]", result.getErrors().toString());
+            assertEquals(new Parser().parse(sb.substring(5)), result.getExpressions().get("f1"));
+            assertEquals(new Parser().parse("1"), result.getExpressions().get("f2"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
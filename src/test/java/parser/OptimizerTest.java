@@ -0,0 +1,79 @@
+package parser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import evaluation.Evaluator;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author sedoe
+ */
+public class OptimizerTest {
+    private Parser parser = new Parser();
+    private Optimizer optimizer = new Optimizer();
+
+    @Test
+    public void testSameResults() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", 3.0);
+        values.put("i", 3);
+        values.put("t", "text");
+        Evaluator evaluator = new Evaluator(new HashMap<>(), values);
+
+        for (String formula : new String[]{"=(1/2)+a", "=--(a*2)", "=a*1", "=1*i", "=i*1", "=(a-0)/1", "=t*1",
+                "=2^3*a", "=-(2*3)", "=((a))>(1+1)", "=1--2-----3", "=(a*2)^1", "=2+-2^2", "=-0*1",
+                "=-(a*0)-(-0)", "=-(a*0)-0"}) {
+            Expression e = parser.parse(formula);
+            Optimizer.Result result = optimizer.optimize(e);
+            Object expected = evaluator.evaluate(e);
+            Object actual = evaluator.evaluate(result.getExpression());
+            assertEquals(expected, actual, formula);
+            // Double.equals tells -0.0 from 0.0, but not if the results are no doubles
+            assertEquals(String.valueOf(expected), String.valueOf(actual), formula);
+            assertEquals(Optimizer.count(e) - result.getRemovedNodes(), Optimizer.count(result.getExpression()));
+        }
+    }
+
+    @Test
+    public void testSimplifications() {
+        Optimizer.Result result = optimizer.optimize(parser.parse("=(1/2)+a"));
+        assertEquals("0.5+a", result.getExpression().toString());
+        assertEquals(3, result.getRemovedNodes());
+
+        assertEquals("--a*2.0", optimizer.optimize(parser.parse("=--(a*2)")).getExpression().toString());
+        assertEquals("a*2.0", new Optimizer(true).optimize(parser.parse("=--(a*2)")).getExpression().toString());
+        assertEquals("a*1.0", optimizer.optimize(parser.parse("=a*1")).getExpression().toString());
+        assertEquals("a", new Optimizer(true).optimize(parser.parse("=a*1")).getExpression().toString());
+        assertEquals("a", new Optimizer(true).optimize(parser.parse("=--a")).getExpression().toString());
+        assertEquals("a+0.0", optimizer.optimize(parser.parse("=a+0")).getExpression().toString());
+
+        Expression unchanged = parser.parse("=f(a;b)>c");
+        assertTrue(unchanged == optimizer.optimize(unchanged).getExpression());
+    }
+
+    @Test
+    public void testDoubleNegationOfNull() {
+        Evaluator evaluator = new Evaluator();
+        Expression e = parser.parse("=--(9-\"x\")");
+        Expression optimized = optimizer.optimize(e).getExpression();
+        assertEquals("--9.0-\"x\"", optimized.toString());
+        assertThrows(NullPointerException.class, () -> evaluator.evaluate(e));
+        assertThrows(NullPointerException.class, () -> evaluator.evaluate(optimized));
+    }
+
+    @Test
+    public void testLongChain() {
+        StringBuilder sb = new StringBuilder("=a0");
+        for (int i = 1; i < 50000; i++) {
+            sb.append("+a").append(i).append("*1");
+        }
+        Optimizer.Result result = new Optimizer(true).optimize(parser.parse(sb.toString()));
+        assertEquals(200000 - 3, result.getOriginalNodes());
+        assertEquals(100000 - 1, result.getOptimizedNodes());
+    }
+}
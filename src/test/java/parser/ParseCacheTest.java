@@ -0,0 +1,52 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * @author sedoe
+ */
+public class ParseCacheTest {
+
+    @Test
+    public void testHitsAndEviction() {
+        ParseCache cache = new ParseCache(2);
+
+        Expression a = cache.parse("=1+2");
+        assertEquals("1.0+2.0", a.toString());
+        assertSame(a, cache.parse("=1+2"));
+
+        Expression b = cache.parse("=3*4");
+        // touch a, so b is the least recently used one
+        cache.parse("=1+2");
+        cache.parse("=5-6");
+
+        assertEquals(2, cache.size());
+        assertSame(a, cache.parse("=1+2"));
+        assertNotSame(b, cache.parse("=3*4"));
+
+        assertEquals(3, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+        assertEquals(2, cache.getEvictionCount());
+        assertEquals(3.0 / 7, cache.getHitRate());
+    }
+
+    @Test
+    public void testSegments() {
+        ParseCache cache = new ParseCache(100);
+        for (int i = 0; i < 1000; i++) {
+            cache.parse("=a" + i + "*2");
+        }
+        assertEquals(100, cache.size());
+        assertEquals(900, cache.getEvictionCount());
+
+        Expression last = cache.parse("=a999*2");
+        assertSame(last, cache.parse("=a999*2"));
+        assertEquals(2, cache.getHitCount());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
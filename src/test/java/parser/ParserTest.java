@@ -1,12 +1,15 @@
 package parser;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import evaluation.Evaluator;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 /**
  * @author sedoe
@@ -120,6 +123,105 @@ public class ParserTest {
         assertEquals("(((1.0-2.0)-3.0)-4.0)", wrap(result).toString());
     }
 
+    @Test
+    public void testPrecedenceClimbing() {
+        Parser singlePass = new Parser(Parser.Mode.PRECEDENCE_CLIMBING);
+        for (String formula : new String[]{"=-2^2", "=2+-2^2", "=--2", "1-2-3", "1--2-----3", "3-2+1", "4/2*3",
+                "1*2+2*3/2", "2^3^4", "=-(2+2) / 25 / 2 * 3", "=2*4.5+2+2-1-1+5*3*3/5-3^2", "=6*-4*+9*-8/-5/-6",
+                "=(-2)^2^2", "=5*23/(3/9/5/4*(18-3)-3-4)", "=5 * when(text1=text2;=f1;=f2)", "afas <> 123",
+                "=f(x();a+b*c;\"x\"\"y\")>=sum(r1:r4)/2", "=a^b*c^d-e/f/g", "1.5..2+.5", ""}) {
+            assertEquals(parser.parse(formula), singlePass.parse(formula), formula);
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            String formula = generate(random, 4);
+            assertEquals(parser.parse(formula), singlePass.parse(formula), formula);
+        }
+
+        assertEquals(parser.parse("1-2*1^1^1-1"), singlePass.parse("1-2*1^1^1-1"));
+        assertEquals(-2.0, evaluator.evaluate(singlePass.parse("1-2*1^1^1-1")));
+        assertEquals("2.0^2.0=4.0", singlePass.parse("2^2=4").toString());
+        assertEquals("2.0^2.0=4.0", parser.parse("2^2=4").toString());
+        assertEquals("1.0<2.0=a", singlePass.parse("1<2=a").toString());
+    }
+
+    @Test
+    public void testMinusAfterOperator() {
+        Parser singlePass = new Parser(Parser.Mode.PRECEDENCE_CLIMBING);
+        String[] formulas = {"=a*b+-c", "=x - -y", "=a*b-c*-d+e", "=a+-b-c", "=a-b*-c-d", "=a/-b/c", "=a*-b*c"};
+        String[] expected = {"((a*b)+-c)", "(x--y)", "(((a*b)-(c*-d))+e)", "((a+-b)-c)", "((a-(b*-c))-d)",
+                "((a/-b)/c)", "((a*-b)*c)"};
+        for (int i = 0; i < formulas.length; i++) {
+            assertEquals(expected[i], wrap(parser.parse(formulas[i])).toString(), formulas[i]);
+            assertEquals(parser.parse(formulas[i]), singlePass.parse(formulas[i]), formulas[i]);
+        }
+
+        assertEquals(1.0, evaluator.evaluate(parser.parse("=2*3+-5")));
+        assertEquals(9.0, evaluator.evaluate(parser.parse("=7 - -2")));
+        assertEquals(27.0, evaluator.evaluate(parser.parse("=2*3-4*-5+1")));
+        assertEquals(9.0, evaluator.evaluate(parser.parse("=2-3*-4-5")));
+    }
+
+    @Test
+    public void testPowerInsideChain() {
+        Parser singlePass = new Parser(Parser.Mode.PRECEDENCE_CLIMBING);
+        String[] formulas = {"=1-1-2^2+3", "=1-2-2^2+3", "=2*2*2^2-1", "=8/2*2^2-1"};
+        double[] expected = {-1.0, -2.0, 15.0, 15.0};
+        for (int i = 0; i < formulas.length; i++) {
+            assertEquals(expected[i], (Object) evaluator.evaluate(parser.parse(formulas[i])), formulas[i]);
+            assertEquals(parser.parse(formulas[i]), singlePass.parse(formulas[i]), formulas[i]);
+        }
+    }
+
+    @Test
+    public void testLongPowerChain() {
+        Parser singlePass = new Parser(Parser.Mode.PRECEDENCE_CLIMBING);
+        StringBuilder sb = new StringBuilder("=2^2");
+        for (int i = 1; i < 5000; i++) {
+            sb.append("+2^2");
+        }
+        Expression e = parser.parse(sb.toString());
+        assertEquals(singlePass.parse(sb.toString()), e);
+        assertEquals(20000.0, evaluator.evaluate(e));
+        assertEquals(Double.valueOf(Math.pow(Math.pow(2, 2), 3)), evaluator.evaluate(parser.parse("=-2^2^3")));
+    }
+
+    @Test
+    public void testCharSequences() {
+        String formula = "=when(text1=\"a\"\"b\";sum(r1:r4)*.5;=f1)";
+        Expression expected = parser.parse(formula);
+        char[] chars = ("xx" + formula + "yy").toCharArray();
+        assertEquals(expected, parser.parse(chars, 2, formula.length()));
+        assertEquals(expected, parser.parse(new StringBuilder(formula)));
+        assertEquals(expected, parser.parse(CharBuffer.wrap(formula)));
+        assertEquals(expected, parser.parse("((" + formula + "))", 2, formula.length() + 2));
+
+        FunctionExpression first = (FunctionExpression) parser.parse("=when(a;b;c)");
+        FunctionExpression second = (FunctionExpression) parser.parse(new StringBuilder("when(c;b;a)"));
+        assertSame(first.getName(), second.getName());
+        assertSame(((VariableExpression) first.getParams().get(0)).getName(),
+                ((VariableExpression) second.getParams().get(2)).getName());
+    }
+
+    private String generate(Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return random.nextBoolean() ? String.valueOf(random.nextInt(10)) : "v" + random.nextInt(5);
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                return "(" + generate(random, depth - 1) + ")";
+            case 1:
+                return "f(" + generate(random, depth - 1) + ";" + generate(random, depth - 1) + ")";
+            default:
+                StringBuilder sb = new StringBuilder(generate(random, depth - 1));
+                for (int i = random.nextInt(4); i >= 0; i--) {
+                    sb.append("+-*/".charAt(random.nextInt(4))).append(generate(random, depth - 1));
+                }
+                return sb.toString();
+        }
+    }
+
     private Expression wrap(Expression e) {
         if (e instanceof MathExpression) {
             MathExpression m = (MathExpression) e;
@@ -0,0 +1,45 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * @author sedoe
+ */
+public class SymbolTableTest {
+
+    @Test
+    public void testIntern() {
+        SymbolTable symbols = new SymbolTable();
+        for (int i = 0; i < 1000; i++) {
+            String name = "name" + i;
+            assertSame(symbols.intern(name), symbols.intern(new StringBuilder("x" + name), 1, name.length() + 1));
+        }
+        assertEquals(1000, symbols.size());
+    }
+
+    @Test
+    public void testBounded() {
+        SymbolTable bounded = new SymbolTable(100);
+        String dropped = bounded.intern("name0");
+        for (int i = 1; i < 250; i++) {
+            bounded.intern("name" + i);
+        }
+        assertEquals(50, bounded.size());
+        assertSame(bounded.intern("name249"), bounded.intern(new StringBuilder("name249"), 0, 7));
+        assertEquals(dropped, bounded.intern("name0"));
+    }
+
+    @Test
+    public void testUnbounded() {
+        SymbolTable unbounded = SymbolTable.unbounded();
+        String first = unbounded.intern("name0");
+        for (int i = 1; i < 2 * SymbolTable.DEFAULT_MAX_SIZE; i++) {
+            unbounded.intern("name" + i);
+        }
+        assertEquals(2 * SymbolTable.DEFAULT_MAX_SIZE, unbounded.size());
+        assertSame(first, unbounded.intern(new StringBuilder("name0"), 0, 5));
+    }
+}